@@ -0,0 +1,401 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+ * command line mode that runs a pattern for a number of generations as fast as
+ * the engine goes, with no window and no AWT, then writes the final state and a
+ * summary. Run it directly (java Batch ...) or through the application jar, whose
+ * Launcher hands it options starting with --.
+ *
+ * Options:
+ *   --pattern <file or built-in name>  RLE or Macrocell pattern, placed in the middle of the grid
+ *   --soup <seed>                      random soup from a seed instead, e.g. one found by SoupSearch
+ *   --soup-size <n>                    side of the square soup, 16 by default
+ *   --density <d>                      chance of each cell of the soup being alive, 0.5 by default
+ *   --generations <n>                  generations to run (required)
+ *   --size <n> or <width>x<height>     grid size, 1024 by default
+ *   --topology torus|plane             wrap at the grid edges or grow without bound (default torus)
+ *   --engine bitboard|offheap|sparse|hashlife
+ *                                      torus engines: bitboard (default), offheap
+ *                                      plane engines: sparse (default), hashlife
+ *   --rule <rulestring or name>        B/S rule such as B36/S23 or HighLife, by default the
+ *                                      pattern's own rule or else Conway's B3/S23
+ *   --threads <n>                      threads for the bitboard engine, all processors by default
+ *   --cycle-history <n>                generations to look back for a repeated state, once the
+ *                                      pattern settles into a cycle its whole periods are skipped
+ *                                      (4096 by default, 0 turns it off, hashlife never looks)
+ *   --output <file>                    write the final state as RLE
+ *   --export <file.gif or directory>   write the generations as an animated GIF, or as numbered PNGs
+ *                                      in the directory (no cycle skipping while exporting)
+ *   --scale <n>                        pixels per cell of exported frames, 1 by default
+ *   --stride <n>                       generations between exported frames, 1 by default
+ *   --frame-delay <ms>                 time each frame of a GIF is shown, 50 by default
+ *   --stats <file.csv>                 write the population, births, deaths and live bounding box of
+ *                                      every generation as CSV (no cycle skipping either)
+ *   --checkpoint <file>                keep the offheap engine's cells in a memory-mapped file, carrying
+ *                                      on from the checkpoint in it if there is one. --generations is
+ *                                      then the generation to reach, the pattern or soup only seeds a
+ *                                      new file, a resumed run keeps the rule it was saved with (a
+ *                                      different --rule is an error) and cycles aren't skipped.
+ *   --checkpoint-interval <n>          generations between checkpoints, 10000 by default (there is
+ *                                      always one at the end)
+ */
+public class Batch {
+	private String pattern, topology, engine, output, export, stats, checkpoint;
+	private Rule rule;
+	private Long soup;
+	private double density;
+	private long generations;
+	private int width, height, threads, cycleHistory, soupSize, scale, stride, frameDelay;
+	private long checkpointInterval;
+
+	private Batch() {
+		width = 1024;
+		height = 1024;
+		topology = "torus";
+		generations = -1;
+		threads = Runtime.getRuntime().availableProcessors();
+		cycleHistory = CycleDetector.DEFAULT_HISTORY;
+		soupSize = 16;
+		density = Soup.DEFAULT_DENSITY;
+		scale = 1;
+		stride = 1;
+		frameDelay = 50;
+		checkpointInterval = 10000;
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		Batch batch = new Batch();
+		try {
+			batch.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: java Batch --generations <n> [--pattern <file>|--soup <seed>] [--soup-size <n>]"
+					+ " [--density <d>] [--size <n>|<w>x<h>]"
+					+ " [--topology torus|plane] [--engine bitboard|offheap|sparse|hashlife] [--rule <rule>] [--threads <n>]"
+					+ " [--cycle-history <n>] [--output <file>] [--export <file.gif>|<dir>] [--scale <n>] [--stride <n>]"
+					+ " [--frame-delay <ms>] [--stats <file.csv>] [--checkpoint <file>] [--checkpoint-interval <n>]");
+			System.exit(2);
+		}
+		try {
+			batch.run();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		} catch (IllegalArgumentException e) {
+			// e.g. the pattern's own rule doesn't fit the engine
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (option.equals("--batch")) {
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+			switch (option) {
+			case "--pattern":
+				pattern = value;
+				break;
+			case "--soup":
+				soup = parseLong(option, value);
+				break;
+			case "--soup-size":
+				soupSize = (int) parseLong(option, value);
+				break;
+			case "--density":
+				try {
+					density = Double.parseDouble(value.trim());
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+				}
+				break;
+			case "--generations":
+				generations = parseLong(option, value);
+				break;
+			case "--size":
+				int split = value.indexOf('x');
+				width = (int) parseLong(option, split < 0 ? value : value.substring(0, split));
+				height = (int) parseLong(option, split < 0 ? value : value.substring(split + 1));
+				break;
+			case "--topology":
+				topology = value;
+				break;
+			case "--engine":
+				engine = value;
+				break;
+			case "--rule":
+				rule = Rule.parse(value);
+				break;
+			case "--threads":
+				threads = (int) parseLong(option, value);
+				break;
+			case "--cycle-history":
+				cycleHistory = (int) parseLong(option, value);
+				break;
+			case "--output":
+				output = value;
+				break;
+			case "--export":
+				export = value;
+				break;
+			case "--scale":
+				scale = (int) parseLong(option, value);
+				break;
+			case "--stride":
+				stride = (int) parseLong(option, value);
+				break;
+			case "--frame-delay":
+				frameDelay = (int) parseLong(option, value);
+				break;
+			case "--stats":
+				stats = value;
+				break;
+			case "--checkpoint":
+				checkpoint = value;
+				break;
+			case "--checkpoint-interval":
+				checkpointInterval = parseLong(option, value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+		if (generations < 0) {
+			throw new IllegalArgumentException("--generations is required");
+		}
+		if (width < 1 || height < 1 || threads < 1) {
+			throw new IllegalArgumentException("Size and threads must be at least 1");
+		}
+		if (pattern != null && soup != null) {
+			throw new IllegalArgumentException("Give either --pattern or --soup, not both");
+		}
+		if (soupSize < 1) {
+			throw new IllegalArgumentException("--soup-size must be at least 1");
+		}
+		Soup.checkDensity(density);
+		if (scale < 1 || stride < 1 || frameDelay < 0) {
+			throw new IllegalArgumentException("Scale and stride must be at least 1 and the frame delay not negative");
+		}
+		if (cycleHistory < 0) {
+			throw new IllegalArgumentException("--cycle-history must not be negative");
+		}
+		if (!topology.equals("torus") && !topology.equals("plane")) {
+			throw new IllegalArgumentException("Unknown topology " + topology);
+		}
+		if (checkpointInterval < 1) {
+			throw new IllegalArgumentException("--checkpoint-interval must be at least 1");
+		}
+		if (engine == null) {
+			engine = topology.equals("torus") ? checkpoint != null ? "offheap" : "bitboard" : "sparse";
+		}
+		if (checkpoint != null && !engine.equals("offheap")) {
+			throw new IllegalArgumentException("--checkpoint needs the offheap engine");
+		}
+		boolean torusEngine = engine.equals("bitboard") || engine.equals("offheap");
+		boolean planeEngine = engine.equals("sparse") || engine.equals("hashlife");
+		if (!torusEngine && !planeEngine) {
+			throw new IllegalArgumentException("Unknown engine " + engine);
+		}
+		if (torusEngine != topology.equals("torus")) {
+			throw new IllegalArgumentException("The " + engine + " engine doesn't run on a " + topology);
+		}
+		if (rule != null && rule.isBornFromNothing() && planeEngine) {
+			throw new IllegalArgumentException(rule + " fills an unbounded plane, it needs --topology torus");
+		}
+	}
+
+	private static long parseLong(String option, String value) {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a whole number for " + option + ": " + value);
+		}
+	}
+
+	private void run() throws IOException {
+		Universe universe = createUniverse();
+		// a checkpoint carries on where it was left, only a new file is seeded
+		boolean resumed = universe instanceof OffHeapUniverse && ((OffHeapUniverse) universe).isResumed();
+		long resumedFrom = universe.getGeneration();
+		if (checkpoint != null) {
+			generations = Math.max(0, generations - resumedFrom);
+		}
+		if (pattern != null) {
+			PatternLibrary library = new PatternLibrary();
+			Pattern loaded = library.contains(pattern) ? library.get(pattern) : library.load(new File(pattern));
+			if (!resumed) {
+				loaded.applyCentred(universe, width, height);
+			}
+			if (rule == null && loaded.getRule() != null) {
+				try {
+					rule = Rule.parse(loaded.getRule().split(":")[0]);
+				} catch (IllegalArgumentException e) {
+					System.err.println("Running " + pattern + " with Conway's rule, " + e.getMessage());
+				}
+			}
+		}
+		if (soup != null && !resumed) {
+			Soup.fillCentred(universe, width, height, soupSize, soupSize, soup, density);
+		}
+		if (resumed) {
+			// a checkpoint carries on under the rule it was saved with
+			if (rule != null && !rule.equals(universe.getRule())) {
+				throw new IllegalArgumentException(checkpoint + " was saved running " + universe.getRule() + ", not " + rule);
+			}
+		}
+		else {
+			universe.setRule(rule == null ? Rule.CONWAY : rule);
+		}
+		if (checkpoint != null && !resumed) {
+			// the file is a checkpoint from the start, so a run stopped before the first interval resumes too
+			((OffHeapUniverse) universe).checkpoint();
+		}
+		// exported frames and statistics need every generation, and so does the
+		// generation count a checkpoint carries on from, so cycles aren't skipped then
+		CycleDetector cycles = cycleHistory > 0 && export == null && stats == null && checkpoint == null
+				? new CycleDetector(cycleHistory) : null;
+		FrameExporter exporter = export == null ? null : new FrameExporter(export, width, height, scale, frameDelay);
+		PopulationHistory history = stats == null ? null : new PopulationHistory();
+		long start = System.nanoTime();
+		long computed = generations;
+		if (exporter != null || history != null) {
+			try (exporter; Writer statsOut = stats == null ? null
+					: Files.newBufferedWriter(Paths.get(stats), StandardCharsets.US_ASCII)) {
+				// records already in the file, the ring is written out each time it fills
+				long written = 0;
+				if (history != null) {
+					PopulationHistory.writeCSVHeader(statsOut);
+					history.record(universe);
+				}
+				if (exporter != null) {
+					exporter.capture(universe);
+				}
+				// births and deaths are per generation, so with statistics every one is stepped on its own
+				int step = history == null ? stride : 1;
+				for (long done = 0; done < generations; ) {
+					long batch = Math.min(step, generations - done);
+					universe.advance(batch);
+					done += batch;
+					if (history != null) {
+						history.record(universe);
+						if (history.getRecorded() - written == history.getCapacity()) {
+							written = history.writeCSV(statsOut, written);
+						}
+					}
+					if (exporter != null && (done % stride == 0 || done == generations)) {
+						exporter.capture(universe);
+					}
+				}
+				if (history != null) {
+					history.writeCSV(statsOut, written);
+				}
+			}
+		}
+		else if (cycles != null) {
+			computed = cycles.advance(universe, generations);
+		}
+		else if (checkpoint != null) {
+			for (long done = 0; done < generations; ) {
+				long batch = Math.min(checkpointInterval, generations - done);
+				universe.advance(batch);
+				done += batch;
+				((OffHeapUniverse) universe).checkpoint();
+			}
+		}
+		else {
+			universe.advance(generations);
+		}
+		long elapsed = System.nanoTime() - start;
+		long population = universe.getPopulation();
+		if (output != null) {
+			writeOutput(universe);
+		}
+		if (universe instanceof LifeEngine) {
+			((LifeEngine) universe).shutdown();
+		}
+		else if (universe instanceof OffHeapUniverse) {
+			((OffHeapUniverse) universe).close();
+		}
+		double seconds = elapsed / 1e9;
+		System.out.println("engine:          " + engine + " (" + topology + ", " + width + "x" + height + ")");
+		if (checkpoint != null) {
+			System.out.println("checkpoint:      " + checkpoint + (resumed ? ", resumed from generation " + resumedFrom : ", new")
+					+ ", now at generation " + (resumedFrom + generations));
+		}
+		System.out.println("rule:            " + universe.getRule());
+		System.out.println("generations:     " + generations + (computed < generations ? " (" + computed + " computed)" : ""));
+		if (cycles != null && cycles.isConfirmed()) {
+			System.out.println("cycle:           " + (cycles.getPeriod() == 1 ? "stable" : "period " + cycles.getPeriod())
+					+ " from generation " + cycles.getStart());
+		}
+		System.out.println("wall time:       " + String.format("%.3f s", seconds));
+		// rates of the generations actually stepped, the ones a cycle skipped took no time
+		System.out.println("generations/sec: " + String.format("%.1f", computed / seconds));
+		System.out.println("cells/sec:       " + String.format("%.4g", (double) width * height * computed / seconds));
+		System.out.println("population:      " + population);
+		if (exporter != null) {
+			System.out.println("exported:        " + exporter.getFrames() + " frames to " + export + ", encoding took "
+					+ String.format("%.3f s", exporter.getEncodeNanos() / 1e9) + ", the engine waited "
+					+ String.format("%.3f s", exporter.getWaitNanos() / 1e9) + " for the encoder");
+		}
+		if (history != null) {
+			System.out.println("statistics:      " + history.getRecorded() + " generations to " + stats);
+		}
+	}
+
+	private Universe createUniverse() throws IOException {
+		if (checkpoint != null) {
+			Path file = Paths.get(checkpoint);
+			// the file constructor starts a file that isn't a checkpoint over, which would lose it
+			if (Files.exists(file) && Files.size(file) > 0 && !OffHeapUniverse.isCheckpoint(file, width, height)) {
+				throw new IllegalArgumentException(checkpoint + " exists and isn't a checkpoint of a " + width + "x"
+						+ height + " grid, not overwriting it");
+			}
+			return new OffHeapUniverse(width, height, file);
+		}
+		switch (engine) {
+		case "bitboard":
+			LifeEngine lifeEngine = new LifeEngine(width, height);
+			lifeEngine.setThreads(threads);
+			return lifeEngine;
+		case "offheap":
+			return new OffHeapUniverse(width, height);
+		case "sparse":
+			return new SparseUniverse();
+		default:
+			return new HashLife();
+		}
+	}
+
+	/*
+	 * write the grid as RLE, on the plane grown to every live cell of the sparse engine
+	 */
+	private void writeOutput(Universe universe) throws IOException {
+		int left = 0, top = 0, right = width - 1, bottom = height - 1;
+		if (universe instanceof SparseUniverse) {
+			int[] bounds = ((SparseUniverse) universe).getBounds();
+			if (bounds != null) {
+				left = Math.min(left, bounds[0]);
+				top = Math.min(top, bounds[1]);
+				right = Math.max(right, bounds[2]);
+				bottom = Math.max(bottom, bounds[3]);
+			}
+		}
+		try (Writer out = Files.newBufferedWriter(Paths.get(output), StandardCharsets.US_ASCII)) {
+			PatternWriter.writeRLE(universe, left, top, right - left + 1, bottom - top + 1, universe.getRule().toString(), out);
+		}
+	}
+}
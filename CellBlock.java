@@ -0,0 +1,172 @@
+/*
+ * a width x height rectangle of cells cut out of a universe, packed like the
+ * bitboard engine (one bit per cell, each row starting on a fresh word), that
+ * can be turned and mirrored and stamped back into a universe. Unlike Pattern
+ * it keeps the empty cells around the live ones, so a selection goes back
+ * where it was taken from.
+ */
+public class CellBlock {
+	private final int width, height, wordsPerRow;
+	private final long[] cells;
+
+	public CellBlock(int width, int height) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Block must be at least 1x1, got " + width + "x" + height);
+		}
+		this.width = width;
+		this.height = height;
+		wordsPerRow = (width + 63) >>> 6;
+		cells = new long[wordsPerRow * height];
+	}
+
+	/*
+	 * the cells of the universe in the rectangle with its top left corner at (x, y),
+	 * cells the universe doesn't contain are dead
+	 */
+	public static CellBlock copy(Universe universe, int x, int y, int width, int height) {
+		CellBlock block = new CellBlock(width, height);
+		long lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+		for (int row = 0; row < height; row++) {
+			int index = row * block.wordsPerRow;
+			for (int k = 0; k < block.wordsPerRow; k++) {
+				block.cells[index + k] = universe.getWord(x + (k << 6), y + row);
+			}
+			block.cells[index + block.wordsPerRow - 1] &= lastWordMask;
+		}
+		return block;
+	}
+
+	// getters
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean get(int x, int y) {
+		return (cells[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	public long getPopulation() {
+		long population = 0;
+		for (long word : cells) {
+			population += Long.bitCount(word);
+		}
+		return population;
+	}
+
+	/*
+	 * the block turned a quarter clockwise, height x width
+	 */
+	public CellBlock rotated() {
+		CellBlock turned = new CellBlock(height, width);
+		for (int y = 0; y < height; y++) {
+			for (int k = 0; k < wordsPerRow; k++) {
+				for (long word = cells[y * wordsPerRow + k]; word != 0; word &= word - 1) {
+					int x = (k << 6) + Long.numberOfTrailingZeros(word);
+					turned.set(height - 1 - y, x);
+				}
+			}
+		}
+		return turned;
+	}
+
+	/*
+	 * the block mirrored left to right
+	 */
+	public CellBlock flippedHorizontally() {
+		CellBlock flipped = new CellBlock(width, height);
+		for (int y = 0; y < height; y++) {
+			for (int k = 0; k < wordsPerRow; k++) {
+				for (long word = cells[y * wordsPerRow + k]; word != 0; word &= word - 1) {
+					flipped.set(width - 1 - ((k << 6) + Long.numberOfTrailingZeros(word)), y);
+				}
+			}
+		}
+		return flipped;
+	}
+
+	/*
+	 * the block mirrored top to bottom, a whole row of words at a time
+	 */
+	public CellBlock flippedVertically() {
+		CellBlock flipped = new CellBlock(width, height);
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(cells, y * wordsPerRow, flipped.cells, (height - 1 - y) * wordsPerRow, wordsPerRow);
+		}
+		return flipped;
+	}
+
+	/*
+	 * make the block's live cells alive with its top left corner at (x, y), one
+	 * run() per run of live cells. The cells under its dead ones are left as they
+	 * are, fill() the rectangle dead first to replace them.
+	 */
+	public void paste(Universe universe, int x, int y) {
+		for (int row = 0; row < height; row++) {
+			// runs that carry on into the next word are joined before they're set
+			int runStart = 0, runLength = 0;
+			for (int k = 0; k < wordsPerRow; k++) {
+				long word = cells[row * wordsPerRow + k];
+				while (word != 0) {
+					int start = Long.numberOfTrailingZeros(word);
+					int length = Long.numberOfTrailingZeros(~(word >>> start));
+					int column = (k << 6) + start;
+					if (runLength > 0 && runStart + runLength == column) {
+						runLength += length;
+					}
+					else {
+						if (runLength > 0) {
+							run(universe, x + runStart, y + row, runLength, true);
+						}
+						runStart = column;
+						runLength = length;
+					}
+					word &= length == 64 ? 0 : ~(((1L << length) - 1) << start);
+				}
+			}
+			if (runLength > 0) {
+				run(universe, x + runStart, y + row, runLength, true);
+			}
+		}
+	}
+
+	/*
+	 * make every cell of the rectangle with its top left corner at (x, y) alive or
+	 * dead, a run per row
+	 */
+	public static void fill(Universe universe, int x, int y, int width, int height, boolean alive) {
+		for (int row = y; row < y + height; row++) {
+			run(universe, x, row, width, alive);
+		}
+	}
+
+	/*
+	 * make a run of cells in row y alive or dead with one setRun() or clearRun(),
+	 * dropping the cells at either end the universe doesn't contain
+	 */
+	public static void run(Universe universe, int x, int y, int length, boolean alive) {
+		int from = x, to = x + length;
+		while (from < to && !universe.contains(from, y)) {
+			from++;
+		}
+		while (to > from && !universe.contains(to - 1, y)) {
+			to--;
+		}
+		if (from == to) {
+			return;
+		}
+		if (alive) {
+			universe.setRun(from, y, to - from);
+		}
+		else {
+			universe.clearRun(from, y, to - from);
+		}
+	}
+
+	private void set(int x, int y) {
+		cells[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+	}
+}
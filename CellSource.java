@@ -0,0 +1,35 @@
+/*
+ * read only view of a grid of cells, all PatternWriter needs to write one out.
+ * Coordinates are columns (x) and rows (y) of cells.
+ */
+public interface CellSource {
+	/*
+	 * returns true if the cell at the given column (x) and row (y) is alive
+	 */
+	boolean get(int x, int y);
+
+	/*
+	 * the 64 cells of row y starting at column x as one long, bit i holding the
+	 * cell at x + i. Checkpoints and patterns are read through this so sources that
+	 * store packed words can hand them over without testing single cells.
+	 */
+	default long getWord(int x, int y) {
+		long word = 0;
+		for (int i = 0; i < 64; i++) {
+			if (contains(x + i, y) && get(x + i, y)) {
+				word |= 1L << i;
+			}
+		}
+		return word;
+	}
+
+	/*
+	 * true if the cell is part of the grid, bounded grids say no to cells
+	 * outside them
+	 */
+	default boolean contains(int x, int y) {
+		return true;
+	}
+
+	long getPopulation();
+}
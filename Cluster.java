@@ -0,0 +1,424 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * command line mode for a torus too big for one JVM: the grid is split into a
+ * grid of tiles, each stepped by its own TileWorker process, and this class is
+ * the coordinator. Workers connect to it, get their tile in the order they
+ * connect, then trade the cells along their edges with each other directly every
+ * generation. The coordinator sends the starting pattern, tells every worker to
+ * advance a batch of generations and waits for all of them (the barrier), and at
+ * the end gathers the grid one row of tiles at a time to write it out, so it
+ * never holds more than one row of tiles itself.
+ *
+ * Everything runs on one machine over loopback. By default the coordinator
+ * starts the worker JVMs itself, with --spawn false they're started by hand with
+ * java TileWorker --coordinator localhost:<port>.
+ *
+ * Options:
+ *   --pattern <file or built-in name>  RLE or Macrocell pattern, placed in the middle of the grid
+ *   --soup <seed>                      random soup from a seed instead, as in Batch
+ *   --soup-size <n>                    side of the square soup, 16 by default
+ *   --density <d>                      chance of each cell of the soup being alive, 0.5 by default
+ *   --generations <n>                  generations to run (required)
+ *   --size <n> or <width>x<height>     grid size, 4096 by default
+ *   --tiles <n> or <across>x<down>     tiles to split the grid into, one worker each, 2x2 by default
+ *   --rule <rulestring or name>        B/S rule, by default the pattern's own or else Conway's B3/S23
+ *   --threads <n>                      threads of each worker's engine, 1 by default
+ *   --barrier <n>                      generations between barriers, 100 by default
+ *   --port <n>                         port to wait for workers on, any free one by default
+ *   --spawn true|false                 start the workers as child JVMs, true by default
+ *   --worker-heap <size>               maximum heap of each spawned worker, e.g. 4g
+ *   --output <file>                    write the final state as RLE
+ */
+public class Cluster {
+	// how long spawned workers get to connect
+	private static final int CONNECT_TIMEOUT = 60_000;
+	private String pattern, output, workerHeap;
+	private Rule rule;
+	private Long soup;
+	private double density;
+	private long generations, barrier;
+	private int width, height, tilesX, tilesY, threads, soupSize, port;
+	private boolean spawn;
+	private Worker[] workers;
+
+	/*
+	 * the coordinator's end of one worker's connection
+	 */
+	private static class Worker {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		// where the worker takes connections from its neighbours
+		final int peerPort;
+
+		Worker(Socket socket) throws IOException {
+			this.socket = socket;
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			peerPort = in.readInt();
+		}
+	}
+
+	private Cluster() {
+		width = 4096;
+		height = 4096;
+		tilesX = 2;
+		tilesY = 2;
+		generations = -1;
+		threads = 1;
+		barrier = 100;
+		soupSize = 16;
+		density = Soup.DEFAULT_DENSITY;
+		spawn = true;
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		Cluster cluster = new Cluster();
+		try {
+			cluster.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: java Cluster --generations <n> [--pattern <file>|--soup <seed>] [--soup-size <n>]"
+					+ " [--density <d>] [--size <n>|<w>x<h>] [--tiles <n>|<across>x<down>] [--rule <rule>] [--threads <n>]"
+					+ " [--barrier <n>] [--port <n>] [--spawn true|false] [--worker-heap <size>] [--output <file>]");
+			System.exit(2);
+		}
+		try {
+			cluster.run();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+			int split = value.indexOf('x');
+			switch (option) {
+			case "--pattern":
+				pattern = value;
+				break;
+			case "--soup":
+				soup = parseLong(option, value);
+				break;
+			case "--soup-size":
+				soupSize = (int) parseLong(option, value);
+				break;
+			case "--density":
+				try {
+					density = Double.parseDouble(value.trim());
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+				}
+				break;
+			case "--generations":
+				generations = parseLong(option, value);
+				break;
+			case "--size":
+				width = (int) parseLong(option, split < 0 ? value : value.substring(0, split));
+				height = (int) parseLong(option, split < 0 ? value : value.substring(split + 1));
+				break;
+			case "--tiles":
+				tilesX = (int) parseLong(option, split < 0 ? value : value.substring(0, split));
+				tilesY = (int) parseLong(option, split < 0 ? value : value.substring(split + 1));
+				break;
+			case "--rule":
+				rule = Rule.parse(value);
+				break;
+			case "--threads":
+				threads = (int) parseLong(option, value);
+				break;
+			case "--barrier":
+				barrier = parseLong(option, value);
+				break;
+			case "--port":
+				port = (int) parseLong(option, value);
+				break;
+			case "--spawn":
+				if (!value.equals("true") && !value.equals("false")) {
+					throw new IllegalArgumentException("--spawn is true or false, got " + value);
+				}
+				spawn = value.equals("true");
+				break;
+			case "--worker-heap":
+				workerHeap = value;
+				break;
+			case "--output":
+				output = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+		if (generations < 0) {
+			throw new IllegalArgumentException("--generations is required");
+		}
+		if (width < 1 || height < 1 || tilesX < 1 || tilesY < 1 || threads < 1 || barrier < 1) {
+			throw new IllegalArgumentException("Size, tiles, threads and barrier must be at least 1");
+		}
+		if (tilesX > width || tilesY > height) {
+			throw new IllegalArgumentException("A " + width + "x" + height + " grid can't be split into " + tilesX + "x"
+					+ tilesY + " tiles");
+		}
+		if (pattern != null && soup != null) {
+			throw new IllegalArgumentException("Give either --pattern or --soup, not both");
+		}
+		if (soupSize < 1) {
+			throw new IllegalArgumentException("--soup-size must be at least 1");
+		}
+		Soup.checkDensity(density);
+		if (port < 0 || port > 65535) {
+			throw new IllegalArgumentException("Not a port: " + port);
+		}
+	}
+
+	private static long parseLong(String option, String value) {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a whole number for " + option + ": " + value);
+		}
+	}
+
+	private void run() throws IOException {
+		// the workers load the pattern themselves, it's read here for its rule and
+		// so a bad name fails before any worker starts
+		String source = "";
+		if (pattern != null) {
+			PatternLibrary library = new PatternLibrary();
+			Pattern loaded = library.contains(pattern) ? library.get(pattern) : library.load(new File(pattern));
+			source = library.contains(pattern) ? pattern : new File(pattern).getAbsolutePath();
+			if (rule == null && loaded.getRule() != null) {
+				try {
+					rule = Rule.parse(loaded.getRule().split(":")[0]);
+				} catch (IllegalArgumentException e) {
+					System.err.println("Running " + pattern + " with Conway's rule, " + e.getMessage());
+				}
+			}
+		}
+		if (rule == null) {
+			rule = Rule.CONWAY;
+		}
+		List<Process> processes = new ArrayList<>();
+		long population = 0, elapsed;
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			int count = tilesX * tilesY;
+			if (spawn) {
+				for (int i = 0; i < count; i++) {
+					processes.add(spawnWorker(server.getLocalPort()));
+				}
+				server.setSoTimeout(CONNECT_TIMEOUT);
+			}
+			else {
+				System.out.println("waiting for " + count + " workers: java TileWorker --coordinator localhost:"
+						+ server.getLocalPort());
+			}
+			workers = new Worker[count];
+			for (int i = 0; i < count; i++) {
+				workers[i] = new Worker(server.accept());
+			}
+			configure();
+			for (Worker worker : workers) {
+				worker.out.writeInt(TileWorker.LOAD);
+				worker.out.writeUTF(source);
+				worker.out.writeBoolean(soup != null);
+				worker.out.writeLong(soup == null ? 0 : soup);
+				worker.out.writeInt(soupSize);
+				worker.out.writeDouble(density);
+				worker.out.flush();
+			}
+			for (Worker worker : workers) {
+				population += worker.in.readLong();
+			}
+			long start = System.nanoTime();
+			for (long done = 0; done < generations; ) {
+				long batch = Math.min(barrier, generations - done);
+				for (Worker worker : workers) {
+					worker.out.writeInt(TileWorker.ADVANCE);
+					worker.out.writeLong(batch);
+					worker.out.flush();
+				}
+				// every worker reports back once its batch is done, which is the barrier
+				population = 0;
+				for (Worker worker : workers) {
+					if (worker.in.readLong() != done + batch) {
+						throw new IOException("Worker out of step at generation " + (done + batch));
+					}
+					population += worker.in.readLong();
+				}
+				done += batch;
+			}
+			elapsed = System.nanoTime() - start;
+			if (output != null) {
+				try (Writer out = Files.newBufferedWriter(Paths.get(output), StandardCharsets.US_ASCII)) {
+					PatternWriter.writeRLE(new Snapshot(population), 0, 0, width, height, rule.toString(), out);
+				}
+			}
+			for (Worker worker : workers) {
+				worker.out.writeInt(TileWorker.QUIT);
+				worker.out.flush();
+			}
+			for (Process process : processes) {
+				process.waitFor(10, TimeUnit.SECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the workers", e);
+		} finally {
+			for (Process process : processes) {
+				process.destroy();
+			}
+		}
+		double seconds = elapsed / 1e9;
+		System.out.println("engine:          cluster (" + tilesX + "x" + tilesY + " tiles, " + width + "x" + height + ")");
+		System.out.println("rule:            " + rule);
+		System.out.println("generations:     " + generations);
+		System.out.println("wall time:       " + String.format("%.3f s", seconds));
+		System.out.println("generations/sec: " + String.format("%.1f", generations / seconds));
+		System.out.println("cells/sec:       " + String.format("%.4g", (double) width * height * generations / seconds));
+		System.out.println("population:      " + population);
+	}
+
+	/*
+	 * start a worker JVM like this one, on the same classpath
+	 */
+	private Process spawnWorker(int coordinatorPort) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		if (workerHeap != null) {
+			command.add("-Xmx" + workerHeap);
+		}
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			command.add("--add-modules=jdk.incubator.vector");
+		}
+		command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), "TileWorker", "--coordinator",
+				"localhost:" + coordinatorPort));
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+
+	/*
+	 * hand every worker its tile, in the order they connected, and the address of
+	 * every other worker
+	 */
+	private void configure() throws IOException {
+		for (int tile = 0; tile < workers.length; tile++) {
+			DataOutputStream out = workers[tile].out;
+			out.writeInt(tile);
+			out.writeInt(tilesX);
+			out.writeInt(tilesY);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(threads);
+			out.writeUTF(rule.toString());
+			for (Worker worker : workers) {
+				out.writeUTF(worker.socket.getInetAddress().getHostAddress());
+				out.writeInt(worker.peerPort);
+			}
+			out.flush();
+		}
+	}
+
+	/*
+	 * read only view of the whole grid for PatternWriter, which reads it top to
+	 * bottom. Each row of tiles is fetched from its workers when the first of its
+	 * rows is read.
+	 */
+	private class Snapshot implements CellSource {
+		private final long population;
+		private final int wordsPerRow = (width + 63) >>> 6;
+		private long[] band = new long[0];
+		private int bandTop, bandBottom;
+
+		Snapshot(long population) {
+			this.population = population;
+		}
+
+		public boolean contains(int x, int y) {
+			return x >= 0 && y >= 0 && x < width && y < height;
+		}
+
+		public boolean get(int x, int y) {
+			return (getWord(x & ~63, y) & (1L << x)) != 0;
+		}
+
+		public long getWord(int x, int y) {
+			if ((x & 63) != 0 || !contains(x, y)) {
+				return CellSource.super.getWord(x, y);
+			}
+			if (y < bandTop || y >= bandBottom) {
+				try {
+					fetch(y);
+				} catch (IOException e) {
+					throw new IllegalStateException("Couldn't gather row " + y + " from the workers", e);
+				}
+			}
+			return band[(y - bandTop) * wordsPerRow + (x >>> 6)];
+		}
+
+		/*
+		 * gather the row of tiles with row y, the workers in it send their tiles at once
+		 */
+		private void fetch(int y) throws IOException {
+			int tileY = 0;
+			while (TileWorker.tileStart(height, tilesY, tileY + 1) <= y) {
+				tileY++;
+			}
+			bandTop = TileWorker.tileStart(height, tilesY, tileY);
+			bandBottom = TileWorker.tileStart(height, tilesY, tileY + 1);
+			if (band.length < (bandBottom - bandTop) * wordsPerRow) {
+				band = new long[(bandBottom - bandTop) * wordsPerRow];
+			}
+			Arrays.fill(band, 0);
+			for (int tileX = 0; tileX < tilesX; tileX++) {
+				workers[tileY * tilesX + tileX].out.writeInt(TileWorker.SNAPSHOT);
+				workers[tileY * tilesX + tileX].out.flush();
+			}
+			for (int tileX = 0; tileX < tilesX; tileX++) {
+				DataInputStream in = workers[tileY * tilesX + tileX].in;
+				int left = TileWorker.tileStart(width, tilesX, tileX);
+				int right = TileWorker.tileStart(width, tilesX, tileX + 1);
+				for (int row = 0; row < bandBottom - bandTop; row++) {
+					for (int x = left; x < right; x += 64) {
+						// the tile's words start at its own left edge, shift them into place
+						long word = in.readLong();
+						int index = row * wordsPerRow + (x >>> 6), shift = x & 63;
+						band[index] |= word << shift;
+						if (shift != 0 && (x >>> 6) + 1 < wordsPerRow) {
+							band[index + 1] |= word >>> (64 - shift);
+						}
+					}
+				}
+			}
+		}
+
+		public long getPopulation() {
+			return population;
+		}
+	}
+}
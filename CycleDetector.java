@@ -0,0 +1,196 @@
+import java.util.Arrays;
+
+/*
+ * spots a universe settling into a still life or an oscillation from the hashes
+ * of its generations, so a long run can skip the whole periods that follow.
+ * The hashes of the last historySize generations are kept in a ring, with an
+ * open addressing table (linear probing, backward shift deletion like
+ * SparseUniverse's tile map) from each hash to the last generation it was seen
+ * in. A generation whose hash was seen p generations earlier makes p the
+ * candidate period, and the cycle is confirmed once every generation of one
+ * more period repeats the one p before it, which rules out a chance clash of
+ * hashes. Cycles longer than historySize generations aren't found.
+ *
+ * Generations have to be recorded one after another, a gap (or going back)
+ * starts the detection over.
+ */
+public class CycleDetector {
+	public static final int DEFAULT_HISTORY = 4096;
+	private final int historySize;
+	// the last historySize hashes by generation modulo historySize
+	private final long[] ring;
+	// hash table, generation -1 marks an empty slot
+	private final long[] keys, generations;
+	private final int mask;
+	private long first, last;
+	// period being confirmed (0 for none), the generation it started at and the
+	// generation it was first seen at
+	private long period, start, seenAt;
+	private boolean confirmed;
+
+	public CycleDetector() {
+		this(DEFAULT_HISTORY);
+	}
+
+	public CycleDetector(int historySize) {
+		if (historySize < 1) {
+			throw new IllegalArgumentException("History must hold at least 1 generation, got " + historySize);
+		}
+		this.historySize = historySize;
+		ring = new long[historySize];
+		int capacity = Integer.highestOneBit(historySize) * 4;
+		keys = new long[capacity];
+		generations = new long[capacity];
+		mask = capacity - 1;
+		reset();
+	}
+
+	// getters
+	public int getHistorySize() {
+		return historySize;
+	}
+
+	public boolean isConfirmed() {
+		return confirmed;
+	}
+
+	/*
+	 * generations in one cycle, 1 for a still life (or an empty universe), 0 until confirmed
+	 */
+	public long getPeriod() {
+		return confirmed ? period : 0;
+	}
+
+	/*
+	 * first generation of the cycle, every later generation repeats the one a period
+	 * before it. -1 until confirmed.
+	 */
+	public long getStart() {
+		return confirmed ? start : -1;
+	}
+
+	/*
+	 * forget every generation recorded so far
+	 */
+	public void reset() {
+		Arrays.fill(generations, -1);
+		first = -1;
+		last = -1;
+		period = 0;
+		confirmed = false;
+	}
+
+	/*
+	 * note the hash of a generation, returns true once a cycle is confirmed
+	 */
+	public boolean record(long generation, long hash) {
+		if (generation < 0) {
+			throw new IllegalArgumentException("Generation must not be negative, got " + generation);
+		}
+		if (confirmed && generation == last + 1) {
+			last = generation;
+			return true;
+		}
+		if (last < 0 || generation != last + 1) {
+			reset();
+			first = generation;
+		}
+		else if (generation - first >= historySize) {
+			// the oldest generation drops out of the ring
+			long oldest = generation - historySize;
+			remove(ring[(int) (oldest % historySize)], oldest);
+		}
+		long seen = put(hash, generation);
+		ring[(int) (generation % historySize)] = hash;
+		last = generation;
+		if (seen < 0) {
+			period = 0;
+		}
+		else if (generation - seen != period) {
+			period = generation - seen;
+			start = seen;
+			seenAt = generation;
+		}
+		else if (generation - seenAt >= period) {
+			confirmed = true;
+		}
+		return confirmed;
+	}
+
+	/*
+	 * advance the universe by the given number of generations, one at a time while
+	 * looking for a cycle and then straight to the end by skipping whole periods.
+	 * The universe's generation count isn't moved by the skipped generations.
+	 * Universes without a hash are just advanced. Returns how many generations
+	 * were computed.
+	 */
+	public long advance(Universe universe, long generations) {
+		if (!universe.hasHash()) {
+			universe.advance(generations);
+			return generations;
+		}
+		long computed = 0;
+		record(universe.getGeneration(), universe.getHash());
+		while (computed < generations) {
+			if (confirmed) {
+				// the state repeats every period, so only the part of a period that's left matters
+				long rest = (generations - computed) % period;
+				universe.advance(rest);
+				return computed + rest;
+			}
+			universe.advance(1);
+			computed++;
+			record(universe.getGeneration(), universe.getHash());
+		}
+		return computed;
+	}
+
+	/*
+	 * store the generation for the hash, returns the generation it was stored with
+	 * before or -1 if it wasn't there
+	 */
+	private long put(long hash, long generation) {
+		int slot = slot(hash);
+		while (generations[slot] >= 0) {
+			if (keys[slot] == hash) {
+				long previous = generations[slot];
+				generations[slot] = generation;
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = hash;
+		generations[slot] = generation;
+		return -1;
+	}
+
+	/*
+	 * remove the hash if it was last seen in the given generation, closing the gap
+	 * so no probe sequence is cut short
+	 */
+	private void remove(long hash, long generation) {
+		int slot = slot(hash);
+		while (generations[slot] >= 0 && keys[slot] != hash) {
+			slot = (slot + 1) & mask;
+		}
+		if (generations[slot] != generation) {
+			// seen again since, or not there at all
+			return;
+		}
+		int gap = slot;
+		for (int next = (gap + 1) & mask; generations[next] >= 0; next = (next + 1) & mask) {
+			int home = slot(keys[next]);
+			// move the entry back if its home slot isn't between the gap and where it is
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				generations[gap] = generations[next];
+				gap = next;
+			}
+		}
+		generations[gap] = -1;
+	}
+
+	private int slot(long hash) {
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+}
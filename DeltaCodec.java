@@ -0,0 +1,126 @@
+import java.nio.ByteBuffer;
+
+/*
+ * run-length coding of the difference between two frames of packed cells (one
+ * bit per cell, 64 cells per long). The XOR of the two frames is written as
+ * pairs of varints, the number of unchanged words to skip followed by the number
+ * of changed words, and then those changed words themselves. Between generations
+ * only a small part of a pattern changes, so most of the frame collapses into
+ * a handful of skips. Coding a frame against an empty one (previous == null)
+ * stores the frame itself the same way.
+ */
+public final class DeltaCodec {
+
+	private DeltaCodec() {
+	}
+
+	/*
+	 * largest number of bytes encode() can write for frames of the given number
+	 * of words (every changed word is 8 bytes, and each pair of varints, at most
+	 * 10 bytes, is separated from the next by at least one unchanged word)
+	 */
+	public static int maxEncodedBytes(int words) {
+		long bytes = 8L * words + 10L * (words / 2 + 2);
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Frames of " + words + " words are too big to encode");
+		}
+		return (int) bytes;
+	}
+
+	/*
+	 * write the difference between previous and current into out, which needs
+	 * maxEncodedBytes(current.length) bytes of room
+	 */
+	public static void encode(long[] previous, long[] current, ByteBuffer out) {
+		int i = 0, words = current.length;
+		while (i < words) {
+			int start = i;
+			while (i < words && current[i] == (previous == null ? 0 : previous[i])) {
+				i++;
+			}
+			int skip = i - start;
+			start = i;
+			while (i < words && current[i] != (previous == null ? 0 : previous[i])) {
+				i++;
+			}
+			putVarint(out, skip);
+			putVarint(out, i - start);
+			for (int j = start; j < i; j++) {
+				out.putLong(previous == null ? current[j] : current[j] ^ previous[j]);
+			}
+		}
+	}
+
+	/*
+	 * encode() of only words [from, to) of the frames, for callers that know
+	 * which parts changed. skip is the number of unchanged words since the end
+	 * of the last range written (counting the words before from), the returned
+	 * number is the same for the words after this range, to be passed on to the
+	 * next one. Ranges have to be written in increasing order, and the unchanged
+	 * words after the last one need nothing written.
+	 */
+	public static int encode(long[] previous, long[] current, int from, int to, int skip, ByteBuffer out) {
+		int i = from;
+		while (i < to) {
+			int start = i;
+			while (i < to && current[i] == previous[i]) {
+				i++;
+			}
+			skip += i - start;
+			if (i == to) {
+				break;
+			}
+			start = i;
+			while (i < to && current[i] != previous[i]) {
+				i++;
+			}
+			putVarint(out, skip);
+			putVarint(out, i - start);
+			for (int j = start; j < i; j++) {
+				out.putLong(current[j] ^ previous[j]);
+			}
+			skip = 0;
+		}
+		return skip;
+	}
+
+	/*
+	 * apply a difference written by encode() to frame, turning the previous frame
+	 * into the current one. Everything left in the buffer is read.
+	 */
+	public static void apply(ByteBuffer in, long[] frame) {
+		int i = 0;
+		while (in.hasRemaining()) {
+			i += getVarint(in);
+			int count = getVarint(in);
+			if (i + count > frame.length) {
+				throw new IllegalArgumentException("Delta runs past the end of a " + frame.length + " word frame");
+			}
+			for (int end = i + count; i < end; i++) {
+				frame[i] ^= in.getLong();
+			}
+		}
+	}
+
+	private static void putVarint(ByteBuffer out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	private static int getVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+			if (shift > 28) {
+				throw new IllegalArgumentException("Malformed varint in delta");
+			}
+		}
+	}
+}
@@ -0,0 +1,305 @@
+import java.util.Arrays;
+
+/*
+ * live cells of a universe counted in square blocks of 8x8, 16x16, ... up to
+ * 256x256 cells, each level of blocks made from the one below it like the levels
+ * of a mipmap. A view zoomed out to n x n cells per pixel reads one count per
+ * pixel from level log2(n) instead of looking at the cells.
+ *
+ * The counts are kept per tile of 256x256 cells in a hash map keyed by the tile
+ * (SparseUniverse.TileMap), so they cover whatever window of the universe is
+ * shown, bounded or not, and update() counts the tiles that came into the window
+ * and drops the ones that left it. Tiles outside the live bounding box are held
+ * as empty without being counted.
+ *
+ * Within a tile the counts are kept up to date a band of 8 rows at a time:
+ * markChanges() asks the universe which rows of each tile it changed
+ * (Universe.getChangedRows()) and update() counts the marked bands again from the
+ * universe's words, 8 blocks to a word, then adds up again only the blocks above
+ * them in the tile. A pattern that changes a few tiles costs those tiles however
+ * big the window is.
+ */
+public class DensityMap {
+	// blocks of the lowest level are 1 << MIN_LEVEL cells square, of the highest 1 << MAX_LEVEL
+	public static final int MIN_LEVEL = 3, MAX_LEVEL = 8;
+	private static final int TILE_SHIFT = MAX_LEVEL, BANDS = 1 << (TILE_SHIFT - MIN_LEVEL);
+	// a tile holds the counts of levels MIN_LEVEL to MAX_LEVEL - 1 row by row, four
+	// 16 bit counts to a long, starting at OFFSETS[level - MIN_LEVEL], followed by
+	// a bit per band to count again. The one block of MAX_LEVEL is added up when read.
+	private static final int[] OFFSETS = {0, 256, 320, 336, 340};
+	private static final int DIRTY = 341, TILE_LONGS = 342;
+	// shared by the tiles found empty, never written to
+	private static final long[] EMPTY = new long[TILE_LONGS];
+
+	private SparseUniverse.TileMap tiles;
+	// tiles of the window the last update() was for, corners inclusive
+	private int windowLeft, windowTop, windowRight = -1, windowBottom = -1;
+	// false until every tile of the window is held
+	private boolean complete;
+	// a tile counted empty, kept to count the next one into
+	private long[] spare;
+	// keys of the marked tiles, row first, sorted to count them in order
+	private long[] order = new long[64];
+
+	public DensityMap() {
+		tiles = new SparseUniverse.TileMap();
+	}
+
+	/*
+	 * live cells in block bx, by of the given level as of the last update(),
+	 * blocks outside the window of the last update() count none
+	 */
+	public int getCount(int level, int bx, int by) {
+		int shift = TILE_SHIFT - level, side = 1 << shift;
+		long[] tile = tiles.get(SparseUniverse.key(bx >> shift, by >> shift));
+		if (tile == null) {
+			return 0;
+		}
+		if (level == MAX_LEVEL) {
+			return getTotal(tile);
+		}
+		return blockCount(tile, level, (by & (side - 1)) * side + (bx & (side - 1)));
+	}
+
+	/*
+	 * count the bands of every tile the universe changed in the last generation
+	 * again at the next update()
+	 */
+	public void markChanges(Universe universe) {
+		for (int i = 0; i < tiles.capacity(); i++) {
+			long[] tile = tiles.valueAt(i);
+			if (tile == null) {
+				continue;
+			}
+			long key = tiles.keyAt(i);
+			int left = SparseUniverse.tileX(key) << TILE_SHIFT, top = SparseUniverse.tileY(key) << TILE_SHIFT;
+			long bands = 0;
+			for (int r = 0; r < 1 << (TILE_SHIFT - 6); r++) {
+				long rows = universe.getChangedRows(left, top + (r << 6), 1 << TILE_SHIFT);
+				for (int b = 0; rows != 0; b++, rows >>>= 8) {
+					if ((rows & 0xFF) != 0) {
+						bands |= 1L << (r * 8 + b);
+					}
+				}
+			}
+			if (bands != 0) {
+				mark(key, tile, bands);
+			}
+		}
+	}
+
+	/*
+	 * count the bands over rows top to bottom (inclusive) again at the next update()
+	 */
+	public void markRows(int top, int bottom) {
+		for (int i = 0; i < tiles.capacity(); i++) {
+			long[] tile = tiles.valueAt(i);
+			if (tile == null) {
+				continue;
+			}
+			long key = tiles.keyAt(i);
+			int tileTop = SparseUniverse.tileY(key) << TILE_SHIFT;
+			int first = Math.max(top - tileTop, 0) >> MIN_LEVEL;
+			int last = Math.min(bottom - tileTop, (1 << TILE_SHIFT) - 1) >> MIN_LEVEL;
+			if (first <= last) {
+				mark(key, tile, (-1L >>> (63 - last)) & (-1L << first));
+			}
+		}
+	}
+
+	/*
+	 * count every tile again at the next update()
+	 */
+	public void markAll() {
+		tiles = new SparseUniverse.TileMap();
+		complete = false;
+	}
+
+	/*
+	 * bring the counts of the window of cells from (left, top) to (right, bottom),
+	 * inclusive, up to date: count the tiles that came into it, drop those that
+	 * left it and count the marked bands of the others again
+	 */
+	public void update(Universe universe, int left, int top, int right, int bottom) {
+		int tileLeft = left >> TILE_SHIFT, tileTop = top >> TILE_SHIFT;
+		int tileRight = right >> TILE_SHIFT, tileBottom = bottom >> TILE_SHIFT;
+		if (tileLeft != windowLeft || tileTop != windowTop || tileRight != windowRight || tileBottom != windowBottom) {
+			SparseUniverse.TileMap kept = new SparseUniverse.TileMap();
+			for (int i = 0; i < tiles.capacity(); i++) {
+				long[] tile = tiles.valueAt(i);
+				long key = tiles.keyAt(i);
+				if (tile != null && SparseUniverse.tileX(key) >= tileLeft && SparseUniverse.tileX(key) <= tileRight
+						&& SparseUniverse.tileY(key) >= tileTop && SparseUniverse.tileY(key) <= tileBottom) {
+					kept.put(key, tile);
+				}
+			}
+			tiles = kept;
+			windowLeft = tileLeft;
+			windowTop = tileTop;
+			windowRight = tileRight;
+			windowBottom = tileBottom;
+			complete = false;
+		}
+		// counted row by row rather than in hash order, so the universe is read in the order it's stored
+		int marked = 0;
+		for (int i = 0; i < tiles.capacity(); i++) {
+			long[] tile = tiles.valueAt(i);
+			if (tile != null && tile[DIRTY] != 0) {
+				if (marked == order.length) {
+					order = Arrays.copyOf(order, marked * 2);
+				}
+				long key = tiles.keyAt(i);
+				order[marked++] = SparseUniverse.key(SparseUniverse.tileY(key), SparseUniverse.tileX(key));
+			}
+		}
+		Arrays.sort(order, 0, marked);
+		for (int i = 0; i < marked; i++) {
+			int tx = SparseUniverse.tileY(order[i]), ty = SparseUniverse.tileX(order[i]);
+			count(universe, tiles.get(SparseUniverse.key(tx, ty)), tx << TILE_SHIFT, ty << TILE_SHIFT);
+		}
+		if (complete) {
+			return;
+		}
+		boolean bounded = universe.hasBounds();
+		int[] bounds = bounded ? universe.getBounds() : null;
+		for (int ty = tileTop; ty <= tileBottom; ty++) {
+			for (int tx = tileLeft; tx <= tileRight; tx++) {
+				long key = SparseUniverse.key(tx, ty);
+				int x = tx << TILE_SHIFT, y = ty << TILE_SHIFT;
+				// bounded universes start at cell 0, 0, so their tiles start inside them
+				if (tiles.get(key) != null || !universe.contains(x, y)) {
+					continue;
+				}
+				if (bounded && (bounds == null || x > bounds[2] || y > bounds[3]
+						|| x + (1 << TILE_SHIFT) <= bounds[0] || y + (1 << TILE_SHIFT) <= bounds[1])) {
+					tiles.put(key, EMPTY);
+					continue;
+				}
+				long[] tile = spare == null ? new long[TILE_LONGS] : spare;
+				tile[DIRTY] = -1L;
+				count(universe, tile, x, y);
+				spare = null;
+				if (getTotal(tile) == 0) {
+					spare = tile;
+					tile = EMPTY;
+				}
+				tiles.put(key, tile);
+			}
+		}
+		complete = true;
+	}
+
+	/*
+	 * note bands of a tile to count again, an empty tile gets its own counts first
+	 */
+	private void mark(long key, long[] tile, long bands) {
+		if (tile == EMPTY) {
+			tile = new long[TILE_LONGS];
+			bands = -1L;
+			tiles.put(key, tile);
+		}
+		tile[DIRTY] |= bands;
+	}
+
+	/*
+	 * count the marked bands of the tile with its top left cell at (left, top)
+	 * again, and add up the rows of blocks above them level by level
+	 */
+	private static void count(Universe universe, long[] tile, int left, int top) {
+		long marked = tile[DIRTY] & ((1L << BANDS) - 1);
+		tile[DIRTY] = 0;
+		for (long bands = marked; bands != 0; bands &= bands - 1) {
+			countBand(universe, tile, left, top, Long.numberOfTrailingZeros(bands));
+		}
+		for (int level = MIN_LEVEL + 1; level < MAX_LEVEL; level++) {
+			long rows = 0;
+			for (long below = marked; below != 0; below &= below - 1) {
+				rows |= 1L << (Long.numberOfTrailingZeros(below) >>> 1);
+			}
+			marked = rows;
+			for (; rows != 0; rows &= rows - 1) {
+				addUp(tile, level, Long.numberOfTrailingZeros(rows));
+			}
+		}
+	}
+
+	/*
+	 * the lowest level's row of blocks over the 8 cell rows of the band. Each
+	 * word's live cells are counted per byte within the word, and the 8 rows of a
+	 * column of words added up byte by byte, which can't overflow a byte as an 8x8
+	 * block has at most 64 live cells.
+	 */
+	private static void countBand(Universe universe, long[] tile, int left, int top, int band) {
+		int y0 = top + (band << MIN_LEVEL);
+		// bounded universes start at cell 0, 0, so the band is inside if its last cell is
+		boolean inside = universe.contains(left + (1 << TILE_SHIFT) - 1, y0 + (1 << MIN_LEVEL) - 1);
+		for (int k = 0; k < 1 << (TILE_SHIFT - 6); k++) {
+			int x = left + (k << 6);
+			long sums = 0;
+			for (int y = y0; y < y0 + (1 << MIN_LEVEL); y++) {
+				long word = inside || universe.contains(x, y) ? universe.getWord(x, y) : 0;
+				word -= (word >>> 1) & 0x5555555555555555L;
+				word = (word & 0x3333333333333333L) + ((word >>> 2) & 0x3333333333333333L);
+				sums += (word + (word >>> 4)) & 0x0F0F0F0F0F0F0F0FL;
+			}
+			// the word's 8 blocks are two longs of the tile, BANDS blocks to a row
+			int index = OFFSETS[0] + band * (BANDS >>> 2) + 2 * k;
+			tile[index] = spread(sums);
+			tile[index + 1] = spread(sums >>> 32);
+		}
+	}
+
+	/*
+	 * the low 4 bytes of bytes each moved into a 16 bit count
+	 */
+	private static long spread(long bytes) {
+		long counts = bytes & 0xFFFFFFFFL;
+		counts = (counts | (counts << 16)) & 0x0000FFFF0000FFFFL;
+		return (counts | (counts << 8)) & 0x00FF00FF00FF00FFL;
+	}
+
+	/*
+	 * row by of the level's blocks in the tile added up from the two rows of
+	 * blocks below it, four counts at a time. The rows below are added lane by
+	 * lane and then each pair of lanes, which fits in 16 bits as a block of the
+	 * highest level stored has at most 128x128 live cells.
+	 */
+	private static void addUp(long[] tile, int level, int by) {
+		int side = 1 << (TILE_SHIFT - level), belowLongs = side >>> 1;
+		int upper = OFFSETS[level - 1 - MIN_LEVEL] + 2 * by * belowLongs, lower = upper + belowLongs;
+		// the level with 2 blocks to a row keeps them in half a long
+		int shift = ((by * side) & 3) << 4;
+		long mask = belowLongs == 1 ? 0xFFFFFFFFL << shift : -1L;
+		for (int k = 0; k < belowLongs; k += 2) {
+			long sums = pairSums(tile[upper + k] + tile[lower + k]);
+			if (k + 1 < belowLongs) {
+				sums |= pairSums(tile[upper + k + 1] + tile[lower + k + 1]) << 32;
+			}
+			int index = OFFSETS[level - MIN_LEVEL] + ((by * side) >> 2) + (k >> 1);
+			tile[index] = (tile[index] & ~mask) | (sums << shift);
+		}
+	}
+
+	/*
+	 * the four 16 bit counts of a long added up in pairs, in the low two lanes
+	 */
+	private static long pairSums(long counts) {
+		long pairs = (counts & 0x0000FFFF0000FFFFL) + ((counts >>> 16) & 0x0000FFFF0000FFFFL);
+		return (pairs & 0xFFFF) | (pairs >>> 32) << 16;
+	}
+
+	/*
+	 * live cells of one block of the level, numbered row by row within the tile
+	 */
+	private static int blockCount(long[] tile, int level, int block) {
+		return (int) (tile[OFFSETS[level - MIN_LEVEL] + (block >> 2)] >>> ((block & 3) << 4)) & 0xFFFF;
+	}
+
+	/*
+	 * live cells of the whole tile
+	 */
+	private static int getTotal(long[] tile) {
+		long top = tile[OFFSETS[MAX_LEVEL - 1 - MIN_LEVEL]];
+		return (int) ((top & 0xFFFF) + (top >>> 16 & 0xFFFF) + (top >>> 32 & 0xFFFF) + (top >>> 48));
+	}
+}
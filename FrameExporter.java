@@ -0,0 +1,271 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/*
+ * writes generations of a universe as an animated GIF or a numbered sequence of
+ * PNGs, without any Swing components. capture() only copies the packed words of
+ * the grid into a frame buffer and queues it, a background thread turns the
+ * words straight into the pixels of a 1-bit image (each cell a scale x scale
+ * square) and encodes it. There is a fixed set of frame buffers handed back and
+ * forth between the two, so when the encoder falls behind capture() waits for it
+ * instead of frames piling up in memory.
+ */
+public class FrameExporter implements AutoCloseable {
+	// frames that can be waiting for the encoder or being encoded at once
+	private static final int BUFFERS = 4;
+	// same colours as the GUI: white cells on dark grey
+	private static final int ALIVE_RGB = 0xFFFFFF, DEAD_RGB = 0x282828;
+	private final File target;
+	private final boolean gif;
+	private final int width, height, scale, wordsPerRow, delay;
+	// mask of the cells of the last word of every row that are in the grid
+	private final long lastWordMask;
+	private final BlockingQueue<long[]> free = new ArrayBlockingQueue<>(BUFFERS), full = new ArrayBlockingQueue<>(BUFFERS + 1);
+	// queued after the last frame so the encoder stops
+	private final long[] end = new long[0];
+	private final Thread encoder;
+	private volatile Throwable failure;
+	private long frames, waitNanos;
+	private volatile long encodeNanos;
+
+	/*
+	 * export width x height cells from the top left corner of the grid, as an
+	 * animated GIF when target ends in .gif with delay milliseconds per frame, or
+	 * otherwise as frame-000000.png, frame-000001.png, ... in the target directory
+	 */
+	public FrameExporter(String target, int width, int height, int scale, int delay) throws IOException {
+		if (width < 1 || height < 1 || scale < 1 || delay < 0) {
+			throw new IllegalArgumentException("Frame size and scale must be at least 1 and the delay not negative");
+		}
+		if ((long) width * scale > 65535 || (long) height * scale > 65535
+				|| (((long) width * scale + 7) / 8) * height * scale > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Frames of " + width + "x" + height + " cells at scale " + scale
+					+ " are too big to export");
+		}
+		this.target = new File(target);
+		gif = target.toLowerCase(Locale.ROOT).endsWith(".gif");
+		if (!gif && !this.target.isDirectory() && !this.target.mkdirs()) {
+			throw new IOException("Couldn't create the directory " + target);
+		}
+		this.width = width;
+		this.height = height;
+		this.scale = scale;
+		this.delay = delay;
+		wordsPerRow = (width + 63) >>> 6;
+		lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+		for (int i = 0; i < BUFFERS; i++) {
+			free.add(new long[wordsPerRow * height]);
+		}
+		encoder = new Thread(this::encode, "frame-encoder");
+		encoder.start();
+	}
+
+	// getters
+	public long getFrames() {
+		return frames;
+	}
+
+	/*
+	 * time capture() spent waiting for the encoder to hand back a buffer
+	 */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	/*
+	 * time the encoder spent turning frames into images and writing them
+	 */
+	public long getEncodeNanos() {
+		return encodeNanos;
+	}
+
+	/*
+	 * queue the universe's cells as the next frame, waiting while every buffer is
+	 * in use
+	 */
+	public void capture(Universe universe) throws IOException {
+		long[] words = null;
+		long start = System.nanoTime();
+		try {
+			while (words == null) {
+				checkEncoder();
+				words = free.poll(100, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the encoder", e);
+		}
+		waitNanos += System.nanoTime() - start;
+		for (int y = 0; y < height; y++) {
+			int row = y * wordsPerRow;
+			for (int k = 0; k < wordsPerRow; k++) {
+				words[row + k] = universe.getWord(k << 6, y);
+			}
+			// unbounded universes have cells past the right edge
+			words[row + wordsPerRow - 1] &= lastWordMask;
+		}
+		full.add(words);
+		frames++;
+	}
+
+	/*
+	 * wait for the encoder to write every queued frame and finish the file
+	 */
+	public void close() throws IOException {
+		// no room for it only when the encoder has already failed
+		full.offer(end);
+		try {
+			encoder.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the encoder", e);
+		}
+		checkEncoder();
+	}
+
+	private void checkEncoder() throws IOException {
+		if (failure != null) {
+			throw new IOException("Exporting frames to " + target + " failed", failure);
+		}
+	}
+
+	/*
+	 * the encoder thread: rasterise and write frames until the end is queued
+	 */
+	private void encode() {
+		byte[] reds = { (byte) (DEAD_RGB >> 16), (byte) (ALIVE_RGB >> 16) };
+		byte[] greens = { (byte) (DEAD_RGB >> 8), (byte) (ALIVE_RGB >> 8) };
+		byte[] blues = { (byte) DEAD_RGB, (byte) ALIVE_RGB };
+		BufferedImage image = new BufferedImage(width * scale, height * scale, BufferedImage.TYPE_BYTE_BINARY,
+				new IndexColorModel(1, 2, reds, greens, blues));
+		byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		ImageWriter writer = null;
+		ImageOutputStream out = null;
+		IIOMetadata metadata = null;
+		try {
+			if (gif) {
+				writer = ImageIO.getImageWritersByFormatName("gif").next();
+				// the stream writes over an old file without cutting it short
+				Files.deleteIfExists(target.toPath());
+				out = ImageIO.createImageOutputStream(target);
+				if (out == null) {
+					throw new IOException("Couldn't open " + target);
+				}
+				writer.setOutput(out);
+				writer.prepareWriteSequence(null);
+				metadata = animationMetadata(writer, image);
+			}
+			long index = 0;
+			for (long[] words = full.take(); words != end; words = full.take()) {
+				long start = System.nanoTime();
+				rasterise(words, pixels);
+				free.add(words);
+				if (gif) {
+					writer.writeToSequence(new IIOImage(image, null, metadata), null);
+				}
+				else {
+					ImageIO.write(image, "png", new File(target, String.format("frame-%06d.png", index)));
+				}
+				index++;
+				encodeNanos += System.nanoTime() - start;
+			}
+			if (gif) {
+				writer.endWriteSequence();
+			}
+		} catch (Throwable e) {
+			failure = e;
+			// free a buffer so a capture() waiting on one sees the failure
+			free.offer(new long[wordsPerRow * height]);
+		} finally {
+			try {
+				if (out != null) {
+					out.close();
+				}
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+			if (writer != null) {
+				writer.dispose();
+			}
+		}
+	}
+
+	/*
+	 * the frame's words as 1-bit pixels, most significant bit leftmost. Rows of
+	 * pixels are built a set cell at a time and repeated for the rest of the scale.
+	 */
+	private void rasterise(long[] words, byte[] pixels) {
+		int stride = (width * scale + 7) >>> 3;
+		for (int y = 0; y < height; y++) {
+			int line = y * scale * stride;
+			Arrays.fill(pixels, line, line + stride, (byte) 0);
+			for (int k = 0; k < wordsPerRow; k++) {
+				long word = words[y * wordsPerRow + k];
+				if (scale == 1) {
+					// 64 cells are 8 whole bytes, in the opposite bit order
+					long reversed = Long.reverse(word);
+					for (int b = 0; b < 8 && (k << 3) + b < stride; b++) {
+						pixels[line + (k << 3) + b] = (byte) (reversed >>> (56 - (b << 3)));
+					}
+					continue;
+				}
+				for (; word != 0; word &= word - 1) {
+					int x = ((k << 6) + Long.numberOfTrailingZeros(word)) * scale;
+					for (int px = x; px < x + scale; px++) {
+						pixels[line + (px >>> 3)] |= (byte) (0x80 >>> (px & 7));
+					}
+				}
+			}
+			for (int copy = 1; copy < scale; copy++) {
+				System.arraycopy(pixels, line, pixels, line + copy * stride, stride);
+			}
+		}
+	}
+
+	/*
+	 * GIF metadata for every frame: the delay, no transparency and looping forever
+	 */
+	private IIOMetadata animationMetadata(ImageWriter writer, BufferedImage image) throws IOException {
+		IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image),
+				writer.getDefaultWriteParam());
+		String format = metadata.getNativeMetadataFormatName();
+		IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+		IIOMetadataNode control = new IIOMetadataNode("GraphicControlExtension");
+		control.setAttribute("disposalMethod", "none");
+		control.setAttribute("userInputFlag", "FALSE");
+		control.setAttribute("transparentColorFlag", "FALSE");
+		// GIF delays are in hundredths of a second
+		control.setAttribute("delayTime", Integer.toString(delay / 10));
+		control.setAttribute("transparentColorIndex", "0");
+		root.appendChild(control);
+		IIOMetadataNode extensions = new IIOMetadataNode("ApplicationExtensions");
+		IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+		loop.setAttribute("applicationID", "NETSCAPE");
+		loop.setAttribute("authenticationCode", "2.0");
+		// sub-block 1 with a loop count of 0, forever
+		loop.setUserObject(new byte[] { 1, 0, 0 });
+		extensions.appendChild(loop);
+		root.appendChild(extensions);
+		metadata.setFromTree(format, root);
+		return metadata;
+	}
+}
@@ -0,0 +1,896 @@
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.UnaryOperator;
+
+import javax.swing.*;
+
+/*
+ * single component that draws a pannable, zoomable window onto the universe.
+ * Only the visible cells are copied into a BufferedImage (one pixel per sample)
+ * that is scaled up when painted, and only the rows that changed are copied. When
+ * zoomed out so far that several cells share a pixel, each pixel is a grey as
+ * light as the share of its cells that are alive. Up to 4x4 cells per pixel
+ * they're counted from the universe's words, further out the counts come from a
+ * DensityMap of the window kept up to date from the tiles each generation
+ * changed, so the cost of a frame depends on the size of the window and on what
+ * changed, not on the size of the universe. Engines that can't tell which rows
+ * changed show one sampled cell per pixel instead.
+ *
+ * Frames can be rendered on another thread than the Swing thread paints on. The
+ * renderer draws into the back one of three images and publishes it with an
+ * atomic swap (TripleBuffer), and the Swing thread paints whichever frame was
+ * published last in one coalesced repaint, so neither ever waits for the other
+ * and nothing is allocated per frame.
+ *
+ * Mouse controls: the left button edits with the current tool making cells
+ * alive and the right button making them dead, the middle button (or shift +
+ * left button) drags the view and the wheel zooms around the pointer. Strokes
+ * are joined up cell by cell (Bresenham) however fast the mouse moves, and
+ * every edit, a stroke segment, a line, a rectangle or a paste, goes into the
+ * universe as runs of cells with one redraw of the rows it touched.
+ *
+ * With the select tool the left button drags out a selection and the right
+ * button drops it. Ctrl+C, Ctrl+X and Ctrl+V copy, cut and paste (at the cell
+ * under the mouse), Delete clears the selection, Ctrl+R turns it a quarter
+ * clockwise and Ctrl+F and Ctrl+Shift+F mirror it left to right and top to
+ * bottom, or the copied cells when nothing is selected.
+ */
+public class GridCanvas extends JComponent {
+	/*
+	 * what dragging with a button does: draw freehand, draw a straight line or a
+	 * filled rectangle from where it was pressed, or select a rectangle
+	 */
+	public enum Tool {
+		DRAW, LINE, RECTANGLE, SELECT;
+
+		@Override
+		public String toString() {
+			return name().charAt(0) + name().substring(1).toLowerCase(Locale.ROOT);
+		}
+	}
+
+	private static final double MIN_ZOOM = 1.0 / 256, MAX_ZOOM = 64;
+	private volatile Universe universe;
+	// size of the grid the view is fitted to
+	private int gridWidth, gridHeight;
+	// cell shown at the top left corner of the component and pixels per cell, only
+	// used on the Swing thread which publishes them to the renderer as the view
+	private double originX, originY, zoom;
+	private volatile View view;
+	// frames being rendered, published and painted
+	private final TripleBuffer<Frame> frames;
+	// bumped when the universe is replaced, frames of an older version are redrawn whole
+	private volatile int version;
+	// called instead of rendering on the Swing thread when another thread renders
+	private volatile Runnable renderer;
+	private final int aliveRGB, deadRGB, outsideRGB;
+	// live cell counts of the window for views zoomed out to 8x8 cells a pixel and
+	// further, made when first rendered and marked as tiles change
+	private DensityMap density;
+	// colour of a pixel by how many of its shadedSamples cells are alive, and the
+	// counts of the row of pixels being drawn
+	private int[] shades = new int[0], sampleCounts = new int[0];
+	private int shadedSamples;
+	private boolean editable, pressedLeft, pressedRight, panning;
+	private int panStartX, panStartY;
+	private double panOriginX, panOriginY;
+	private Tool tool;
+	// cell the button was pressed on and the last cell dragged over
+	private int anchorX, anchorY, lastX, lastY;
+	// selected cells, corners inclusive, and the cells copied or cut last
+	private boolean selected;
+	private int selectionLeft, selectionTop, selectionRight, selectionBottom;
+	private CellBlock clipboard;
+	private static final Color SELECTION_COLOR = new Color(0x58add5);
+	// cell currently under the mouse, hovering is false when the mouse is outside the component
+	private int hoverX, hoverY;
+	private boolean hovering;
+	// paint times are reported here when set, and drawn over the grid if the overlay is on
+	private SimulationMetrics metrics;
+	private boolean overlayVisible;
+
+	public GridCanvas(Universe universe, int gridWidth, int gridHeight, int cellSize, Color deadColor) {
+		this.universe = universe;
+		this.gridWidth = gridWidth;
+		this.gridHeight = gridHeight;
+		aliveRGB = Color.white.getRGB() & 0xFFFFFF;
+		deadRGB = deadColor.getRGB() & 0xFFFFFF;
+		outsideRGB = deadColor.darker().darker().getRGB() & 0xFFFFFF;
+		editable = true;
+		tool = Tool.DRAW;
+		zoom = cellSize;
+		frames = new TripleBuffer<>(new Frame(), new Frame(), new Frame());
+		setPreferredSize(new Dimension(gridWidth * cellSize, gridHeight * cellSize));
+		setOpaque(true);
+		view = new View(originX, originY, zoom, viewWidth(), viewHeight());
+
+		MouseAdapter mouse = new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent me) {
+				if (me.getButton() == MouseEvent.BUTTON2 || (me.getButton() == MouseEvent.BUTTON1 && me.isShiftDown())) {
+					panning = true;
+					panStartX = me.getX();
+					panStartY = me.getY();
+					panOriginX = originX;
+					panOriginY = originY;
+					return;
+				}
+				if (!editable || (me.getButton() != MouseEvent.BUTTON1 && me.getButton() != MouseEvent.BUTTON3)) {
+					return;
+				}
+				// left mouse button makes cells alive, right mouse button makes them dead
+				pressedLeft = me.getButton() == MouseEvent.BUTTON1;
+				pressedRight = !pressedLeft;
+				anchorX = lastX = cellX(me);
+				anchorY = lastY = cellY(me);
+				if (tool == Tool.DRAW) {
+					drawLine(anchorX, anchorY, anchorX, anchorY, pressedLeft);
+				}
+				else if (tool == Tool.SELECT) {
+					selected = pressedLeft;
+					select(anchorX, anchorY, anchorX, anchorY);
+				}
+				repaint();
+			}
+			@Override
+			public void mouseDragged(MouseEvent me) {
+				if (panning) {
+					setOrigin(panOriginX - (me.getX() - panStartX) / zoom, panOriginY - (me.getY() - panStartY) / zoom);
+					return;
+				}
+				hover(me);
+				if (!editable || (!pressedLeft && !pressedRight)) {
+					return;
+				}
+				int x = cellX(me), y = cellY(me);
+				if (x == lastX && y == lastY) {
+					return;
+				}
+				// the cells between this event and the last one are drawn too, so a fast
+				// stroke doesn't leave gaps
+				if (tool == Tool.DRAW) {
+					drawLine(lastX, lastY, x, y, pressedLeft);
+				}
+				else if (tool == Tool.SELECT && selected) {
+					select(anchorX, anchorY, x, y);
+				}
+				lastX = x;
+				lastY = y;
+				// the outline of the line, rectangle or selection follows the mouse
+				repaint();
+			}
+			@Override
+			public void mouseMoved(MouseEvent me) {
+				hover(me);
+			}
+			@Override
+			public void mouseExited(MouseEvent me) {
+				repaintHover();
+				hovering = false;
+			}
+			@Override
+			public void mouseReleased(MouseEvent me) {
+				if (editable && (pressedLeft || pressedRight)) {
+					if (tool == Tool.LINE) {
+						drawLine(anchorX, anchorY, lastX, lastY, pressedLeft);
+					}
+					else if (tool == Tool.RECTANGLE) {
+						CellBlock.fill(universe, Math.min(anchorX, lastX), Math.min(anchorY, lastY),
+								Math.abs(lastX - anchorX) + 1, Math.abs(lastY - anchorY) + 1, pressedLeft);
+						edited(Math.min(anchorY, lastY), Math.max(anchorY, lastY));
+					}
+				}
+				pressedLeft = false;
+				pressedRight = false;
+				panning = false;
+				repaint();
+			}
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent me) {
+				zoomAt(me.getWheelRotation() < 0, me.getX(), me.getY());
+			}
+		};
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
+		addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				updateView();
+			}
+		});
+		bindKey("ctrl C", "copy", this::copySelection);
+		bindKey("ctrl X", "cut", () -> {
+			copySelection();
+			clearSelection();
+		});
+		bindKey("ctrl V", "paste", this::paste);
+		bindKey("DELETE", "clear", this::clearSelection);
+		bindKey("ESCAPE", "deselect", () -> {
+			selected = false;
+			repaint();
+		});
+		bindKey("ctrl R", "rotate", () -> transform(CellBlock::rotated));
+		bindKey("ctrl F", "flip horizontally", () -> transform(CellBlock::flippedHorizontally));
+		bindKey("ctrl shift F", "flip vertically", () -> transform(CellBlock::flippedVertically));
+	}
+
+	/*
+	 * run the action when the key is pressed anywhere in the window, unless the
+	 * component with the focus uses the key itself (e.g. a text field copying text)
+	 */
+	private void bindKey(String key, String name, Runnable action) {
+		getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key), name);
+		getActionMap().put(name, new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (editable) {
+					action.run();
+				}
+			}
+		});
+	}
+
+	public Tool getTool() {
+		return tool;
+	}
+
+	public void setTool(Tool tool) {
+		this.tool = tool;
+		repaint();
+	}
+
+	public void setEditable(boolean editable) {
+		this.editable = editable;
+	}
+
+	public boolean isEditable() {
+		return editable;
+	}
+
+	public void setMetrics(SimulationMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/*
+	 * show or hide the timings HUD in the top left corner, needs metrics to be set
+	 */
+	public void setOverlayVisible(boolean overlayVisible) {
+		this.overlayVisible = overlayVisible;
+		repaint();
+	}
+
+	public boolean isOverlayVisible() {
+		return overlayVisible;
+	}
+
+	/*
+	 * hand rendering to another thread, e.g. the simulation thread while it runs.
+	 * While set, a change of view only calls requestFrame and that thread is
+	 * expected to call render() (or refresh()) soon after; null takes rendering
+	 * back to the caller and draws the current state. Call on the Swing thread.
+	 */
+	public void setRenderer(Runnable requestFrame) {
+		renderer = requestFrame;
+		if (requestFrame == null) {
+			refresh();
+		}
+	}
+
+	/*
+	 * show a different universe, call refresh() afterwards to draw it
+	 */
+	public void setUniverse(Universe universe) {
+		this.universe = universe;
+		// every frame still shows the old one
+		version++;
+		density = null;
+	}
+
+	/*
+	 * change the size of the grid and zoom so that all of it fits in the component
+	 */
+	public void setGridSize(int gridWidth, int gridHeight) {
+		this.gridWidth = gridWidth;
+		this.gridHeight = gridHeight;
+		density = null;
+		fitGrid();
+	}
+
+	/*
+	 * centre the grid and pick the largest zoom that shows all of it, snapping to
+	 * a power of two once a cell is smaller than a pixel
+	 */
+	public void fitGrid() {
+		int viewWidth = viewWidth(), viewHeight = viewHeight();
+		double fit = Math.min((double) viewWidth / gridWidth, (double) viewHeight / gridHeight);
+		if (fit >= 1) {
+			zoom = Math.min(Math.floor(fit), MAX_ZOOM);
+		}
+		else {
+			int perPixel = Integer.highestOneBit((int) Math.ceil(1 / fit) * 2 - 1);
+			zoom = Math.max(1.0 / perPixel, MIN_ZOOM);
+		}
+		setOrigin(gridWidth / 2.0 - viewWidth / zoom / 2, gridHeight / 2.0 - viewHeight / zoom / 2);
+	}
+
+	/*
+	 * zoom in or out by a factor of two keeping the cell under the given pixel in place
+	 */
+	public void zoomAt(boolean in, int px, int py) {
+		double cellX = originX + px / zoom, cellY = originY + py / zoom;
+		if (in) {
+			zoom = Math.min(zoom * 2, MAX_ZOOM);
+		}
+		else {
+			zoom = zoom > 1 ? Math.max(zoom / 2, 1) : Math.max(zoom / 2, MIN_ZOOM);
+		}
+		setOrigin(cellX - px / zoom, cellY - py / zoom);
+	}
+
+	private void setOrigin(double x, double y) {
+		originX = x;
+		originY = y;
+		updateView();
+	}
+
+	/*
+	 * publish the window the Swing thread is showing to whichever thread renders
+	 * and ask for a frame of it. Until the frame arrives the last one is painted
+	 * where it belongs in the new window.
+	 */
+	private void updateView() {
+		view = new View(originX, originY, zoom, viewWidth(), viewHeight());
+		requestFrame();
+		repaint();
+	}
+
+	private void requestFrame() {
+		Runnable requestFrame = renderer;
+		if (requestFrame != null) {
+			requestFrame.run();
+		}
+		else {
+			render();
+		}
+	}
+
+	/*
+	 * note the rows the last generation changed and draw a frame with them
+	 */
+	public void refresh() {
+		collectChanges();
+		render();
+	}
+
+	/*
+	 * note which of the sampled rows the universe reports as changed by the last
+	 * generation, for the next render() to redraw. Rows reported unchanged are
+	 * never looked at again, so when generations are stepped faster than frames
+	 * are rendered this has to be called after every one of them.
+	 */
+	public void collectChanges() {
+		View current = view;
+		for (int i = 0; i < 3; i++) {
+			Frame frame = frames.get(i);
+			// a frame of another window has to be redrawn whole if it's ever used again
+			if (!frame.shows(current)) {
+				frame.version = -1;
+			}
+		}
+		Universe universe = this.universe;
+		int cellsPerSample = current.cellsPerSample, level = densityLevel(universe, cellsPerSample);
+		DensityMap density = this.density;
+		if (density != null) {
+			if (level >= DensityMap.MIN_LEVEL) {
+				density.markChanges(universe);
+			}
+			else {
+				// not kept up to date while it isn't shown
+				density.markAll();
+			}
+		}
+		for (int sy = 0; sy < current.rows; sy++) {
+			int y = current.sampleY + sy * cellsPerSample;
+			// a shaded pixel changes with any of its rows, a sampled one with its first
+			for (int r = 0; r < (level < 0 ? 1 : cellsPerSample); r++) {
+				if (universe.isRowChanged(y + r)) {
+					markRow(current, sy);
+					break;
+				}
+			}
+		}
+	}
+
+	/*
+	 * copy the changed rows of the visible part of the universe into the back frame,
+	 * publish it and ask for one repaint. Only one thread may render at a time, the
+	 * Swing thread paints the newest published frame whenever it gets to it.
+	 */
+	public void render() {
+		View current = view;
+		Frame frame = frames.back();
+		if (frame.version != version || !frame.shows(current)) {
+			frame.reshape(current, version);
+		}
+		Universe universe = this.universe;
+		int columns = current.columns, cellsPerSample = current.cellsPerSample;
+		int level = densityLevel(universe, cellsPerSample);
+		if (level > 0) {
+			shade(cellsPerSample);
+			if (sampleCounts.length < columns) {
+				sampleCounts = new int[columns];
+			}
+		}
+		if (level >= DensityMap.MIN_LEVEL) {
+			if (density == null) {
+				density = new DensityMap();
+			}
+			density.update(universe, current.sampleX, current.sampleY, current.sampleX + columns * cellsPerSample - 1,
+					current.sampleY + current.rows * cellsPerSample - 1);
+		}
+		for (int word = 0; word < frame.dirty.length; word++) {
+			long dirty = frame.dirty[word];
+			frame.dirty[word] = 0;
+			while (dirty != 0) {
+				int sy = (word << 6) + Long.numberOfTrailingZeros(dirty);
+				dirty &= dirty - 1;
+				int y = current.sampleY + sy * cellsPerSample, row = sy * columns;
+				if (level >= DensityMap.MIN_LEVEL) {
+					lookUpCounts(current, level, sy);
+				}
+				else if (level > 0) {
+					countCells(universe, current, y);
+				}
+				for (int sx = 0; sx < columns; sx++) {
+					int x = current.sampleX + sx * cellsPerSample;
+					frame.pixels[row + sx] = !universe.contains(x, y) ? outsideRGB
+							: level > 0 ? shades[sampleCounts[sx]] : universe.get(x, y) ? aliveRGB : deadRGB;
+				}
+			}
+		}
+		frames.publish();
+		// Swing folds the repaints asked for before it gets round to painting into one
+		repaint();
+	}
+
+	/*
+	 * log2 of the cells per side of a pixel when its colour shows how many of them
+	 * are alive, 0 when a pixel shows one cell and -1 when it only samples one of
+	 * several because the universe can't say which rows changed
+	 */
+	private static int densityLevel(Universe universe, int cellsPerSample) {
+		if (cellsPerSample == 1) {
+			return 0;
+		}
+		int level = Integer.numberOfTrailingZeros(cellsPerSample);
+		boolean shaded = universe.hasRowChanges() && Integer.bitCount(cellsPerSample) == 1 && level <= DensityMap.MAX_LEVEL;
+		return shaded ? level : -1;
+	}
+
+	/*
+	 * greys from the dead colour to the alive one for 0 to cellsPerSample^2 live
+	 * cells, made again when the zoom changes. The grey goes with the square root
+	 * of the share alive and any live cell shows, so a glider in a 256x256 block
+	 * doesn't vanish.
+	 */
+	private void shade(int cellsPerSample) {
+		int samples = cellsPerSample * cellsPerSample;
+		if (shadedSamples == samples) {
+			return;
+		}
+		shades = new int[samples + 1];
+		shades[0] = deadRGB;
+		for (int count = 1; count <= samples; count++) {
+			double t = 0.25 + 0.75 * Math.sqrt((double) count / samples);
+			int rgb = 0;
+			for (int shift = 0; shift < 24; shift += 8) {
+				int dead = (deadRGB >>> shift) & 0xFF, alive = (aliveRGB >>> shift) & 0xFF;
+				rgb |= (int) Math.round(dead + (alive - dead) * t) << shift;
+			}
+			shades[count] = rgb;
+		}
+		shadedSamples = samples;
+	}
+
+	/*
+	 * live cells of every pixel of the sampled row starting at cell row y, from
+	 * the universe's words. The cells of a word are counted per pixel within the
+	 * word, split into the even and the odd pixels so each count has twice the
+	 * bits it needs, and the rows of a column of words added up at once.
+	 */
+	private void countCells(Universe universe, View current, int y) {
+		int columns = current.columns, cellsPerSample = current.cellsPerSample;
+		int perWord = 64 / cellsPerSample, countMask = (1 << (2 * cellsPerSample)) - 1;
+		long halves = cellsPerSample == 2 ? 0x3333333333333333L : 0x0F0F0F0F0F0F0F0FL;
+		for (int sx = 0; sx < columns; sx += perWord) {
+			long evens = 0, odds = 0;
+			for (int r = 0; r < cellsPerSample; r++) {
+				long word = universe.getWord(current.sampleX + sx * cellsPerSample, y + r);
+				word -= (word >>> 1) & 0x5555555555555555L;
+				if (cellsPerSample == 4) {
+					word = (word & 0x3333333333333333L) + ((word >>> 2) & 0x3333333333333333L);
+				}
+				evens += word & halves;
+				odds += (word >>> cellsPerSample) & halves;
+			}
+			for (int j = 0; j < perWord && sx + j < columns; j++) {
+				sampleCounts[sx + j] = (int) (((j & 1) == 0 ? evens : odds) >>> ((j & ~1) * cellsPerSample)) & countMask;
+			}
+		}
+	}
+
+	/*
+	 * live cells of every pixel of sampled row sy from the density map
+	 */
+	private void lookUpCounts(View current, int level, int sy) {
+		int by = (current.sampleY >> level) + sy, left = current.sampleX >> level;
+		for (int sx = 0; sx < current.columns; sx++) {
+			sampleCounts[sx] = density.getCount(level, left + sx, by);
+		}
+	}
+
+	/*
+	 * have every frame of the window redraw one of its sampled rows
+	 */
+	private void markRow(View current, int sy) {
+		for (int i = 0; i < 3; i++) {
+			Frame frame = frames.get(i);
+			if (frame.shows(current)) {
+				frame.dirty[sy >>> 6] |= 1L << sy;
+			}
+		}
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		long start = System.nanoTime();
+		Graphics2D g2 = (Graphics2D) g;
+		Frame frame = frames.front();
+		if (frame.image == null) {
+			// nothing rendered yet
+			g2.setColor(new Color(outsideRGB));
+			g2.fillRect(0, 0, getWidth(), getHeight());
+		}
+		else {
+			// placed by the current window, which may have moved since the frame was drawn
+			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+			double pixelsPerSample = zoom * frame.cellsPerSample;
+			int left = (int) Math.round((frame.sampleX - originX) * zoom);
+			int top = (int) Math.round((frame.sampleY - originY) * zoom);
+			g2.drawImage(frame.image, left, top, (int) Math.round(frame.columns * pixelsPerSample),
+					(int) Math.round(frame.rows * pixelsPerSample), null);
+		}
+		// add a simple border to the dead square under the mouse, if squares are big enough to see it. Whether
+		// it's dead is read from the frame, the universe may be stepping on the simulation thread.
+		if (hovering && zoom >= 4 && frame.pixel(hoverX, hoverY) == deadRGB) {
+			g2.setColor(Color.white);
+			g2.setStroke(new BasicStroke(2));
+			g2.drawRect((int) Math.round((hoverX - originX) * zoom) + 1, (int) Math.round((hoverY - originY) * zoom) + 1,
+					(int) Math.round(zoom) - 2, (int) Math.round(zoom) - 2);
+		}
+		paintTool(g2);
+		if (metrics != null) {
+			if (overlayVisible) {
+				paintOverlay(g2);
+			}
+			metrics.recordPaint(start, System.nanoTime());
+		}
+	}
+
+	/*
+	 * outline of the selection, of the line or rectangle being dragged and of
+	 * where a paste would go
+	 */
+	private void paintTool(Graphics2D g2) {
+		g2.setStroke(new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10, new float[] { 4, 4 }, 0));
+		g2.setColor(SELECTION_COLOR);
+		if (selected) {
+			outline(g2, selectionLeft, selectionTop, selectionRight, selectionBottom);
+		}
+		if (editable && (pressedLeft || pressedRight)) {
+			g2.setColor(pressedLeft ? Color.white : Color.gray);
+			if (tool == Tool.LINE) {
+				g2.drawLine((int) Math.round((anchorX + 0.5 - originX) * zoom), (int) Math.round((anchorY + 0.5 - originY) * zoom),
+						(int) Math.round((lastX + 0.5 - originX) * zoom), (int) Math.round((lastY + 0.5 - originY) * zoom));
+			}
+			else if (tool == Tool.RECTANGLE) {
+				outline(g2, Math.min(anchorX, lastX), Math.min(anchorY, lastY), Math.max(anchorX, lastX), Math.max(anchorY, lastY));
+			}
+		}
+		else if (editable && tool == Tool.SELECT && clipboard != null && hovering) {
+			g2.setColor(Color.gray);
+			outline(g2, hoverX, hoverY, hoverX + clipboard.getWidth() - 1, hoverY + clipboard.getHeight() - 1);
+		}
+	}
+
+	/*
+	 * rectangle around the cells from left, top to right, bottom
+	 */
+	private void outline(Graphics2D g2, int left, int top, int right, int bottom) {
+		int x = (int) Math.round((left - originX) * zoom), y = (int) Math.round((top - originY) * zoom);
+		g2.drawRect(x, y, Math.max(1, (int) Math.round((right + 1 - originX) * zoom) - x - 1),
+				Math.max(1, (int) Math.round((bottom + 1 - originY) * zoom) - y - 1));
+	}
+
+	/*
+	 * counts and timings in a translucent box in the top left corner
+	 */
+	private void paintOverlay(Graphics2D g2) {
+		String[] lines = {
+				"generation " + metrics.getGeneration() + "   population " + metrics.getPopulation()
+						+ (metrics.getChangedCells() >= 0 ? "   changed " + metrics.getChangedCells() : ""),
+				String.format("%.1f gen/s   %.3g cells/s", metrics.getGenerationsPerSecond(), metrics.getCellsPerSecond()),
+				timings("step", metrics.getStepTimes()),
+				timings("render", metrics.getRenderTimes()),
+				timings("paint", metrics.getPaintTimes())
+		};
+		g2.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		FontMetrics fm = g2.getFontMetrics();
+		int width = 0;
+		for (String line : lines) {
+			width = Math.max(width, fm.stringWidth(line));
+		}
+		g2.setColor(new Color(0, 0, 0, 170));
+		g2.fillRect(4, 4, width + 12, lines.length * fm.getHeight() + 8);
+		g2.setColor(Color.white);
+		for (int i = 0; i < lines.length; i++) {
+			g2.drawString(lines[i], 10, 8 + fm.getAscent() + i * fm.getHeight());
+		}
+	}
+
+	private static String timings(String phase, LatencyHistogram times) {
+		return String.format("%-6s p50 %8.1f us  p99 %8.1f us  max %8.1f us", phase, times.getPercentile(0.5) / 1e3,
+				times.getPercentile(0.99) / 1e3, times.getMax() / 1e3);
+	}
+
+	private int viewWidth() {
+		return Math.max(getWidth() > 0 ? getWidth() : getPreferredSize().width, 1);
+	}
+
+	private int viewHeight() {
+		return Math.max(getHeight() > 0 ? getHeight() : getPreferredSize().height, 1);
+	}
+
+	/*
+	 * move the hover border to the cell under the mouse
+	 */
+	private void hover(MouseEvent me) {
+		int x = cellX(me), y = cellY(me);
+		if (!hovering || x != hoverX || y != hoverY) {
+			repaintHover();
+			hoverX = x;
+			hoverY = y;
+			hovering = true;
+			repaintHover();
+			if (tool == Tool.SELECT && clipboard != null) {
+				// where a paste would go follows the mouse
+				repaint();
+			}
+		}
+	}
+
+	/*
+	 * make the cells on the line between two cells alive or dead, the cells of a
+	 * row next to each other as one run
+	 */
+	private void drawLine(int x0, int y0, int x1, int y1, boolean alive) {
+		int dx = Math.abs(x1 - x0), dy = -Math.abs(y1 - y0), stepX = x0 < x1 ? 1 : -1, stepY = y0 < y1 ? 1 : -1;
+		int error = dx + dy, x = x0, y = y0, runStart = x0;
+		while (true) {
+			int e2 = 2 * error;
+			boolean last = x == x1 && y == y1;
+			int nextX = x, nextY = y;
+			if (!last) {
+				if (e2 >= dy) {
+					error += dy;
+					nextX += stepX;
+				}
+				if (e2 <= dx) {
+					error += dx;
+					nextY += stepY;
+				}
+			}
+			// the run ends where the line moves to another row or stops
+			if (last || nextY != y) {
+				CellBlock.run(universe, Math.min(runStart, x), y, Math.abs(x - runStart) + 1, alive);
+				runStart = nextX;
+			}
+			if (last) {
+				break;
+			}
+			x = nextX;
+			y = nextY;
+		}
+		edited(Math.min(y0, y1), Math.max(y0, y1));
+	}
+
+	/*
+	 * redraw the sampled rows from top to bottom after an edit, with one frame
+	 */
+	private void edited(int top, int bottom) {
+		View current = view;
+		int cellsPerSample = current.cellsPerSample;
+		DensityMap density = this.density;
+		if (density != null) {
+			density.markRows(top, bottom);
+		}
+		// a shaded pixel shows every cell row it covers, a sampled one only its first
+		int first = densityLevel(universe, cellsPerSample) > 0 ? Math.floorDiv(top - current.sampleY, cellsPerSample)
+				: -Math.floorDiv(current.sampleY - top, cellsPerSample);
+		first = Math.max(0, first);
+		int last = Math.min(current.rows - 1, Math.floorDiv(bottom - current.sampleY, cellsPerSample));
+		if (first > last) {
+			return;
+		}
+		for (int sy = first; sy <= last; sy++) {
+			markRow(current, sy);
+		}
+		requestFrame();
+	}
+
+	private void select(int x0, int y0, int x1, int y1) {
+		selectionLeft = Math.min(x0, x1);
+		selectionTop = Math.min(y0, y1);
+		selectionRight = Math.max(x0, x1);
+		selectionBottom = Math.max(y0, y1);
+	}
+
+	private void copySelection() {
+		if (selected) {
+			clipboard = CellBlock.copy(universe, selectionLeft, selectionTop, selectionRight - selectionLeft + 1,
+					selectionBottom - selectionTop + 1);
+		}
+	}
+
+	private void clearSelection() {
+		if (selected) {
+			CellBlock.fill(universe, selectionLeft, selectionTop, selectionRight - selectionLeft + 1,
+					selectionBottom - selectionTop + 1, false);
+			edited(selectionTop, selectionBottom);
+		}
+	}
+
+	/*
+	 * add the copied cells with their top left corner at the cell under the mouse,
+	 * and select them
+	 */
+	private void paste() {
+		if (clipboard == null || !hovering) {
+			return;
+		}
+		clipboard.paste(universe, hoverX, hoverY);
+		selected = true;
+		select(hoverX, hoverY, hoverX + clipboard.getWidth() - 1, hoverY + clipboard.getHeight() - 1);
+		edited(selectionTop, selectionBottom);
+		repaint();
+	}
+
+	/*
+	 * turn or mirror the selected cells where they are, keeping the top left
+	 * corner, or the copied cells when nothing is selected
+	 */
+	private void transform(UnaryOperator<CellBlock> change) {
+		if (!selected) {
+			if (clipboard != null) {
+				clipboard = change.apply(clipboard);
+			}
+			return;
+		}
+		int top = selectionTop, bottom = selectionBottom;
+		CellBlock block = change.apply(CellBlock.copy(universe, selectionLeft, selectionTop,
+				selectionRight - selectionLeft + 1, selectionBottom - selectionTop + 1));
+		CellBlock.fill(universe, selectionLeft, selectionTop, selectionRight - selectionLeft + 1,
+				selectionBottom - selectionTop + 1, false);
+		block.paste(universe, selectionLeft, selectionTop);
+		select(selectionLeft, selectionTop, selectionLeft + block.getWidth() - 1, selectionTop + block.getHeight() - 1);
+		edited(Math.min(top, selectionTop), Math.max(bottom, selectionBottom));
+		repaint();
+	}
+
+	private int cellX(MouseEvent me) {
+		return (int) Math.floor(originX + me.getX() / zoom);
+	}
+
+	private int cellY(MouseEvent me) {
+		return (int) Math.floor(originY + me.getY() / zoom);
+	}
+
+	private void repaintHover() {
+		if (hovering) {
+			repaintCell(hoverX, hoverY);
+		}
+	}
+
+	private void repaintCell(int x, int y) {
+		int size = (int) Math.ceil(zoom) + 2;
+		repaint((int) Math.floor((x - originX) * zoom) - 1, (int) Math.floor((y - originY) * zoom) - 1, size, size);
+	}
+
+	/*
+	 * the window onto the universe, replaced as a whole when it changes so the
+	 * rendering thread always sees a consistent one
+	 */
+	private static class View {
+		// cells per image pixel (a power of two when zoomed out, 1 otherwise), the cell
+		// at the top left of the image and the size of the image
+		final int cellsPerSample, sampleX, sampleY, columns, rows;
+
+		/*
+		 * the samples covering a component of width x height pixels with originX,
+		 * originY at its top left corner and zoom pixels per cell
+		 */
+		View(double originX, double originY, double zoom, int width, int height) {
+			cellsPerSample = zoom >= 1 ? 1 : (int) Math.round(1 / zoom);
+			double pixelsPerSample = zoom * cellsPerSample;
+			sampleX = (int) Math.floor(originX / cellsPerSample) * cellsPerSample;
+			sampleY = (int) Math.floor(originY / cellsPerSample) * cellsPerSample;
+			columns = (int) Math.ceil(width / pixelsPerSample) + 1;
+			rows = (int) Math.ceil(height / pixelsPerSample) + 1;
+		}
+	}
+
+	/*
+	 * one of the three images frames are rendered into, with the samples it shows
+	 * and the rows that changed since it was last drawn
+	 */
+	private static class Frame {
+		BufferedImage image;
+		// direct access to the image pixels, row major with one int per sample
+		int[] pixels;
+		int cellsPerSample, sampleX, sampleY, columns, rows;
+		// universe version it shows, -1 when it has to be redrawn whole
+		int version = -1;
+		// one bit per sampled row that has to be redrawn
+		long[] dirty = new long[0];
+
+		/*
+		 * true if it samples the same cells as the window
+		 */
+		boolean shows(View view) {
+			return image != null && cellsPerSample == view.cellsPerSample && sampleX == view.sampleX
+					&& sampleY == view.sampleY && columns == view.columns && rows == view.rows;
+		}
+
+		/*
+		 * colour drawn for the sample holding the cell, -1 if the frame doesn't show it
+		 */
+		int pixel(int x, int y) {
+			if (image == null) {
+				return -1;
+			}
+			int sx = Math.floorDiv(x - sampleX, cellsPerSample), sy = Math.floorDiv(y - sampleY, cellsPerSample);
+			return sx < 0 || sy < 0 || sx >= columns || sy >= rows ? -1 : pixels[sy * columns + sx];
+		}
+
+		/*
+		 * start over for the window, the image is only replaced when its size changes
+		 */
+		void reshape(View view, int version) {
+			if (image == null || columns != view.columns || rows != view.rows) {
+				image = new BufferedImage(view.columns, view.rows, BufferedImage.TYPE_INT_RGB);
+				pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+				dirty = new long[(view.rows + 63) >>> 6];
+			}
+			cellsPerSample = view.cellsPerSample;
+			sampleX = view.sampleX;
+			sampleY = view.sampleY;
+			columns = view.columns;
+			rows = view.rows;
+			this.version = version;
+			Arrays.fill(dirty, -1L);
+			if ((rows & 63) != 0) {
+				dirty[dirty.length - 1] = (1L << rows) - 1;
+			}
+		}
+	}
+}
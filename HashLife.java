@@ -0,0 +1,447 @@
+import java.util.IdentityHashMap;
+
+/*
+ * HashLife engine on an unbounded plane. The universe is a quadtree whose nodes
+ * are hash-consed (every distinct square of cells exists exactly once) and every
+ * node memoises its centre advanced in time, so regular patterns such as guns and
+ * oscillators can be advanced by 2^k generations in a single call.
+ *
+ * The node cache is bounded: once it holds more than maxNodes nodes it is rebuilt
+ * from the live tree only, which drops every memoised result and unreachable node.
+ * If the live tree alone takes more than half of the limit the limit is doubled,
+ * otherwise every step would rebuild the cache again and free next to nothing.
+ * A single jump that fills the cache half way through is given up, and after
+ * the rebuild done again as two jumps of half the size.
+ */
+public class HashLife implements Universe {
+	/*
+	 * immutable square of 2^level x 2^level cells, level 0 nodes are single cells
+	 */
+	static final class Node {
+		final Node nw, ne, sw, se;
+		final int level, hash;
+		final long population;
+		// memoised centre of this node advanced 2^resultStep generations
+		Node result;
+		int resultStep;
+		// next node in the same hash table bucket
+		Node chain;
+
+		Node(Node nw, Node ne, Node sw, Node se, int level, int hash, long population) {
+			this.nw = nw;
+			this.ne = ne;
+			this.sw = sw;
+			this.se = se;
+			this.level = level;
+			this.hash = hash;
+			this.population = population;
+			resultStep = -1;
+		}
+	}
+
+	public static final int DEFAULT_MAX_NODES = 1 << 21;
+	// largest single jump, keeps the tree small enough for long coordinates
+	public static final int MAX_STEP = 60;
+	private static final Node DEAD = new Node(null, null, null, null, 0, 0, 0);
+	private static final Node ALIVE = new Node(null, null, null, null, 0, 1, 1);
+	// thrown out of successor() when a jump fills the node cache, no stack trace as it's caught right away
+	private static final RuntimeException CACHE_FULL = new RuntimeException("Node cache full", null, false, false) {
+		private static final long serialVersionUID = 1L;
+	};
+
+	private int maxNodes;
+	private Node[] table;
+	private int nodeCount;
+	private Node[] emptyNodes;
+	private Node root;
+	private Rule rule;
+	// next state of the centre 2x2 cells of every 4x4 block, indexed by the 16 cells
+	private byte[] leafTable;
+	private long generation;
+	// node count at which successor() gives up the jump in progress
+	private int abortAt;
+
+	public HashLife() {
+		this(DEFAULT_MAX_NODES);
+	}
+
+	public HashLife(int maxNodes) {
+		if (maxNodes < 1024) {
+			throw new IllegalArgumentException("Node cache must hold at least 1024 nodes, got " + maxNodes);
+		}
+		this.maxNodes = maxNodes;
+		rule = Rule.CONWAY;
+		leafTable = rule.getLeafTable();
+		clear();
+	}
+
+	// getters
+	public long getGeneration() {
+		return generation;
+	}
+
+	public long getPopulation() {
+		return root.population;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/*
+	 * nodes the cache may hold before it is rebuilt, more than given to the
+	 * constructor once a live tree outgrew it
+	 */
+	public int getMaxNodes() {
+		return maxNodes;
+	}
+
+	public Rule getRule() {
+		return rule;
+	}
+
+	/*
+	 * the bounding box is found walking down the edges of the tree
+	 */
+	public boolean hasBounds() {
+		return true;
+	}
+
+	/*
+	 * smallest rectangle holding every live cell as {minX, minY, maxX, maxY}
+	 * (inclusive), or null if there are none. Edges past the int coordinates
+	 * get() and set() take are clamped to them.
+	 */
+	public int[] getBounds() {
+		if (root.population == 0) {
+			return null;
+		}
+		long half = 1L << (root.level - 1);
+		return new int[] { clamp(edge(root, 0) - half), clamp(edge(root, 1) - half),
+				clamp(edge(root, 2) - half), clamp(edge(root, 3) - half) };
+	}
+
+	/*
+	 * step with another rule from the next generation on, which forgets every
+	 * memoised result. Rules with B0 would fill the whole plane, so they are refused.
+	 */
+	public void setRule(Rule rule) {
+		if (rule.isBornFromNothing()) {
+			throw new IllegalArgumentException("HashLife can't run " + rule + " on an unbounded plane");
+		}
+		if (!rule.equals(this.rule)) {
+			this.rule = rule;
+			leafTable = rule.getLeafTable();
+			collectGarbage();
+		}
+	}
+
+	public void clear() {
+		table = new Node[1 << 16];
+		nodeCount = 0;
+		emptyNodes = new Node[64];
+		root = empty(3);
+		generation = 0;
+	}
+
+	public boolean get(int x, int y) {
+		long half = 1L << (root.level - 1);
+		if (x < -half || y < -half || x >= half || y >= half) {
+			return false;
+		}
+		Node node = root;
+		long nx = x + half, ny = y + half;
+		while (node.level > 0) {
+			if (node.population == 0) {
+				return false;
+			}
+			half = 1L << (node.level - 1);
+			boolean east = nx >= half, south = ny >= half;
+			node = south ? (east ? node.se : node.sw) : (east ? node.ne : node.nw);
+			nx -= east ? half : 0;
+			ny -= south ? half : 0;
+		}
+		return node == ALIVE;
+	}
+
+	public void set(int x, int y, boolean alive) {
+		while (x < -(1L << (root.level - 1)) || y < -(1L << (root.level - 1))
+				|| x >= (1L << (root.level - 1)) || y >= (1L << (root.level - 1))) {
+			root = expand(root);
+		}
+		long half = 1L << (root.level - 1);
+		root = set(root, x + half, y + half, alive);
+	}
+
+	/*
+	 * advance by any number of generations, one power of two at a time
+	 */
+	public void advance(long generations) {
+		if (generations < 0) {
+			throw new IllegalArgumentException("Cannot advance by a negative number of generations: " + generations);
+		}
+		for (long jumps = generations >>> MAX_STEP; jumps > 0; jumps--) {
+			advancePowerOfTwo(MAX_STEP);
+		}
+		for (int k = MAX_STEP - 1; k >= 0; k--) {
+			if ((generations & (1L << k)) != 0) {
+				advancePowerOfTwo(k);
+			}
+		}
+	}
+
+	/*
+	 * advance the universe by exactly 2^k generations in one recursive step
+	 */
+	public void advancePowerOfTwo(int k) {
+		if (k < 0 || k > MAX_STEP) {
+			throw new IllegalArgumentException("Step must be between 2^0 and 2^" + MAX_STEP + ", got 2^" + k);
+		}
+		// the pattern has to sit in the middle quarter of a node at least two
+		// levels above the step so nothing it grows into is cut off
+		while (root.level < k + 2 || !centred(root)) {
+			root = expand(root);
+		}
+		// single generations always go through, however many nodes they take
+		abortAt = k == 0 ? Integer.MAX_VALUE : maxNodes;
+		try {
+			root = successor(expand(root), k);
+		} catch (RuntimeException e) {
+			if (e != CACHE_FULL) {
+				throw e;
+			}
+			collectGarbage();
+			advancePowerOfTwo(k - 1);
+			advancePowerOfTwo(k - 1);
+			return;
+		}
+		generation += 1L << k;
+		if (nodeCount > maxNodes) {
+			collectGarbage();
+		}
+	}
+
+	/*
+	 * centre of the node after 2^step generations, one level smaller than the node
+	 */
+	private Node successor(Node node, int step) {
+		if (node.population == 0) {
+			return empty(node.level - 1);
+		}
+		if (node.resultStep == step) {
+			return node.result;
+		}
+		if (nodeCount > abortAt) {
+			throw CACHE_FULL;
+		}
+		Node result;
+		if (node.level == 2) {
+			result = leafSuccessor(node);
+		}
+		else {
+			// the nine overlapping sub squares, advanced half way when taking the full step
+			boolean full = step == node.level - 2;
+			Node n00 = subStep(node.nw, step, full), n01 = subStep(horizontal(node.nw, node.ne), step, full),
+					n02 = subStep(node.ne, step, full), n10 = subStep(vertical(node.nw, node.sw), step, full),
+					n11 = subStep(centre(node), step, full), n12 = subStep(vertical(node.ne, node.se), step, full),
+					n20 = subStep(node.sw, step, full), n21 = subStep(horizontal(node.sw, node.se), step, full),
+					n22 = subStep(node.se, step, full);
+			int next = full ? step - 1 : step;
+			result = join(successor(join(n00, n01, n10, n11), next), successor(join(n01, n02, n11, n12), next),
+					successor(join(n10, n11, n20, n21), next), successor(join(n11, n12, n21, n22), next));
+		}
+		node.result = result;
+		node.resultStep = step;
+		return result;
+	}
+
+	/*
+	 * either advance a sub square half of the full step or just take its centre
+	 */
+	private Node subStep(Node node, int step, boolean full) {
+		return full ? successor(node, step - 1) : centre(node);
+	}
+
+	/*
+	 * one generation of the centre 2x2 cells of a 4x4 node, looked up in the rule table
+	 */
+	private Node leafSuccessor(Node node) {
+		int bits = 0;
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				Node quadrant = y < 2 ? (x < 2 ? node.nw : node.ne) : (x < 2 ? node.sw : node.se);
+				Node cell = (y & 1) == 0 ? ((x & 1) == 0 ? quadrant.nw : quadrant.ne) : ((x & 1) == 0 ? quadrant.sw : quadrant.se);
+				if (cell == ALIVE) {
+					bits |= 1 << (y * 4 + x);
+				}
+			}
+		}
+		int next = leafTable[bits];
+		return join(cell(next & 1), cell(next & 2), cell(next & 4), cell(next & 8));
+	}
+
+	private static Node cell(int bit) {
+		return bit != 0 ? ALIVE : DEAD;
+	}
+
+	private Node centre(Node node) {
+		return join(node.nw.se, node.ne.sw, node.sw.ne, node.se.nw);
+	}
+
+	private Node horizontal(Node west, Node east) {
+		return join(west.ne, east.nw, west.se, east.sw);
+	}
+
+	private Node vertical(Node north, Node south) {
+		return join(north.sw, north.se, south.nw, south.ne);
+	}
+
+	/*
+	 * true if every live cell of the node lies in its centre quarter
+	 */
+	private boolean centred(Node node) {
+		return node.nw.population == node.nw.se.population
+				&& node.ne.population == node.ne.sw.population
+				&& node.sw.population == node.sw.ne.population
+				&& node.se.population == node.se.nw.population;
+	}
+
+	/*
+	 * surround the node with empty space, doubling its size and keeping it centred
+	 */
+	private Node expand(Node node) {
+		Node border = empty(node.level - 1);
+		return join(join(border, border, border, node.nw), join(border, border, node.ne, border),
+				join(border, node.sw, border, border), join(node.se, border, border, border));
+	}
+
+	/*
+	 * offset in the node of its leftmost (side 0), topmost (1), rightmost (2) or
+	 * bottommost (3) live cell, only looking into the quadrants across when the
+	 * two on that side are empty. The node must have a live cell.
+	 */
+	private long edge(Node node, int side) {
+		if (node.level == 0) {
+			return 0;
+		}
+		long half = 1L << (node.level - 1);
+		Node a, b, acrossA, acrossB;
+		switch (side) {
+		case 0:
+			a = node.nw; b = node.sw; acrossA = node.ne; acrossB = node.se;
+			break;
+		case 1:
+			a = node.nw; b = node.ne; acrossA = node.sw; acrossB = node.se;
+			break;
+		case 2:
+			a = node.ne; b = node.se; acrossA = node.nw; acrossB = node.sw;
+			break;
+		default:
+			a = node.sw; b = node.se; acrossA = node.nw; acrossB = node.ne;
+		}
+		long offset = side < 2 ? 0 : half;
+		if (a.population == 0 && b.population == 0) {
+			a = acrossA;
+			b = acrossB;
+			offset = half - offset;
+		}
+		if (a.population == 0) {
+			return offset + edge(b, side);
+		}
+		if (b.population == 0) {
+			return offset + edge(a, side);
+		}
+		long edgeA = edge(a, side), edgeB = edge(b, side);
+		return offset + (side < 2 ? Math.min(edgeA, edgeB) : Math.max(edgeA, edgeB));
+	}
+
+	private static int clamp(long coordinate) {
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, coordinate));
+	}
+
+	private Node set(Node node, long x, long y, boolean alive) {
+		if (node.level == 0) {
+			return alive ? ALIVE : DEAD;
+		}
+		long half = 1L << (node.level - 1);
+		if (y < half) {
+			return x < half ? join(set(node.nw, x, y, alive), node.ne, node.sw, node.se)
+					: join(node.nw, set(node.ne, x - half, y, alive), node.sw, node.se);
+		}
+		return x < half ? join(node.nw, node.ne, set(node.sw, x, y - half, alive), node.se)
+				: join(node.nw, node.ne, node.sw, set(node.se, x - half, y - half, alive));
+	}
+
+	private Node empty(int level) {
+		if (level == 0) {
+			return DEAD;
+		}
+		if (emptyNodes[level] == null) {
+			Node child = empty(level - 1);
+			emptyNodes[level] = join(child, child, child, child);
+		}
+		return emptyNodes[level];
+	}
+
+	/*
+	 * canonical node with the given quadrants, created only if it doesn't exist yet
+	 */
+	private Node join(Node nw, Node ne, Node sw, Node se) {
+		int hash = nw.hash * 0x9E3779B1 + ne.hash * 0x85EBCA6B + sw.hash * 0xC2B2AE35 + se.hash * 0x27D4EB2F + nw.level;
+		hash ^= hash >>> 15;
+		int bucket = hash & (table.length - 1);
+		for (Node node = table[bucket]; node != null; node = node.chain) {
+			if (node.nw == nw && node.ne == ne && node.sw == sw && node.se == se) {
+				return node;
+			}
+		}
+		Node node = new Node(nw, ne, sw, se, nw.level + 1, hash,
+				nw.population + ne.population + sw.population + se.population);
+		node.chain = table[bucket];
+		table[bucket] = node;
+		if (++nodeCount > table.length) {
+			resize();
+		}
+		return node;
+	}
+
+	private void resize() {
+		Node[] old = table;
+		table = new Node[old.length * 2];
+		for (Node head : old) {
+			for (Node node = head; node != null; ) {
+				Node next = node.chain;
+				int bucket = node.hash & (table.length - 1);
+				node.chain = table[bucket];
+				table[bucket] = node;
+				node = next;
+			}
+		}
+	}
+
+	/*
+	 * throw away the whole cache and re-create only the nodes of the current tree
+	 */
+	private void collectGarbage() {
+		Node old = root;
+		table = new Node[1 << 16];
+		nodeCount = 0;
+		emptyNodes = new Node[64];
+		root = rebuild(old, new IdentityHashMap<>());
+		if (nodeCount > maxNodes / 2 && maxNodes <= Integer.MAX_VALUE / 2) {
+			maxNodes *= 2;
+		}
+	}
+
+	private Node rebuild(Node node, IdentityHashMap<Node, Node> rebuilt) {
+		if (node.level == 0) {
+			return node;
+		}
+		Node copy = rebuilt.get(node);
+		if (copy == null) {
+			copy = join(rebuild(node.nw, rebuilt), rebuild(node.ne, rebuilt), rebuild(node.sw, rebuilt), rebuild(node.se, rebuilt));
+			rebuilt.put(node, copy);
+		}
+		return copy;
+	}
+}
@@ -0,0 +1,376 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+
+/*
+ * compact binary record of a run: frames of a width x height window of the
+ * universe (starting at cell 0, 0), each tagged with its generation. Every
+ * keyframeInterval frames a whole frame is stored, the frames in between only
+ * store what changed since the frame before them (both coded by DeltaCodec), so
+ * a long run costs roughly the cells that changed rather than the grid size.
+ *
+ * File layout: a 64 byte header (magic, width, height, keyframe interval) then
+ * records of type (1 byte), generation (8), payload length (4), CRC32 of the
+ * payload (4) and the payload. Records are written in order on a background
+ * thread through the file channel, so recording only costs the time to encode
+ * a frame. Opening an existing file rebuilds the index of records, checking the
+ * CRC of each, and drops everything from the first record that was only partly
+ * written when the program stopped, so a run can be resumed from any recorded
+ * generation after a restart and new frames never go after a broken one.
+ */
+public class HistoryFile implements Closeable {
+	private static final long MAGIC = 0x4C49464548495331L; // "LIFEHIS1"
+	private static final int HEADER_BYTES = 64, RECORD_HEADER_BYTES = 17;
+	private static final byte KEYFRAME = 1, DELTA = 2;
+	// encoded frames that may wait for the writer before record() blocks
+	private static final int MAX_PENDING = 4;
+	private final int width, height, wordsPerRow, keyframeInterval;
+	private final long lastWordMask;
+	private final FileChannel channel;
+	// index of the records: generation, file offset and type of each
+	private long[] generations, offsets;
+	private byte[] types;
+	private int frames;
+	// end of the last record, where the next one goes
+	private long end;
+	// last recorded frame (null until a frame has been recorded in this session)
+	// and a frame being captured
+	private long[] previous, frame;
+	private int deltasSinceKeyframe;
+	private ByteBuffer scratch;
+	private final ExecutorService writer;
+	private final Semaphore pending;
+	private volatile IOException failure;
+
+	/*
+	 * start a new history, replacing the file if it exists
+	 */
+	public HistoryFile(Path file, int width, int height, int keyframeInterval) throws IOException {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Grid must be at least 1x1, got " + width + "x" + height);
+		}
+		if (keyframeInterval < 1) {
+			throw new IllegalArgumentException("Keyframe interval must be at least 1, got " + keyframeInterval);
+		}
+		this.width = width;
+		this.height = height;
+		this.keyframeInterval = keyframeInterval;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putLong(MAGIC).putInt(width).putInt(height).putInt(keyframeInterval);
+		header.clear();
+		write(header, 0);
+		end = HEADER_BYTES;
+		wordsPerRow = (width + 63) >>> 6;
+		lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+		generations = new long[64];
+		offsets = new long[64];
+		types = new byte[64];
+		writer = newWriter();
+		pending = new Semaphore(MAX_PENDING);
+	}
+
+	/*
+	 * open an existing history to read frames from it or record more after its last one
+	 */
+	public HistoryFile(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		read(header, 0);
+		if (header.getLong() != MAGIC) {
+			channel.close();
+			throw new IOException(file + " is not a history file");
+		}
+		width = header.getInt();
+		height = header.getInt();
+		keyframeInterval = header.getInt();
+		if (width < 1 || height < 1 || keyframeInterval < 1) {
+			channel.close();
+			throw new IOException("Bad header in " + file);
+		}
+		wordsPerRow = (width + 63) >>> 6;
+		lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+		generations = new long[64];
+		offsets = new long[64];
+		types = new byte[64];
+		// walk the records, stopping at the first one that isn't all there. A torn
+		// record can have its header and length and still not its payload, so the
+		// payload has to match its CRC too.
+		long size = channel.size();
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		ByteBuffer payload = ByteBuffer.allocate(0);
+		CRC32 crc = new CRC32();
+		end = HEADER_BYTES;
+		while (end + RECORD_HEADER_BYTES <= size) {
+			record.clear();
+			read(record, end);
+			byte type = record.get();
+			long generation = record.getLong();
+			int length = record.getInt(), expected = record.getInt();
+			boolean valid = (type == KEYFRAME || (type == DELTA && frames > 0)) && length >= 0
+					&& end + RECORD_HEADER_BYTES + length <= size
+					&& (frames == 0 || generation > generations[frames - 1]);
+			if (valid) {
+				if (payload.capacity() < length) {
+					payload = ByteBuffer.allocate(Math.max(length, payload.capacity() * 2));
+				}
+				payload.clear().limit(length);
+				read(payload, end + RECORD_HEADER_BYTES);
+				crc.reset();
+				crc.update(payload);
+				valid = (int) crc.getValue() == expected;
+			}
+			if (!valid) {
+				break;
+			}
+			addIndex(type, generation, end);
+			end += RECORD_HEADER_BYTES + length;
+		}
+		if (end < size) {
+			channel.truncate(end);
+		}
+		writer = newWriter();
+		pending = new Semaphore(MAX_PENDING);
+	}
+
+	// getters
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	public int getFrameCount() {
+		return frames;
+	}
+
+	/*
+	 * generation of the given frame, frames are in increasing generation order
+	 */
+	public long getGeneration(int frame) {
+		if (frame < 0 || frame >= frames) {
+			throw new IndexOutOfBoundsException("Frame " + frame + " of " + frames);
+		}
+		return generations[frame];
+	}
+
+	/*
+	 * capture the window of the universe as the given generation, which has to be
+	 * later than every generation recorded so far. The frame is encoded on the
+	 * calling thread and written in the background.
+	 */
+	public void record(Universe universe, long generation) throws IOException {
+		checkFailure();
+		if (frames > 0 && generation <= generations[frames - 1]) {
+			throw new IllegalArgumentException("Generation " + generation + " is not after the last recorded generation "
+					+ generations[frames - 1]);
+		}
+		if (frame == null) {
+			frame = new long[wordsPerRow * height];
+			scratch = ByteBuffer.allocate(DeltaCodec.maxEncodedBytes(frame.length));
+		}
+		for (int y = 0; y < height; y++) {
+			int row = y * wordsPerRow;
+			for (int k = 0; k < wordsPerRow; k++) {
+				frame[row + k] = universe.getWord(k << 6, y);
+			}
+			frame[row + wordsPerRow - 1] &= lastWordMask;
+		}
+		byte type = previous == null || deltasSinceKeyframe + 1 >= keyframeInterval ? KEYFRAME : DELTA;
+		scratch.clear();
+		DeltaCodec.encode(type == KEYFRAME ? null : previous, frame, scratch);
+		scratch.flip();
+		CRC32 crc = new CRC32();
+		crc.update(scratch.duplicate());
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + scratch.remaining());
+		record.put(type).putLong(generation).putInt(scratch.remaining()).putInt((int) crc.getValue()).put(scratch);
+		record.flip();
+		long offset = end;
+		end += record.remaining();
+		addIndex(type, generation, offset);
+		deltasSinceKeyframe = type == KEYFRAME ? 0 : deltasSinceKeyframe + 1;
+		long[] swap = previous == null ? new long[frame.length] : previous;
+		previous = frame;
+		frame = swap;
+		pending.acquireUninterruptibly();
+		writer.execute(() -> {
+			try {
+				write(record, offset);
+			} catch (IOException e) {
+				failure = e;
+			} finally {
+				pending.release();
+			}
+		});
+	}
+
+	/*
+	 * replace the cells of the universe with the last recorded frame at or before
+	 * the given generation, returns the generation of that frame
+	 */
+	public long restore(Universe universe, long generation) throws IOException {
+		long[] cells = read(generation);
+		int index = floor(generation);
+		universe.clear();
+		for (int y = 0; y < height; y++) {
+			for (int k = 0; k < wordsPerRow; k++) {
+				long word = cells[y * wordsPerRow + k];
+				while (word != 0) {
+					int start = Long.numberOfTrailingZeros(word);
+					int length = Long.numberOfTrailingZeros(~(word >>> start));
+					universe.setRun((k << 6) + start, y, length);
+					word &= length == 64 ? 0 : ~(((1L << length) - 1) << start);
+				}
+			}
+		}
+		return generations[index];
+	}
+
+	/*
+	 * decode the last recorded frame at or before the given generation, packed
+	 * with wordsPerRow longs per row
+	 */
+	public long[] read(long generation) throws IOException {
+		int index = floor(generation);
+		if (index < 0) {
+			throw new IllegalArgumentException("No generation at or before " + generation + " was recorded");
+		}
+		drain();
+		int keyframe = index;
+		while (types[keyframe] != KEYFRAME) {
+			keyframe--;
+		}
+		long[] cells = new long[wordsPerRow * height];
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		for (int i = keyframe; i <= index; i++) {
+			header.clear();
+			read(header, offsets[i]);
+			header.position(9);
+			int length = header.getInt(), expected = header.getInt();
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			read(payload, offsets[i] + RECORD_HEADER_BYTES);
+			CRC32 crc = new CRC32();
+			crc.update(payload.duplicate());
+			if ((int) crc.getValue() != expected) {
+				throw new IOException("Frame for generation " + generations[i] + " is corrupt");
+			}
+			try {
+				DeltaCodec.apply(payload, cells);
+			} catch (RuntimeException e) {
+				throw new IOException("Frame for generation " + generations[i] + " is corrupt", e);
+			}
+		}
+		return cells;
+	}
+
+	/*
+	 * forget every frame after the given generation, e.g. after going back to an
+	 * earlier generation and carrying on from there
+	 */
+	public void truncate(long generation) throws IOException {
+		drain();
+		int keep = floor(generation) + 1;
+		if (keep < frames) {
+			end = offsets[keep];
+			frames = keep;
+			channel.truncate(end);
+			// the next frame can't be a delta against a frame that was removed
+			previous = null;
+		}
+	}
+
+	/*
+	 * wait for every recorded frame to be written and force them to disk
+	 */
+	public void flush() throws IOException {
+		drain();
+		channel.force(false);
+	}
+
+	/*
+	 * flush and close the file, the history can't be used afterwards
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			writer.shutdown();
+			channel.close();
+		}
+	}
+
+	/*
+	 * index of the last frame at or before the given generation, -1 if there is none
+	 */
+	private int floor(long generation) {
+		int index = Arrays.binarySearch(generations, 0, frames, generation);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	private void addIndex(byte type, long generation, long offset) {
+		if (frames == generations.length) {
+			generations = Arrays.copyOf(generations, frames * 2);
+			offsets = Arrays.copyOf(offsets, frames * 2);
+			types = Arrays.copyOf(types, frames * 2);
+		}
+		generations[frames] = generation;
+		offsets[frames] = offset;
+		types[frames] = type;
+		frames++;
+	}
+
+	/*
+	 * wait until the writer has finished every pending record
+	 */
+	private void drain() throws IOException {
+		pending.acquireUninterruptibly(MAX_PENDING);
+		pending.release(MAX_PENDING);
+		checkFailure();
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException("Writing the history failed", failure);
+		}
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private void read(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("History ends in the middle of a record");
+			}
+			position += read;
+		}
+		buffer.flip();
+	}
+
+	private static ExecutorService newWriter() {
+		return Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "history-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+}
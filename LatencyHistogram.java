@@ -0,0 +1,99 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * histogram of durations in nanoseconds with log-linear buckets: every power of
+ * two is split into 8 equal buckets, so any recorded value is known to within
+ * 12.5% while the whole range of a long fits in under 500 counters. Recording is
+ * a couple of shifts and an atomic increment, cheap enough for every generation,
+ * and it can be read from another thread (the HUD or JMX) while it's recorded to.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 3, SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+	private final AtomicLongArray counts;
+	// count, sum and maximum of everything recorded, for the mean and the max
+	private final AtomicLongArray totals;
+
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		totals = new AtomicLongArray(3);
+	}
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucket(nanos));
+		totals.incrementAndGet(0);
+		totals.addAndGet(1, nanos);
+		long max;
+		while (nanos > (max = totals.get(2)) && !totals.compareAndSet(2, max, nanos)) {
+		}
+	}
+
+	public long getCount() {
+		return totals.get(0);
+	}
+
+	public long getMax() {
+		return totals.get(2);
+	}
+
+	public double getMean() {
+		long count = totals.get(0);
+		return count == 0 ? 0 : (double) totals.get(1) / count;
+	}
+
+	/*
+	 * smallest value that at least the given fraction (0 to 1) of the recorded
+	 * values are at or below, rounded up to the top of its bucket. 0 if nothing
+	 * has been recorded.
+	 */
+	public long getPercentile(double fraction) {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		long target = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestValue(i), getMax());
+			}
+		}
+		return 0;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		for (int i = 0; i < 3; i++) {
+			totals.set(i, 0);
+		}
+	}
+
+	/*
+	 * values below 8 get a bucket each, above that the top 3 bits under the highest
+	 * set bit pick one of the 8 buckets of that power of two
+	 */
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	private static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+		long highest = lowest + (1L << (exponent - SUB_BITS)) - 1;
+		// the top buckets reach past the largest long
+		return lowest < 0 || highest < lowest ? Long.MAX_VALUE : highest;
+	}
+}
@@ -0,0 +1,16 @@
+/*
+ * main class of the application jar. Options starting with -- run a batch
+ * simulation (see Batch) and anything else opens the window (see Life). It
+ * only refers to Life on the window's path, so a batch run never loads a Swing
+ * or AWT class.
+ */
+public class Launcher {
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].startsWith("--")) {
+			Batch.main(args);
+		}
+		else {
+			Life.main(args);
+		}
+	}
+}
@@ -1,15 +1,22 @@
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.event.MouseAdapter;
-import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
-import java.util.Random;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.plaf.basic.BasicComboPopup;
 import javax.swing.plaf.metal.MetalButtonUI;
 
@@ -21,37 +28,83 @@ public class Life extends JFrame{
 	private JPanel gameGridPanel, mainPanel, bottomPanel, topPanel;
 	private PlaceholderTextField textField;
 	private JLabel iterationsLabel;
-	private int iterationsCompleted, gridSize, iterations;
-	private Square[][] squares;
-	private JButton start, stop, reset;
-	private JComboBox patternsCB;
-	private boolean stopped, pressedLeft, pressedRight, simulating;
+	// latest text for the label and whether setting it is already queued on the Swing thread
+	private volatile String iterationsText;
+	private final AtomicBoolean iterationsPending = new AtomicBoolean();
+	private int gridSize;
+	private long iterationsCompleted, iterations;
+	// generations since the pattern was set up, what the history records
+	private long generation;
+	// the engine picked in the engines box, only it is kept
+	private Universe universe;
+	private String engineName;
+	private GridCanvas canvas;
+	// timings of every generation, shown through JMX, JFR and the HUD
+	private SimulationMetrics metrics;
+	private JButton start, stop, reset, save, load, hud, statsButton;
+	private JComboBox<String> patternsCB, enginesCB, sizesCB, rulesCB;
+	private JComboBox<GridCanvas.Tool> toolsCB;
+	// rule every engine steps with
+	private Rule rule;
+	private PatternLibrary library;
+	private static final String OPEN_PATTERN = "Open file...";
+	// file the run is recorded to once the user saves it, null when not recording
+	private HistoryFile history;
+	private static final int KEYFRAME_INTERVAL = 64;
+	// the last generations kept in memory, scrubbed through with the slider once
+	// the simulation stops
+	private Timeline timeline;
+	private static final int TIMELINE_FRAMES = 4096, TIMELINE_BYTES = 128 << 20;
+	private JSlider timelineSlider;
+	// set while the slider is moved to match the timeline rather than by the user
+	private boolean updatingSlider;
+	// generations only go into the timeline while Record is ticked, read by the simulation thread
+	private JCheckBox recordBox;
+	private volatile boolean recording;
+	// notices the grid settling into a still life or oscillator so the rest of the
+	// run can be skipped, only used on the simulation thread once it runs
+	private final CycleDetector cycles = new CycleDetector();
+	// what was found out about the cycle, shown after the iterations
+	private volatile String cycleText = "";
+	// population, births, deaths and bounds of the last generations, graphed by the sparkline
+	private final PopulationHistory stats = new PopulationHistory();
+	private Sparkline sparkline;
+	private boolean simulating;
+	// steps the simulation on one long-lived thread and renders at the display's refresh rate
+	private SimulationScheduler scheduler;
+	private JComboBox<String> speedsCB;
 	private Color squareColor;
 	String pattern;
 	
-	public Life() throws IOException {
+	public Life(int gridSize) throws IOException {
 		try {
 			UIManager.setLookAndFeel(UIManager.getCrossPlatformLookAndFeelClassName());
 		} catch(Exception e) {
 			e.printStackTrace();
 		}
 		iterationsCompleted = 0;
-		gridSize = 45;
+		this.gridSize = gridSize;
 		iterations = 0;
-		stopped = false;
 		squareColor = new Color(40, 40, 40);
-		pressedLeft = false;
-		pressedRight = false;
 		simulating = false;
+		engineName = "Unbounded";
+		universe = newUniverse(engineName, gridSize);
+		rule = Rule.CONWAY;
 		
 		// Picutures for the buttons
 		BufferedImage playPic = ImageIO.read(this.getClass().getResourceAsStream("resources/play.png"));
 		BufferedImage pausePic = ImageIO.read(this.getClass().getResourceAsStream("resources/pause.png"));
 		BufferedImage resetPic = ImageIO.read(this.getClass().getResourceAsStream("resources/reset.png"));
 		
-		// User can select patterns from the combobox
-		String[] patterns = {"Custom", "Random", "Pentadecathlon", "Simkin Glider"};
-		patternsCB = new JComboBox<String>(patterns);
+		// User can select patterns from the combobox, the built-in ones come from resources/patterns
+		library = new PatternLibrary();
+		patternsCB = new JComboBox<String>();
+		patternsCB.addItem("Custom");
+		patternsCB.addItem("Random");
+		for (String name : library.getNames()) {
+			patternsCB.addItem(name);
+		}
+		patternsCB.addItem(OPEN_PATTERN);
 		patternsCB.setBackground(new Color(25, 25, 25));
 		patternsCB.setForeground(Color.white);
 		
@@ -64,32 +117,91 @@ public class Life extends JFrame{
                 	switch (s) {
                     case "Custom":
                 		resetGrid();
-                    	enableSquares();
+                    	canvas.setEditable(true);
                         break;
                     case "Random":
                 		resetGrid();
-                    	disableSquares();
+                    	canvas.setEditable(false);
                     	randomPattern();
                         break;
-                    case "Pentadecathlon":
-                		resetGrid();
-                    	disableSquares();
-                        pentaDec();
-                        break;
-                    case "Simkin Glider":
+                    case OPEN_PATTERN:
+                    	openPattern();
+                    	return;
+                    default:
                 		resetGrid();
-                    	disableSquares();
-                        simkinGlider();
+                    	canvas.setEditable(false);
+                    	addPattern(s);
                         break;
                 	}
+                	canvas.refresh();
                 }
             }
         };
         patternsCB.addActionListener(cbActionListener);
         
+        // User can change the size of the grid, any size can be typed in
+        String[] sizes = {"45", "128", "512", "2048", "16384"};
+        sizesCB = new JComboBox<String>(sizes);
+        sizesCB.setEditable(true);
+        sizesCB.setSelectedItem(String.valueOf(gridSize));
+        sizesCB.setPreferredSize(new Dimension(75, 25));
+        sizesCB.setToolTipText("Grid size");
+        sizesCB.addActionListener(ev -> {
+        	try {
+        		int size = Integer.parseInt(((String) sizesCB.getSelectedItem()).trim());
+        		if (!simulating && size != this.gridSize) {
+        			resizeGrid(size);
+        		}
+        	}
+        	catch (IllegalArgumentException e) {
+        		System.out.println("Not a valid grid size");
+        	}
+        	sizesCB.setSelectedItem(String.valueOf(this.gridSize));
+        });
+        
+        // User can pick the engine, the unbounded engine keeps cells that leave the visible grid,
+        // the torus wraps around the edges of the grid (off-heap keeps it outside the Java heap)
+        // and HashLife runs on an unbounded plane jumping ahead by powers of two generations
+        String[] engines = {"Unbounded", "Torus", "Off-heap", "HashLife"};
+        enginesCB = new JComboBox<String>(engines);
+        enginesCB.setBackground(new Color(25, 25, 25));
+        enginesCB.setForeground(Color.white);
+        enginesCB.addActionListener(ev -> {
+        	if (!simulating) {
+        		switchUniverse((String) enginesCB.getSelectedItem());
+        	}
+        });
+        
+        // User can pick a well known rule or type any B/S rulestring, e.g. B36/S23
+        rulesCB = new JComboBox<String>(Rule.getNamed().keySet().toArray(new String[0]));
+        rulesCB.setEditable(true);
+        rulesCB.setPreferredSize(new Dimension(120, 25));
+        rulesCB.setToolTipText("Rule");
+        rulesCB.addActionListener(ev -> {
+        	try {
+        		Rule chosen = Rule.parse((String) rulesCB.getSelectedItem());
+        		if (!simulating) {
+        			universe.setRule(chosen);
+        			rule = chosen;
+        		}
+        	}
+        	catch (IllegalArgumentException e) {
+        		System.out.println(e.getMessage());
+        	}
+        	rulesCB.setSelectedItem(ruleName(rule));
+        });
+        
+        // User can pick what dragging on the grid does in custom mode
+        toolsCB = new JComboBox<GridCanvas.Tool>(GridCanvas.Tool.values());
+        toolsCB.setBackground(new Color(25, 25, 25));
+        toolsCB.setForeground(Color.white);
+        toolsCB.setToolTipText("<html>Left button alive, right button dead<br>Select: Ctrl+C copy, Ctrl+X cut, Ctrl+V paste,"
+        		+ " Delete clear<br>Ctrl+R rotate, Ctrl+F flip, Ctrl+Shift+F flip vertically</html>");
+        toolsCB.addActionListener(ev -> canvas.setTool((GridCanvas.Tool) toolsCB.getSelectedItem()));
+        
         // Customized text field
-		textField = new PlaceholderTextField(8);
-		textField.setPreferredSize(new Dimension(50, 25));
+		textField = new PlaceholderTextField(19);
+		textField.setPreferredSize(new Dimension(110, 25));
 		textField.setPlaceholder("No. Iterations");
 		textField.setFont(new Font("Arial", Font.BOLD, 14));
 		textField.setBorder(null);
@@ -100,6 +212,14 @@ public class Life extends JFrame{
 		// Panel to hold combo box and text field
 		JPanel patternsBox = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 5));
 		patternsBox.setBackground(Color.decode("#3d3d3d"));
+		patternsBox.add(toolsCB);
+		patternsBox.add(Box.createRigidArea(new Dimension(20, 0)));
+		patternsBox.add(sizesCB);
+		patternsBox.add(Box.createRigidArea(new Dimension(20, 0)));
+		patternsBox.add(enginesCB);
+		patternsBox.add(Box.createRigidArea(new Dimension(20, 0)));
+		patternsBox.add(rulesCB);
+		patternsBox.add(Box.createRigidArea(new Dimension(20, 0)));
 		patternsBox.add(patternsCB);
 		patternsBox.add(Box.createRigidArea(new Dimension(20, 0)));
 		patternsBox.add(textField);
@@ -176,6 +296,13 @@ public class Life extends JFrame{
 		reset.setEnabled(false);
 		reset.addActionListener(ev -> reset());
 		
+		// save records the grid to a history file and keeps recording every generation
+		// after it, load goes back to any generation recorded in such a file
+		save = textButton("Save");
+		save.addActionListener(ev -> saveHistory());
+		load = textButton("Load");
+		load.addActionListener(ev -> loadHistory());
+		
 		// flow panel holds the buttons
 		JPanel buttonFlowPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 5));
 		buttonFlowPanel.setBackground(Color.decode("#3d3d3d"));
@@ -184,6 +311,10 @@ public class Life extends JFrame{
 		buttonFlowPanel.add(stop);
 		buttonFlowPanel.add(Box.createRigidArea(new Dimension(10, 0)));
 		buttonFlowPanel.add(reset);
+		buttonFlowPanel.add(Box.createRigidArea(new Dimension(10, 0)));
+		buttonFlowPanel.add(save);
+		buttonFlowPanel.add(Box.createRigidArea(new Dimension(10, 0)));
+		buttonFlowPanel.add(load);
 		
 		// top panel to hold the buttons, combo box and text field
 		topPanel = new JPanel();
@@ -193,9 +324,61 @@ public class Life extends JFrame{
 		topPanel.add(patternsBox);
 		
 		// main grid panel
-		gameGridPanel = new JPanel();
-		gameGridPanel.setLayout(new GridLayout(gridSize, gridSize));
-		createGrid(gameGridPanel, gridSize, gridSize);
+		gameGridPanel = new JPanel(new BorderLayout());
+		// squares are 15 pixels wide until the grid gets too big for the screen, then it's fitted to the view
+		int cellSize = Math.max(1, Math.min(15, 675 / gridSize));
+		canvas = new GridCanvas(universe, gridSize, gridSize, cellSize, squareColor);
+		canvas.setPreferredSize(new Dimension(Math.min(675, gridSize * 15), Math.min(675, gridSize * 15)));
+		gameGridPanel.add(canvas);
+		metrics = new SimulationMetrics();
+		metrics.register();
+		canvas.setMetrics(metrics);
+		
+		// HUD button shows the timings of the step, render and paint phases over the grid
+		hud = textButton("HUD");
+		hud.addActionListener(ev -> canvas.setOverlayVisible(!canvas.isOverlayVisible()));
+		
+		// generations per second, Max runs as fast as the engine goes and shows the latest frame
+		String[] speeds = {"1/s", "5/s", "15/s", "60/s", "1000/s", "Max"};
+		speedsCB = new JComboBox<String>(speeds);
+		speedsCB.setSelectedItem("5/s");
+		speedsCB.setBackground(new Color(25, 25, 25));
+		speedsCB.setForeground(Color.white);
+		speedsCB.setMaximumSize(new Dimension(80, 25));
+		speedsCB.setToolTipText("Speed");
+		speedsCB.addActionListener(ev -> scheduler.setRate(selectedRate()));
+		scheduler = new SimulationScheduler(displayRefreshRate(), selectedRate());
+		
+		// population of the last generations, Stats saves them with births, deaths and bounds as CSV
+		sparkline = new Sparkline(stats, Color.decode("#02A122"));
+		statsButton = textButton("Stats");
+		statsButton.addActionListener(ev -> saveStats());
+		
+		// drag back and forth through the generations of the last runs while stopped, only the ones
+		// recorded with Record ticked. Recording reads the rows every generation changed (every row
+		// on the engines that don't track them), so it's off unless asked for.
+		recordBox = new JCheckBox("Record");
+		recordBox.setBackground(Color.decode("#3d3d3d"));
+		recordBox.setForeground(Color.white);
+		recordBox.setToolTipText("Keep the last " + TIMELINE_FRAMES + " generations to scrub through with the slider");
+		recordBox.addActionListener(ev -> {
+			recording = recordBox.isSelected();
+			if (!recording) {
+				timeline.clear();
+				updateTimeline();
+			}
+		});
+		timeline = new Timeline(gridSize, gridSize, TIMELINE_FRAMES, TIMELINE_BYTES, KEYFRAME_INTERVAL);
+		timelineSlider = new JSlider(0, 0, 0);
+		timelineSlider.setBackground(Color.decode("#3d3d3d"));
+		timelineSlider.setMaximumSize(new Dimension(200, 25));
+		timelineSlider.setToolTipText("Timeline");
+		timelineSlider.setEnabled(false);
+		timelineSlider.addChangeListener(ev -> {
+			if (!simulating && !updatingSlider && timeline.getFrameCount() > 0) {
+				scrubTo(timelineSlider.getValue());
+			}
+		});
 		
 		// keep track of iterations completed and max iterations
 		iterationsLabel = new JLabel("Iteration: " + iterationsCompleted + "/" + iterations);
@@ -206,9 +389,18 @@ public class Life extends JFrame{
 		bottomPanel = new JPanel();
 		bottomPanel.setLayout(new BoxLayout(bottomPanel, BoxLayout.X_AXIS));
 		bottomPanel.setBackground(Color.decode("#3d3d3d"));
+		bottomPanel.add(speedsCB);
+		bottomPanel.add(Box.createRigidArea(new Dimension(10, 0)));
+		bottomPanel.add(recordBox);
+		bottomPanel.add(timelineSlider);
 		bottomPanel.add(Box.createHorizontalGlue());
 		bottomPanel.add(iterationsLabel);
 		bottomPanel.add(Box.createHorizontalGlue());
+		bottomPanel.add(sparkline);
+		bottomPanel.add(Box.createRigidArea(new Dimension(10, 0)));
+		bottomPanel.add(statsButton);
+		bottomPanel.add(Box.createRigidArea(new Dimension(10, 0)));
+		bottomPanel.add(hud);
 		
 		// main panel to hold everything
 		mainPanel = new JPanel();
@@ -223,36 +415,41 @@ public class Life extends JFrame{
         getContentPane().add(mainPanel);
         pack();
 
-        // setting the title, making the app closeable, disabling resizing, and setting it visible
+        // setting the title, making the app closeable and resizable, and setting it visible
         Dimension dim = Toolkit.getDefaultToolkit().getScreenSize();
         setLocation(dim.width/2-this.getSize().width/2, dim.height/2-this.getSize().height/2);
         setTitle("Game Of Life");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // make sure the frames still being written reach the history file
+        addWindowListener(new WindowAdapter() {
+        	@Override
+        	public void windowClosing(WindowEvent e) {
+        		closeHistory();
+        	}
+        });
         setLocationRelativeTo(null);
-        setResizable(false);
+        setResizable(true);
         setVisible(true);
+        canvas.fitGrid();
 	}
 	
 	/*
-	 * stop the simulation, update flags, and enable/disable buttons appropriately
+	 * pause the simulation, the buttons are updated once it has stopped
 	 */
 	private void stop() {
-		simulating = false;
-		stopped = true;
 		stop.setEnabled(false);
-		reset.setEnabled(true);
+		scheduler.pause();
 	}
 	
 	/*
 	 * reset everything
 	 */
 	private void reset() {
-		enableSquares();
+		canvas.setEditable(true);
 		patternsCB.setSelectedItem("Custom");
 		reset.setEnabled(false);
 		textField.setText("");
 		textField.setEditable(true);
-		stopped = false;
 		start.setEnabled(true);
 		resetGrid();
 		iterations = 0;
@@ -260,8 +457,20 @@ public class Life extends JFrame{
 		iterationsLabel.setText("Iteration: " + iterationsCompleted + "/" + iterations);
 	}
 
+	/*
+	 * the size of the grid can be given as the first argument, it's 45x45 by default.
+	 * Batch runs go through Batch or Launcher, which never load this JFrame.
+	 */
 	public static void main(String[] args) throws InterruptedException, IOException {
-		 new Life();
+		if (args.length > 0 && args[0].startsWith("--")) {
+			System.err.println("Batch options go to java Batch (or the jar's Launcher), java Life only takes a grid size");
+			System.exit(2);
+		}
+		int gridSize = 45;
+		if (args.length > 0) {
+			gridSize = Integer.parseInt(args[0]);
+		}
+		new Life(gridSize);
 	}
 	
 	/*
@@ -269,419 +478,506 @@ public class Life extends JFrame{
 	 */
 	public void start() throws InterruptedException {
 		try {
-			Integer.parseInt(textField.getText());
+			Long.parseLong(textField.getText().trim());
 			simulating = true;
-			disableSquares();
+			canvas.setEditable(false);
 			reset.setEnabled(false);
+			save.setEnabled(false);
+			load.setEnabled(false);
 			stop.setEnabled(true);
 			start.setEnabled(false);
 			textField.setEditable(false);
-			stopped = false;
 			if (iterations == iterationsCompleted) {
 				iterationsCompleted = 0;
 			}
-			iterations = Integer.parseInt(textField.getText());
+			iterations = Long.parseLong(textField.getText().trim());
+			metrics.reset();
+			// cells may have been edited since the last run
+			cycles.reset();
+			cycleText = "";
+			timelineSlider.setEnabled(false);
+			// after scrubbing back the run goes on from the generation shown, the
+			// frames recorded after it belong to the run that is being replaced
+			if (recording) {
+				timeline.record(universe, generation);
+			}
+			if (history != null) {
+				try {
+					history.truncate(generation);
+				} catch (IOException e) {
+					e.printStackTrace();
+					closeHistory();
+				}
+			}
+			// frames are rendered on the simulation thread until it stops
+			canvas.setRenderer(scheduler::requestRender);
 			simulate();
 		}
 		catch (NumberFormatException e){
-			System.out.println("Not an integer");
+			System.out.println("Not a whole number of iterations");
 		}
 	}
 	
 	/*
-	 * creating the main grid
+	 * add one of the library's patterns to the middle of the grid
 	 */
-	public void createGrid(JPanel panel, int x, int y){
-		// creating and adding the squares to the grid
-		squares = new Square[x][y];
-		for (int i = 0; i < x; i++){
-			for (int j = 0; j < y; j++){
-				squares[i][j] = new Square(i, j);
-				Square button = squares[i][j];
-				squares[i][j].addMouseListener(new MouseAdapter(){
-					@Override
-					public void mousePressed(MouseEvent me) {
-						// if left mouse button is pressed and the user is entering a custom panel and selecting
-						// a square that is "dead" make that square alive (i.e. set it to white)
-						if (me.getButton() == MouseEvent.BUTTON1) {
-							pressedLeft = true;
-							if (button.isEnabled() && button.getBackground() == squareColor) {
-								button.setBackground(Color.white);
-								button.setAlive(true);
-							}
-						}
-						// right mouse button makes square dead (i.e. reverses what left mouse button does)
-						else if (me.getButton() == MouseEvent.BUTTON3) {
-							pressedRight = true;
-							if (button.isEnabled() && button.getBackground() == Color.white) {
-								button.setBackground(squareColor);
-								button.setAlive(false);
-							}
-						}
-					}
-					@Override
-					public void mouseEntered(MouseEvent me) {
-						// add a simple border to grid squares
-						if (button.getBackground() == squareColor) {
-							button.setBorder(BorderFactory.createLineBorder(Color.white, 2));
-							button.setBorderPainted(true);
-						}
-						// following two conditional statements allow the user to hold the mouse button and draw many squares
-						// very quickly instead of individually clicking on each one
-						if (button.getBackground() == squareColor && pressedLeft && button.isEnabled()) {
-							button.setBackground(Color.white);
-							button.setAlive(true);
-						}
-						else if (button.getBackground() == Color.white && pressedRight && button.isEnabled()) {
-							button.setBackground(squareColor);
-							button.setAlive(false);
-						}
-					}
-					@Override
-					public void mouseExited(MouseEvent me) {
-						button.setBorderPainted(false);
-					}
-					@Override
-					public void mouseReleased(MouseEvent me) {
-						pressedLeft = false;
-						pressedRight = false;
-					}
-				});
-				squares[i][j].setBackground(squareColor);
-				squares[i][j].setBorderPainted(false);
-				// keeping track of the coordinates of each square
-				squares[i][j].setPreferredSize(new Dimension(15, 15));
-				// adding each square to the given panel
-				panel.add(squares[i][j]);
+	public void addPattern(String name) {
+		try {
+			Pattern pattern = library.get(name);
+			pattern.applyCentred(universe, gridSize, gridSize);
+			// files made for another rule say so in their header
+			if (pattern.getRule() != null) {
+				rulesCB.setSelectedItem(pattern.getRule().split(":")[0]);
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 	
 	/*
-	 * enable all the grid squares
+	 * name of the rule in the rules box, its rulestring if it hasn't got one
 	 */
-	public void enableSquares() {
-		for (int i = 0; i < gridSize; i++){
-			for (int j = 0; j < gridSize; j++){
-				squares[i][j].setEnabled(true);
+	private static String ruleName(Rule rule) {
+		for (Map.Entry<String, Rule> named : Rule.getNamed().entrySet()) {
+			if (named.getValue().equals(rule)) {
+				return named.getKey();
 			}
 		}
+		return rule.toString();
 	}
 	
 	/*
-	 * disable all the grid squares
+	 * let the user pick an RLE or Macrocell file, it's added to the patterns box
+	 * so it can be selected again without reading the file
 	 */
-	public void disableSquares() {
-		for (int i = 0; i < gridSize; i++){
-			for (int j = 0; j < gridSize; j++){
-				squares[i][j].setEnabled(false);
+	private void openPattern() {
+		JFileChooser chooser = new JFileChooser();
+		chooser.setFileFilter(new FileNameExtensionFilter("Life patterns (*.rle, *.mc)", "rle", "mc"));
+		if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+			patternsCB.setSelectedItem("Custom");
+			return;
+		}
+		try {
+			String name = library.load(chooser.getSelectedFile()).getName();
+			if (((DefaultComboBoxModel<?>) patternsCB.getModel()).getIndexOf(name) < 0) {
+				patternsCB.insertItemAt(name, patternsCB.getItemCount() - 1);
 			}
+			patternsCB.setSelectedItem(name);
+		} catch (IOException e) {
+			e.printStackTrace();
+			patternsCB.setSelectedItem("Custom");
 		}
 	}
 	
 	/*
-	 * method to add the pentadecathlon pattern to the grid
+	 * add a random pattern to the grid from a fresh seed
 	 */
-	public void pentaDec() {
-		// following values are needed to dynamically center pattern on any grid size
-		int PENTA_DEC_WIDTH = 10;
-		int PENTA_DEC_HEIGHT = 3;
-		int x_offset = gridSize/2 - PENTA_DEC_WIDTH/2;
-		int y_offset = gridSize/2 - PENTA_DEC_HEIGHT/2;
-		
-		squares[y_offset+1][x_offset].setBackground(Color.white);
-		squares[y_offset+1][x_offset].setAlive(true);
-		squares[y_offset+1][x_offset+1].setBackground(Color.white);
-		squares[y_offset+1][x_offset+1].setAlive(true);
-		squares[y_offset+2][x_offset+2].setBackground(Color.white);
-		squares[y_offset+2][x_offset+2].setAlive(true);
-		squares[y_offset][x_offset+2].setBackground(Color.white);
-		squares[y_offset][x_offset+2].setAlive(true);
-		squares[y_offset+1][x_offset+3].setBackground(Color.white);
-		squares[y_offset+1][x_offset+3].setAlive(true);
-		squares[y_offset+1][x_offset+4].setBackground(Color.white);
-		squares[y_offset+1][x_offset+4].setAlive(true);
-		squares[y_offset+1][x_offset+5].setBackground(Color.white);
-		squares[y_offset+1][x_offset+5].setAlive(true);
-		squares[y_offset+1][x_offset+6].setBackground(Color.white);
-		squares[y_offset+1][x_offset+6].setAlive(true);
-		squares[y_offset+2][x_offset+7].setBackground(Color.white);
-		squares[y_offset+2][x_offset+7].setAlive(true);
-		squares[y_offset][x_offset+7].setBackground(Color.white);
-		squares[y_offset][x_offset+7].setAlive(true);
-		squares[y_offset+1][x_offset+8].setBackground(Color.white);
-		squares[y_offset+1][x_offset+8].setAlive(true);
-		squares[y_offset+1][x_offset+9].setBackground(Color.white);
-		squares[y_offset+1][x_offset+9].setAlive(true);
+	public void randomPattern() {
+		randomPattern(new SplittableRandom().nextLong());
+	}
+
+	/*
+	 * fill the whole grid with the soup of the given seed, half the cells alive.
+	 * The seed goes in the window title until the grid is reset, so the same soup
+	 * can be made again with randomPattern(seed) or java Batch --soup.
+	 */
+	public void randomPattern(long seed) {
+		Soup.fill(universe, 0, 0, gridSize, gridSize, seed, Soup.DEFAULT_DENSITY);
+		setTitle("Game Of Life - soup " + seed);
 	}
 	
 	/*
-	 * add a random pattern to the grid
+	 * reset grid back to original state
 	 */
-	public void randomPattern() {
-		for (int i = 0; i < gridSize; i++) {
-			for (int j = 0; j < gridSize; j++) {
-				int random = new Random().nextBoolean() ? 0 : 1;
-				if (random == 1) {
-					squares[i][j].setBackground(Color.white);
-					squares[i][j].setAlive(true);
+	public void resetGrid() {
+		universe.clear();
+		setTitle("Game Of Life");
+		canvas.refresh();
+		// a new pattern starts a new run, so it isn't added to the old history
+		closeHistory();
+		generation = 0;
+		stats.clear();
+		sparkline.repaint();
+		timeline.clear();
+		updateTimeline();
+	}
+	
+	private JButton textButton(String text) {
+		JButton button = new JButton(text);
+		button.setBackground(Color.decode("#5a5a5a"));
+		button.setForeground(Color.white);
+		button.setBorderPainted(false);
+		button.setFont(new Font("Arial", Font.BOLD, 14));
+		button.setOpaque(true);
+		button.setFocusPainted(false);
+		button.setCursor(new Cursor(Cursor.HAND_CURSOR));
+		return button;
+	}
+	
+	/*
+	 * start recording the run to a file the user picks, beginning with the grid as it is now
+	 */
+	private void saveHistory() {
+		if (simulating) {
+			return;
+		}
+		JFileChooser chooser = new JFileChooser();
+		chooser.setFileFilter(new FileNameExtensionFilter("Life history (*.lifehist)", "lifehist"));
+		if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		File file = chooser.getSelectedFile();
+		if (!file.getName().contains(".")) {
+			file = new File(file.getPath() + ".lifehist");
+		}
+		closeHistory();
+		try {
+			history = new HistoryFile(file.toPath(), gridSize, gridSize, KEYFRAME_INTERVAL);
+			history.record(universe, generation);
+		} catch (IOException e) {
+			e.printStackTrace();
+			closeHistory();
+		}
+	}
+	
+	/*
+	 * write the statistics of the generations the graph holds to a CSV file the user picks
+	 */
+	private void saveStats() {
+		JFileChooser chooser = new JFileChooser();
+		chooser.setFileFilter(new FileNameExtensionFilter("Comma separated values (*.csv)", "csv"));
+		if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		File file = chooser.getSelectedFile();
+		if (!file.getName().contains(".")) {
+			file = new File(file.getPath() + ".csv");
+		}
+		try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.US_ASCII)) {
+			PopulationHistory.writeCSVHeader(out);
+			stats.writeCSV(out, 0);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/*
+	 * open a history file, go back to a recorded generation and keep recording
+	 * into the same file from there
+	 */
+	private void loadHistory() {
+		if (simulating) {
+			return;
+		}
+		JFileChooser chooser = new JFileChooser();
+		chooser.setFileFilter(new FileNameExtensionFilter("Life history (*.lifehist)", "lifehist"));
+		if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		HistoryFile opened = null;
+		try {
+			opened = new HistoryFile(chooser.getSelectedFile().toPath());
+			if (opened.getFrameCount() == 0) {
+				throw new IOException(chooser.getSelectedFile() + " has no recorded generations");
+			}
+			long first = opened.getGeneration(0), last = opened.getGeneration(opened.getFrameCount() - 1);
+			String answer = (String) JOptionPane.showInputDialog(this, "Generation to go back to (" + first + " - " + last + ")",
+					"Load", JOptionPane.PLAIN_MESSAGE, null, null, String.valueOf(last));
+			if (answer == null) {
+				opened.close();
+				return;
+			}
+			long target = Long.parseLong(answer.trim());
+			int size = Math.max(opened.getWidth(), opened.getHeight());
+			if (size != gridSize) {
+				resizeGrid(size);
+			}
+			// switching to the custom pattern clears the grid and stops the old recording
+			patternsCB.setSelectedItem("Custom");
+			long restored = opened.restore(universe, Math.max(target, first));
+			// the generations after the restored one belong to the run that is being replaced
+			opened.truncate(restored);
+			history = opened;
+			generation = restored;
+			iterationsCompleted = restored;
+			iterations = 0;
+			iterationsLabel.setText("Iteration: " + iterationsCompleted);
+			canvas.refresh();
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+			if (opened != null && opened != history) {
+				try {
+					opened.close();
+				} catch (IOException e1) {
+					e1.printStackTrace();
 				}
 			}
 		}
 	}
 	
 	/*
-	 * reset grid back to original state
+	 * set the iterations label from the simulation thread, updates that come faster
+	 * than the Swing thread shows them are folded into the latest one
 	 */
-	public void resetGrid() {
-		for (int i = 0; i < gridSize; i++) {
-			for (int j = 0; j < gridSize; j++) {
-				squares[i][j].setBackground(squareColor);
-				squares[i][j].setAlive(false);
-			}
+	private void showIterations(String text) {
+		iterationsText = text;
+		if (iterationsPending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(() -> {
+				iterationsPending.set(false);
+				iterationsLabel.setText(iterationsText);
+			});
 		}
 	}
 	
 	/*
-	 * add simkin-glider gun pattern to grid
+	 * set the grid to a frame of the timeline, the iterations count back or on
+	 * with it
 	 */
-	public void simkinGlider() {
-		// first set of 3 squares
-		squares[1][1].setBackground(Color.white);
-		squares[1][1].setAlive(true);
-		squares[1][2].setBackground(Color.white);
-		squares[1][2].setAlive(true);
-		squares[2][1].setBackground(Color.white);
-		squares[2][1].setAlive(true);
-		squares[2][2].setBackground(Color.white);
-		squares[2][2].setAlive(true);
-		squares[1][8].setBackground(Color.white);
-		squares[1][8].setAlive(true);
-		squares[1][9].setBackground(Color.white);
-		squares[1][9].setAlive(true);
-		squares[2][8].setBackground(Color.white);
-		squares[2][8].setAlive(true);
-		squares[2][9].setBackground(Color.white);
-		squares[2][9].setAlive(true);
-		squares[4][5].setBackground(Color.white);
-		squares[4][5].setAlive(true);
-		squares[4][6].setBackground(Color.white);
-		squares[4][6].setAlive(true);
-		squares[5][5].setBackground(Color.white);
-		squares[5][5].setAlive(true);
-		squares[5][6].setBackground(Color.white);
-		squares[5][6].setAlive(true);
-		
-		// second set of 3 squares
-		squares[9][28].setBackground(Color.white);
-		squares[9][28].setAlive(true);
-		squares[9][29].setBackground(Color.white);
-		squares[9][29].setAlive(true);
-		squares[10][28].setBackground(Color.white);
-		squares[10][28].setAlive(true);
-		squares[10][29].setBackground(Color.white);
-		squares[10][29].setAlive(true);
-		squares[12][25].setBackground(Color.white);
-		squares[12][25].setAlive(true);
-		squares[12][26].setBackground(Color.white);
-		squares[12][26].setAlive(true);
-		squares[13][25].setBackground(Color.white);
-		squares[13][25].setAlive(true);
-		squares[13][26].setBackground(Color.white);
-		squares[13][26].setAlive(true);
-		squares[12][32].setBackground(Color.white);
-		squares[12][32].setAlive(true);
-		squares[12][33].setBackground(Color.white);
-		squares[12][33].setAlive(true);
-		squares[13][32].setBackground(Color.white);
-		squares[13][32].setAlive(true);
-		squares[13][33].setBackground(Color.white);
-		squares[13][33].setAlive(true);
-		
-		// glider
-		squares[1][21].setBackground(Color.white);
-		squares[1][21].setAlive(true);
-		squares[2][19].setBackground(Color.white);
-		squares[2][19].setAlive(true);
-		squares[2][20].setBackground(Color.white);
-		squares[2][20].setAlive(true);
-		squares[2][21].setBackground(Color.white);
-		squares[2][21].setAlive(true);
-		squares[3][19].setBackground(Color.white);
-		squares[3][19].setAlive(true);
-		squares[3][21].setBackground(Color.white);
-		squares[3][21].setAlive(true);
-		squares[4][19].setBackground(Color.white);
-		squares[4][19].setAlive(true);
+	private void scrubTo(int frame) {
+		long target = timeline.seek(frame, universe);
+		iterationsCompleted = Math.max(0, iterationsCompleted - (generation - target));
+		generation = target;
+		iterationsLabel.setText("Iteration: " + iterationsCompleted + "/" + iterations + "   Generation: " + target);
+		canvas.refresh();
+	}
+	
+	/*
+	 * fit the slider to the frames the timeline holds, at the one shown
+	 */
+	private void updateTimeline() {
+		updatingSlider = true;
+		int frames = timeline.getFrameCount();
+		timelineSlider.setMaximum(Math.max(0, frames - 1));
+		timelineSlider.setValue(timeline.getPosition());
+		timelineSlider.setEnabled(!simulating && frames > 1);
+		updatingSlider = false;
+	}
+	
+	/*
+	 * population after the last generation and, when the engine counts them, its
+	 * births and deaths
+	 */
+	private String populationText() {
+		if (stats.getRecorded() == 0) {
+			return "";
+		}
+		String text = "   Population: " + stats.getLastPopulation();
+		long births = stats.getLastBirths();
+		return births < 0 ? text : text + " (+" + births + " -" + stats.getLastDeaths() + ")";
+	}
+	
+	private double selectedRate() {
+		String speed = (String) speedsCB.getSelectedItem();
+		if (speed.equals("Max")) {
+			return SimulationScheduler.UNTHROTTLED;
+		}
+		return Double.parseDouble(speed.substring(0, speed.indexOf('/')));
 	}
 	
 	/*
-	 * method used to determine if a wrap around is happening
+	 * frames per second of the screen, 60 if it doesn't say
 	 */
-	public boolean wrap(int xcoord, int ycoord) {
-		if (xcoord == gridSize-1 || xcoord == 0 || ycoord == gridSize-1 || ycoord == 0) {
-			return true;
+	private static double displayRefreshRate() {
+		int rate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+		return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : rate;
+	}
+	
+	private void closeHistory() {
+		if (history != null) {
+			try {
+				history.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			history = null;
 		}
-		return false;
 	}
 	
 	/*
-	 * method used to execute the wrap around correctly
-	 * i.e. the right most squares of the grid are adjacent to the left most squares
-	 * and the top most squares of the grid are adjacent to the bottom most
+	 * replace the grid with an empty one of the given size
 	 */
-	public int checkWrap(int xcoord, int ycoord, int i, int j) {
-		int numNeighbours = 0;
-		// if we are in the right most column, we need to check all adjacent
-		// squares in the left most column, which will be three squares 
-		// 1 square being at the 0th column with the same y position
-		// 1 square being at the 0th column with y position +1
-		// 1 square beiung at the 0th column with y position -1
-		// same methodology applies to the other far most columns
-		if (xcoord == gridSize-1) {
-			if (squares[0][ycoord].getBackground() == Color.white) {
-				numNeighbours++;
-	   		}
-		   	if (ycoord-1 >= 0) {
-		   		if (squares[0][ycoord-1].getBackground() == Color.white) {
-		   			numNeighbours++;
-		   		}
-		   	}
-	   		if (ycoord+1 <= gridSize-1) {
-	   			if (squares[0][ycoord+1].getBackground() == Color.white) {
-	   				numNeighbours++;
-	   			}
-	   		}
-		}
-   		if (xcoord == 0) {
-			if (squares[gridSize-1][ycoord].getBackground() == Color.white) {
-				numNeighbours++;
-	   		}
-		   	if (ycoord-1 >= 0) {
-		   		if (squares[gridSize-1][ycoord-1].getBackground() == Color.white) {
-		   			numNeighbours++;
-		   		}
-		   	}
-	   		if (ycoord+1 <= gridSize-1) {
-	   			if (squares[gridSize-1][ycoord+1].getBackground() == Color.white) {
-	   				numNeighbours++;
-	   			}
-	   		}
-   		}
-   		if (ycoord == gridSize-1) {
-			if (squares[xcoord][0].getBackground() == Color.white) {
-				numNeighbours++;
-	   		}
-		   	if (xcoord-1 >= 0) {
-		   		if (squares[xcoord-1][0].getBackground() == Color.white) {
-		   			numNeighbours++;
-		   		}
-		   	}
-	   		if (xcoord+1 <= gridSize-1) {
-	   			if (squares[xcoord+1][0].getBackground() == Color.white) {
-	   				numNeighbours++;
-	   			}
-	   		}
-   		}
-   		if (ycoord == 0) {
-			if (squares[xcoord][gridSize-1].getBackground() == Color.white) {
-				numNeighbours++;
-	   		}
-		   	if (xcoord-1 >= 0) {
-		   		if (squares[xcoord-1][gridSize-1].getBackground() == Color.white) {
-		   			numNeighbours++;
-		   		}
-		   	}
-	   		if (xcoord+1 <= gridSize-1) {
-	   			if (squares[xcoord+1][gridSize-1].getBackground() == Color.white) {
-	   				numNeighbours++;
-	   			}
-	   		}
-   		}
-   		return numNeighbours;
+	private void resizeGrid(int size) {
+		if (size < 1 || size > 65536) {
+			throw new IllegalArgumentException("Grid size must be between 1 and 65536, got " + size);
+		}
+		Universe resized = newUniverse(engineName, size);
+		resized.setRule(rule);
+		dispose(universe);
+		universe = resized;
+		gridSize = size;
+		timeline = new Timeline(size, size, TIMELINE_FRAMES, TIMELINE_BYTES, KEYFRAME_INTERVAL);
+		updateTimeline();
+		canvas.setUniverse(universe);
+		canvas.setGridSize(size, size);
+		patternsCB.setSelectedItem("Custom");
+		canvas.setEditable(true);
 	}
 	
 	/*
-	 * simulate in a different thread to prevent blocking for the main Swing thread
+	 * empty engine of the given name from the engines box for a grid of the given size
+	 */
+	private static Universe newUniverse(String name, int size) {
+		switch (name) {
+		case "Torus":
+			LifeEngine engine = new LifeEngine(size, size);
+			engine.setThreads(Runtime.getRuntime().availableProcessors());
+			return engine;
+		case "Off-heap":
+			return new OffHeapUniverse(size, size);
+		case "HashLife":
+			return new HashLife();
+		default:
+			return new SparseUniverse();
+		}
+	}
+
+	/*
+	 * let go of an engine that's been replaced, the torus has worker threads to stop
+	 */
+	private static void dispose(Universe old) {
+		if (old instanceof LifeEngine) {
+			((LifeEngine) old).shutdown();
+		}
+	}
+
+	/*
+	 * move the cells shown on the grid into a new engine of the given name and
+	 * display that one, the old engine is dropped
+	 */
+	private void switchUniverse(String name) {
+		if (name.equals(engineName)) {
+			return;
+		}
+		Universe next = newUniverse(name, gridSize);
+		try {
+			next.setRule(rule);
+		} catch (IllegalArgumentException e) {
+			// rules with B0 only run on the torus
+			System.out.println(e.getMessage() + ", going back to Conway's rule");
+			rule = Rule.CONWAY;
+			next.setRule(rule);
+			rulesCB.setSelectedItem(ruleName(rule));
+		}
+		copyCells(universe, next);
+		dispose(universe);
+		universe = next;
+		engineName = name;
+		canvas.setUniverse(universe);
+		canvas.refresh();
+	}
+	
+	/*
+	 * copy the live cells of one universe into another a word at a time as runs,
+	 * over the source's bounding box where it keeps one and the grid otherwise.
+	 * A torus target keeps the cells that fall on its grid.
+	 */
+	private void copyCells(Universe from, Universe to) {
+		int left = 0, top = 0, right = gridSize - 1, bottom = gridSize - 1;
+		if (from.hasBounds()) {
+			int[] bounds = from.getBounds();
+			if (bounds == null) {
+				return;
+			}
+			left = bounds[0];
+			top = bounds[1];
+			right = bounds[2];
+			bottom = bounds[3];
+		}
+		if (!to.contains(-1, -1)) {
+			left = Math.max(left, 0);
+			top = Math.max(top, 0);
+			right = Math.min(right, gridSize - 1);
+			bottom = Math.min(bottom, gridSize - 1);
+		}
+		for (int y = top; y <= bottom; y++) {
+			for (long x = left; x <= right; x += 64) {
+				long word = from.getWord((int) x, y);
+				if (x + 63 > right) {
+					word &= (1L << (right - x + 1)) - 1;
+				}
+				while (word != 0) {
+					int start = Long.numberOfTrailingZeros(word);
+					int length = Long.numberOfTrailingZeros(~(word >>> start));
+					to.setRun((int) x + start, y, length);
+					word &= start + length == 64 ? 0 : -1L << (start + length);
+				}
+			}
+		}
+	}
+
+	/*
+	 * run the simulation on the scheduler's thread to prevent blocking the main Swing
+	 * thread, the scheduler decides how fast it steps and when a frame is rendered
 	 */
 	private void simulate() {
-    	new Thread(new Runnable() {
-    		@Override
-    		public void run() {
-    			int numNeighbours;
-    			while (iterationsCompleted < iterations && !stopped) {
-    				for (int i = 0; i < gridSize; i++) {
-    					for (int j = 0; j < gridSize; j++) {
-    						 numNeighbours = 0;
-    						 int xcoord = squares[i][j].getXcoord();
-    						 int ycoord = squares[i][j].getYcoord();
-    						 if (wrap(xcoord, ycoord)) {
-    							 numNeighbours = checkWrap(xcoord, ycoord, i, j);
-    						 }
-    						 for (int x = xcoord - 1; x < xcoord + 2; x++) {
-    							 for (int y = ycoord - 1; y < ycoord + 2; y++) {
-    								 // skip checking own square
-    								 if (x == xcoord && y == ycoord) {
-    									 continue; 
-    								 }
-    								 // checking if we are targeting a square outside of the grid
-    		                         // and if we are we skip it
-    		                         if (x > (gridSize - 1) || x < 0 || y > (gridSize - 1) || y < 0){
-    		                        	 continue;
-    		                         }
-    		                         if (squares[x][y].getBackground() == Color.white) {
-    									 numNeighbours++;
-    								 }
-    							 }
-    						 }
-    						 // update squares based on game rules
-    						 if (squares[i][j].getBackground() == squareColor) {
-    							 if (numNeighbours == 3) {
-    								 squares[i][j].setAlive(true);
-    							 }
-    						 }
-    						 else {
-    							 if (numNeighbours < 2) {
-    								 squares[i][j].setAlive(false);
-    							 }
-    							 else if (numNeighbours > 3) {
-    								 squares[i][j].setAlive(false);
-    							 }
-    						 }
-    					}
-    				}
-    				// add a slight delay so user can see what's happening
-    				try {
-						Thread.sleep(200);
-					} catch (InterruptedException e) {
+		scheduler.start(new SimulationScheduler.Simulation() {
+			@Override
+			public boolean step() {
+				if (iterationsCompleted >= iterations) {
+					return false;
+				}
+				// HashLife takes the biggest power of two jump that doesn't pass the target
+				long jump = 1;
+				if (universe instanceof HashLife) {
+					jump = Long.highestOneBit(Math.min(iterations - iterationsCompleted, 1L << HashLife.MAX_STEP));
+				}
+				metrics.step(universe, jump, (long) gridSize * gridSize);
+				stats.record(universe);
+				// the rows this generation changed, in case its frame is skipped
+				canvas.collectChanges();
+				iterationsCompleted += jump;
+				generation += jump;
+				if (universe.hasHash() && cycles.record(generation, universe.getHash())) {
+					long period = cycles.getPeriod();
+					cycleText = period == 1 ? " (stable since " + cycles.getStart() + ")"
+							: " (period " + period + " since " + cycles.getStart() + ")";
+					// every whole period left would end where it started
+					long skip = (iterations - iterationsCompleted) / period * period;
+					iterationsCompleted += skip;
+					generation += skip;
+				}
+				if (history != null) {
+					try {
+						history.record(universe, generation);
+					} catch (IOException e) {
 						e.printStackTrace();
+						closeHistory();
+					}
+				}
+				if (recording) {
+					timeline.record(universe, generation);
+				}
+				return true;
+			}
+
+			@Override
+			public void render() {
+				showIterations("Iteration: " + iterationsCompleted + "/" + iterations + cycleText + populationText());
+				sparkline.repaint();
+				// visually change the updated cells in the grid
+				metrics.render(canvas);
+			}
+
+			@Override
+			public void stopped(boolean finished) {
+				SwingUtilities.invokeLater(() -> {
+					canvas.setRenderer(null);
+					if (finished) {
+						String s = (String) patternsCB.getSelectedItem();
+						if (s.equals("Custom")) {
+							canvas.setEditable(true);
+						}
+						textField.setEditable(true);
 					}
-    				iterationsCompleted++;
-    				iterationsLabel.setText("Iteration: " + iterationsCompleted + "/" + iterations);
-    				// visually change the updated squares in the grid
-    				for (int i = 0; i < gridSize; i++) {
-    					for (int j = 0; j < gridSize; j++) {
-    						if (squares[i][j].getAlive()) {
-    							squares[i][j].setBackground(Color.white);
-    						}
-    						else {
-    							squares[i][j].setBackground(squareColor);
-    						}
-    					}
-    				}
-    			} 
-    			if (iterations == iterationsCompleted) {
-    				String s = (String) patternsCB.getSelectedItem();
-    				if (s.equals("Custom")) {
-    					enableSquares();
-    				}
-    				reset.setEnabled(true);
-    				textField.setEditable(true);
-    				stop.setEnabled(false);
-    				simulating = false;
-    			}
-    			start.setEnabled(true);
-    		}
-		}).start();
-    }
+					simulating = false;
+					updateTimeline();
+					stop.setEnabled(false);
+					reset.setEnabled(true);
+					save.setEnabled(true);
+					load.setEnabled(true);
+					start.setEnabled(true);
+				});
+			}
+		});
+	}
 }
@@ -0,0 +1,679 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Headless simulation engine for the game of life. The universe is a torus of
+ * width x height cells stored as packed bitboards (one bit per cell, 64 cells per
+ * long, each row starting on a fresh word) so a whole word of cells is advanced at
+ * once with bitwise neighbour counting. This class has no AWT/Swing dependency,
+ * the GUI only reads the cells back out after each generation.
+ *
+ * With more than one thread the rows are split into horizontal bands that are
+ * stepped on a fixed worker pool. Every band only reads the current buffer and
+ * writes its own rows of the back buffer, so the result is bit-identical to the
+ * single threaded path.
+ *
+ * When the JVM is started with --add-modules jdk.incubator.vector, rows where
+ * most words have to be recomputed are stepped a whole vector of words at a
+ * time by VectorKernel, with the same result as the scalar kernel.
+ *
+ * The population and the births and deaths of the last generation come out of
+ * the step itself, counted with bitCount() on the words that changed. Every row
+ * also keeps its leftmost and rightmost live cell, which the step only looks for
+ * again when a word at or past either end of them changed, so the live bounding
+ * box is a pass over the rows instead of the cells.
+ */
+public class LifeEngine implements Universe {
+	private final int width, height, wordsPerRow;
+	// mask of the valid bits in the last word of every row
+	private final long lastWordMask;
+	private long[] cells, nextCells;
+	// one bit per word of cells that changed in the last generation (or was edited
+	// since), each row has its own run of longs so bands never share one
+	private final int changeWordsPerRow;
+	private long[] changed, nextChanged;
+	// set when every cell has to be treated as changed, e.g. after clear()
+	private boolean allChanged;
+	// cells born or died in the last generation, and how many of them were born
+	private long changedCells, births;
+	// live cells, kept up to date as cells change
+	private long population;
+	// leftmost and rightmost live column of every row, EMPTY and -1 for an empty
+	// row. Edits only widen them, so after a kill they may be wider than the row.
+	private int[] rowLeft, rowRight;
+	private static final int EMPTY = Integer.MAX_VALUE;
+	// set when an edit killed cells, so extents can be wider than the live cells
+	// until getBounds() measures them again
+	private boolean extentsWide;
+	private Rule rule;
+	// the rule on vectors of words, null to step with the scalar kernel only
+	private VectorKernel vectors;
+	// Universe.hashWord() of every word XORed together, words are numbered by index
+	private long hash;
+	private long generation;
+	// bands smaller than this cost more to hand off than they take to compute
+	private static final int MIN_BAND_ROWS = 64;
+	// checked here so VectorKernel is never loaded without the Vector API
+	private static final boolean VECTOR_API = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+	private int threads;
+	private ExecutorService pool;
+
+	public LifeEngine(int width, int height) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Grid must be at least 1x1, got " + width + "x" + height);
+		}
+		this.width = width;
+		this.height = height;
+		wordsPerRow = (width + 63) >>> 6;
+		lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+		cells = new long[wordsPerRow * height];
+		nextCells = new long[wordsPerRow * height];
+		changeWordsPerRow = (wordsPerRow + 63) >>> 6;
+		changed = new long[changeWordsPerRow * height];
+		nextChanged = new long[changeWordsPerRow * height];
+		allChanged = true;
+		Arrays.fill(changed, -1L);
+		rowLeft = new int[height];
+		rowRight = new int[height];
+		clearBounds();
+		rule = Rule.CONWAY;
+		vectors = VECTOR_API ? new VectorKernel(rule) : null;
+		generation = 0;
+		threads = 1;
+	}
+
+	// getters
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	public long getChangedCells() {
+		return changedCells;
+	}
+
+	public long getBirths() {
+		return births;
+	}
+
+	public boolean hasBounds() {
+		return true;
+	}
+
+	/*
+	 * the live bounding box from the extents of the rows, which are measured again
+	 * first if an edit killed cells
+	 */
+	public int[] getBounds() {
+		if (extentsWide) {
+			for (int y = 0; y < height; y++) {
+				measure(cells, y, 0, wordsPerRow - 1);
+			}
+			extentsWide = false;
+		}
+		int top = -1, bottom = -1, left = EMPTY, right = -1;
+		for (int y = 0; y < height; y++) {
+			if (rowLeft[y] <= rowRight[y]) {
+				top = top < 0 ? y : top;
+				bottom = y;
+				left = Math.min(left, rowLeft[y]);
+				right = Math.max(right, rowRight[y]);
+			}
+		}
+		return top < 0 ? null : new int[] { left, top, right, bottom };
+	}
+
+	public boolean hasHash() {
+		return true;
+	}
+
+	public long getHash() {
+		return hash;
+	}
+
+	public Rule getRule() {
+		return rule;
+	}
+
+	/*
+	 * step with another rule from the next generation on, every word is recomputed
+	 * once since the rule may change cells whose neighbourhood didn't
+	 */
+	public void setRule(Rule rule) {
+		this.rule = rule;
+		if (vectors != null) {
+			vectors = new VectorKernel(rule);
+		}
+		Arrays.fill(changed, -1L);
+		allChanged = true;
+	}
+
+	public boolean isVectorized() {
+		return vectors != null;
+	}
+
+	/*
+	 * step dense rows with the vector kernel or not, e.g. to compare the two. Stays
+	 * off when the JVM has no Vector API.
+	 */
+	public void setVectorized(boolean vectorized) {
+		vectors = vectorized && VECTOR_API ? new VectorKernel(rule) : null;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/*
+	 * set how many threads are used to step a generation, 1 steps on the calling
+	 * thread. The worker pool is only created once a band split is worth it.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Thread count must be at least 1, got " + threads);
+		}
+		if (threads != this.threads) {
+			shutdown();
+			this.threads = threads;
+		}
+	}
+
+	/*
+	 * stop the worker threads, the engine can still be stepped afterwards
+	 */
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/*
+	 * returns true if the cell at the given column (x) and row (y) is alive
+	 */
+	public boolean get(int x, int y) {
+		return (cells[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	public boolean contains(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	/*
+	 * 64 cells starting at column x, a stored word when x is on a word boundary and
+	 * otherwise the two words it straddles shifted together
+	 */
+	public long getWord(int x, int y) {
+		if (contains(x, y)) {
+			int index = y * wordsPerRow + (x >>> 6), shift = x & 63;
+			if (shift == 0) {
+				return cells[index];
+			}
+			// bits past the right edge are always clear, so the row's end needs no mask
+			long word = cells[index] >>> shift;
+			return (x >>> 6) + 1 < wordsPerRow ? word | (cells[index + 1] << (64 - shift)) : word;
+		}
+		return Universe.super.getWord(x, y);
+	}
+
+	/*
+	 * make the 64 cells of row y starting at column x match the bits of word, bit i
+	 * for the cell at x + i. Cells past the right edge of the grid are dropped.
+	 */
+	public void setWord(int x, int y, long word) {
+		if (!contains(x, y)) {
+			throw new IllegalArgumentException("Cell " + x + "," + y + " is outside the grid");
+		}
+		int k = x >>> 6, shift = x & 63;
+		store(y, k, -1L << shift, word << shift);
+		if (shift != 0 && k + 1 < wordsPerRow) {
+			store(y, k + 1, -1L >>> (64 - shift), word >>> (64 - shift));
+		}
+	}
+
+	/*
+	 * replace the bits under mask of word k of row y, keeping the hash and the
+	 * change bits up to date
+	 */
+	private void store(int y, int k, long mask, long bits) {
+		if (k == wordsPerRow - 1) {
+			mask &= lastWordMask;
+		}
+		int index = y * wordsPerRow + k;
+		long word = (cells[index] & ~mask) | (bits & mask);
+		if (word != cells[index]) {
+			hash ^= Universe.hashWord(index, cells[index]) ^ Universe.hashWord(index, word);
+			population += Long.bitCount(word) - Long.bitCount(cells[index]);
+			long born = word & ~cells[index];
+			edited(y, born == 0 ? EMPTY : (k << 6) + Long.numberOfTrailingZeros(born),
+					born == 0 ? -1 : (k << 6) + 63 - Long.numberOfLeadingZeros(born), (cells[index] & ~word) != 0);
+			cells[index] = word;
+			changed[y * changeWordsPerRow + (k >>> 6)] |= 1L << k;
+		}
+	}
+
+	/*
+	 * widen row y's extent to the cells made alive from left to right, a kill
+	 * leaves the extent wider than the row
+	 */
+	private void edited(int y, int left, int right, boolean killed) {
+		rowLeft[y] = Math.min(rowLeft[y], left);
+		rowRight[y] = Math.max(rowRight[y], right);
+		extentsWide |= killed;
+	}
+
+	private void clearBounds() {
+		Arrays.fill(rowLeft, EMPTY);
+		Arrays.fill(rowRight, -1);
+		extentsWide = false;
+	}
+
+	/*
+	 * make the cell at the given column (x) and row (y) alive or dead
+	 */
+	public void set(int x, int y, boolean alive) {
+		int index = y * wordsPerRow + (x >>> 6);
+		long word = alive ? cells[index] | (1L << x) : cells[index] & ~(1L << x);
+		if (word != cells[index]) {
+			hash ^= Universe.hashWord(index, cells[index]) ^ Universe.hashWord(index, word);
+			cells[index] = word;
+			changed[y * changeWordsPerRow + (x >>> 12)] |= 1L << (x >>> 6);
+			population += alive ? 1 : -1;
+			edited(y, alive ? x : EMPTY, alive ? x : -1, !alive);
+		}
+	}
+
+	/*
+	 * make a run of cells alive a word at a time, the part of the run outside the
+	 * grid is dropped
+	 */
+	public void setRun(int x, int y, int length) {
+		int from = Math.max(x, 0), to = Math.min(x + length, width);
+		if (y < 0 || y >= height || from >= to) {
+			return;
+		}
+		for (int k = from >>> 6; k <= (to - 1) >>> 6; k++) {
+			int start = Math.max(from, k << 6) & 63, end = Math.min(to, (k + 1) << 6) - (k << 6);
+			long mask = (end == 64 ? -1L : (1L << end) - 1) & (-1L << start);
+			int index = y * wordsPerRow + k;
+			if ((cells[index] | mask) != cells[index]) {
+				hash ^= Universe.hashWord(index, cells[index]) ^ Universe.hashWord(index, cells[index] | mask);
+				population += Long.bitCount(mask & ~cells[index]);
+				cells[index] |= mask;
+				changed[y * changeWordsPerRow + (k >>> 6)] |= 1L << k;
+			}
+		}
+		edited(y, from, to - 1, false);
+	}
+
+	/*
+	 * make a run of cells dead a word at a time, the part of the run outside the
+	 * grid is dropped
+	 */
+	public void clearRun(int x, int y, int length) {
+		int from = Math.max(x, 0), to = Math.min(x + length, width);
+		if (y < 0 || y >= height || from >= to) {
+			return;
+		}
+		for (int k = from >>> 6; k <= (to - 1) >>> 6; k++) {
+			int start = Math.max(from, k << 6) & 63, end = Math.min(to, (k + 1) << 6) - (k << 6);
+			store(y, k, (end == 64 ? -1L : (1L << end) - 1) & (-1L << start), 0);
+		}
+	}
+
+	/*
+	 * true if a cell in the row changed in the last generation or was edited since
+	 */
+	public boolean isRowChanged(int y) {
+		if (y < 0 || y >= height) {
+			return false;
+		}
+		if (allChanged) {
+			return true;
+		}
+		for (int i = y * changeWordsPerRow; i < (y + 1) * changeWordsPerRow; i++) {
+			if (changed[i] != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean hasRowChanges() {
+		return true;
+	}
+
+	/*
+	 * the changed rows of a block read from the bit each row keeps per word
+	 */
+	public long getChangedRows(int x, int y, int length) {
+		long from = Math.max(x, 0), to = Math.min((long) x + length - 1, width - 1);
+		if (from > to) {
+			return 0;
+		}
+		int first = (int) from >>> 6, last = (int) to >>> 6;
+		int start = Math.max(0, -y), end = (int) Math.min(64, (long) height - y);
+		if (start >= end) {
+			return 0;
+		}
+		long rows = (end == 64 ? -1L : (1L << end) - 1) & (-1L << start);
+		if (allChanged) {
+			return rows;
+		}
+		// the changed bits of the block's words, which are usually in one long of a row
+		int firstLong = first >>> 6, lastLong = last >>> 6;
+		long firstMask = -1L << first, lastMask = -1L >>> (63 - (last & 63));
+		long changedRows = 0;
+		for (int i = start, row = (y + start) * changeWordsPerRow; i < end; i++, row += changeWordsPerRow) {
+			long any = changed[row + firstLong] & firstMask & (firstLong == lastLong ? lastMask : -1L);
+			for (int k = firstLong + 1; k <= lastLong; k++) {
+				any |= changed[row + k] & (k == lastLong ? lastMask : -1L);
+			}
+			changedRows |= any != 0 ? 1L << i : 0;
+		}
+		return changedRows;
+	}
+
+	/*
+	 * true if any of the 64 cells sharing a word with the given cell changed in
+	 * the last generation or was edited since
+	 */
+	public boolean isWordChanged(int x, int y) {
+		return allChanged || (changed[y * changeWordsPerRow + (x >>> 12)] & (1L << (x >>> 6))) != 0;
+	}
+
+	/*
+	 * kill every cell and go back to generation zero
+	 */
+	public void clear() {
+		Arrays.fill(cells, 0);
+		Arrays.fill(nextCells, 0);
+		// empty space only stays empty without B0
+		Arrays.fill(changed, -1L);
+		allChanged = true;
+		changedCells = 0;
+		births = 0;
+		population = 0;
+		clearBounds();
+		hash = 0;
+		generation = 0;
+	}
+
+	/*
+	 * live cells in the universe, kept up to date as they change
+	 */
+	public long getPopulation() {
+		return population;
+	}
+
+	public void advance(long generations) {
+		for (long i = 0; i < generations; i++) {
+			step();
+		}
+	}
+
+	/*
+	 * advance the universe by one generation
+	 */
+	public void step() {
+		int bands = Math.min(threads, height / MIN_BAND_ROWS);
+		long[] totals = bands > 1 ? stepBands(bands) : stepRows(0, height);
+		changedCells = totals[0];
+		hash ^= totals[1];
+		births = totals[2];
+		population += births - (changedCells - births);
+		long[] swap = cells;
+		cells = nextCells;
+		nextCells = swap;
+		swap = changed;
+		changed = nextChanged;
+		nextChanged = swap;
+		allChanged = false;
+		generation++;
+	}
+
+	/*
+	 * step every band on the worker pool and wait for all of them, which is the
+	 * barrier between this generation and the next. Returns the totals of all the
+	 * bands, like stepRows().
+	 */
+	private long[] stepBands(int bands) {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "life-engine-worker");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		List<Callable<long[]>> tasks = new ArrayList<>(bands);
+		for (int b = 0; b < bands; b++) {
+			int from = (int) ((long) height * b / bands);
+			int to = (int) ((long) height * (b + 1) / bands);
+			tasks.add(() -> stepRows(from, to));
+		}
+		try {
+			long[] totals = new long[3];
+			for (Future<long[]> band : pool.invokeAll(tasks)) {
+				long[] bandTotals = band.get();
+				totals[0] += bandTotals[0];
+				// XOR doesn't care in which order the bands' changes are combined
+				totals[1] ^= bandTotals[1];
+				totals[2] += bandTotals[2];
+			}
+			return totals;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while stepping generation " + generation, e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Band failed while stepping generation " + generation, e.getCause());
+		}
+	}
+
+	/*
+	 * compute the next generation of rows [from, to) into the back buffer, the
+	 * top and bottom rows wrap around to each other. Only words next to a word that
+	 * changed last generation are recomputed, every other word is the same in both
+	 * generations so the back buffer already holds its next value. Rows that are
+	 * mostly active go to the vector kernel whole. Returns the number of cells in
+	 * the rows that changed, the change to the hash and the cells born.
+	 */
+	private long[] stepRows(int from, int to) {
+		long changes = 0, hashChange = 0, born = 0;
+		Rule rule = this.rule;
+		VectorKernel vectors = this.vectors;
+		int lastChunk = changeWordsPerRow - 1;
+		int lastBit = (wordsPerRow - 1) & 63;
+		long lastChunkMask = lastBit == 63 ? -1L : (1L << (lastBit + 1)) - 1;
+		long[] active = new long[changeWordsPerRow];
+		for (int y = from; y < to; y++) {
+			int upRow = y == 0 ? height - 1 : y - 1;
+			int downRow = y == height - 1 ? 0 : y + 1;
+			int up = upRow * wordsPerRow, mid = y * wordsPerRow, down = downRow * wordsPerRow;
+			int changedRow = y * changeWordsPerRow;
+			clearChanged(changedRow);
+			if (!isQuiet(upRow, y, downRow)) {
+				// otherwise nothing changed in or next to the row, which is most rows of a
+				// sparse universe, only the change bits from two generations ago needed clearing
+				int activeWords = 0;
+				for (int chunk = 0; chunk < changeWordsPerRow; chunk++) {
+					// words whose 3x3 block of neighbouring words had a change, the first and
+					// last words of a row are neighbours
+					long previous = chunk == 0 ? changedAround(upRow, y, downRow, lastChunk) >>> lastBit << 63
+							: changedAround(upRow, y, downRow, chunk - 1);
+					long next = chunk == lastChunk ? changedAround(upRow, y, downRow, 0) & 1L
+							: changedAround(upRow, y, downRow, chunk + 1);
+					long around = changedAround(upRow, y, downRow, chunk);
+					active[chunk] = around | (around << 1) | (around >>> 1) | (previous >>> 63) | (next << 63);
+					if (chunk == lastChunk) {
+						active[chunk] |= (next & 1L) << lastBit;
+						active[chunk] &= lastChunkMask;
+					}
+					activeWords += Long.bitCount(active[chunk]);
+				}
+				// first and last words of the row that changed
+				int first = -1, end = -1;
+				if (vectors != null && wordsPerRow > 2 && activeWords * 2 >= wordsPerRow) {
+					// most of the row has to be recomputed, so all of it is, a vector at a time
+					int last = wordsPerRow - 1;
+					vectors.stepRow(cells, nextCells, up, mid, down, 1, last);
+					nextCells[mid] = nextWord(rule, up, mid, down, 0);
+					nextCells[mid + last] = nextWord(rule, up, mid, down, last);
+					for (int k = 0; k <= last; k++) {
+						long word = nextCells[mid + k];
+						if (word != cells[mid + k]) {
+							nextChanged[changedRow + (k >>> 6)] |= 1L << k;
+							changes += Long.bitCount(word ^ cells[mid + k]);
+							born += Long.bitCount(word & ~cells[mid + k]);
+							hashChange ^= Universe.hashWord(mid + k, cells[mid + k]) ^ Universe.hashWord(mid + k, word);
+							first = first < 0 ? k : first;
+							end = k;
+						}
+					}
+				}
+				else {
+					for (int chunk = 0; chunk < changeWordsPerRow; chunk++) {
+						for (long words = active[chunk]; words != 0; words &= words - 1) {
+							int k = (chunk << 6) + Long.numberOfTrailingZeros(words);
+							long word;
+							if (k > 0 && k < wordsPerRow - 1) {
+								// words in the middle of a row take their edge bits from the words either side
+								long u = cells[up + k], m = cells[mid + k], d = cells[down + k];
+								word = rule.evolve((u << 1) | (cells[up + k - 1] >>> 63), u, (u >>> 1) | (cells[up + k + 1] << 63),
+										(m << 1) | (cells[mid + k - 1] >>> 63), m, (m >>> 1) | (cells[mid + k + 1] << 63),
+										(d << 1) | (cells[down + k - 1] >>> 63), d, (d >>> 1) | (cells[down + k + 1] << 63));
+							}
+							else {
+								word = nextWord(rule, up, mid, down, k);
+							}
+							if (word != cells[mid + k]) {
+								nextChanged[changedRow + (k >>> 6)] |= 1L << k;
+								changes += Long.bitCount(word ^ cells[mid + k]);
+								born += Long.bitCount(word & ~cells[mid + k]);
+								hashChange ^= Universe.hashWord(mid + k, cells[mid + k]) ^ Universe.hashWord(mid + k, word);
+								first = first < 0 ? k : first;
+								end = k;
+							}
+							nextCells[mid + k] = word;
+						}
+					}
+				}
+				// the row's extent can only move if a word at or past either end of it
+				// changed, and then its live cells are in those words or between them
+				int leftWord = rowLeft[y] >>> 6, rightWord = rowRight[y] >> 6;
+				if (first >= 0 && (first <= leftWord || end >= rightWord)) {
+					measure(nextCells, y, Math.min(first, leftWord), Math.max(end, rightWord));
+				}
+			}
+		}
+		return new long[] { changes, hashChange, born };
+	}
+
+	/*
+	 * set the extent of row y of words, whose live cells are all in words
+	 * [from, to] of the row
+	 */
+	private void measure(long[] words, int y, int from, int to) {
+		int row = y * wordsPerRow;
+		int k = from;
+		while (k <= to && words[row + k] == 0) {
+			k++;
+		}
+		if (k > to) {
+			rowLeft[y] = EMPTY;
+			rowRight[y] = -1;
+			return;
+		}
+		rowLeft[y] = (k << 6) + Long.numberOfTrailingZeros(words[row + k]);
+		k = to;
+		while (words[row + k] == 0) {
+			k--;
+		}
+		rowRight[y] = (k << 6) + 63 - Long.numberOfLeadingZeros(words[row + k]);
+	}
+
+	/*
+	 * true if no word changed in the row or the rows above and below
+	 */
+	private boolean isQuiet(int upRow, int row, int downRow) {
+		if (changeWordsPerRow == 1) {
+			// grids up to 4096 cells wide, without the cost of setting up a loop
+			return (changed[upRow] | changed[row] | changed[downRow]) == 0;
+		}
+		long any = 0;
+		int u = upRow * changeWordsPerRow, m = row * changeWordsPerRow, d = downRow * changeWordsPerRow;
+		for (int chunk = 0; chunk < changeWordsPerRow; chunk++) {
+			any |= changed[u + chunk] | changed[m + chunk] | changed[d + chunk];
+		}
+		return any == 0;
+	}
+
+	/*
+	 * clear the back buffer's change bits of the row starting at changedRow
+	 */
+	private void clearChanged(int changedRow) {
+		if (changeWordsPerRow == 1) {
+			nextChanged[changedRow] = 0;
+		}
+		else {
+			Arrays.fill(nextChanged, changedRow, changedRow + changeWordsPerRow, 0);
+		}
+	}
+
+	/*
+	 * change bits of the given chunk of words in the row and the rows above and below
+	 */
+	private long changedAround(int upRow, int row, int downRow, int chunk) {
+		return changed[upRow * changeWordsPerRow + chunk] | changed[row * changeWordsPerRow + chunk]
+				| changed[downRow * changeWordsPerRow + chunk];
+	}
+
+	/*
+	 * next generation of word k of the row starting at mid
+	 */
+	private long nextWord(Rule rule, int up, int mid, int down, int k) {
+		int last = wordsPerRow - 1;
+		long u = cells[up + k], m = cells[mid + k], d = cells[down + k];
+		// bits shifted in from the neighbouring words, the left most and right
+		// most columns of the row are adjacent to each other
+		long uIn, mIn, dIn, uOut, mOut, dOut;
+		if (k == 0) {
+			int bit = (width - 1) & 63;
+			uIn = cells[up + last] >>> bit;
+			mIn = cells[mid + last] >>> bit;
+			dIn = cells[down + last] >>> bit;
+		}
+		else {
+			uIn = cells[up + k - 1] >>> 63;
+			mIn = cells[mid + k - 1] >>> 63;
+			dIn = cells[down + k - 1] >>> 63;
+		}
+		if (k == last) {
+			int bit = (width - 1) & 63;
+			uOut = (cells[up] & 1L) << bit;
+			mOut = (cells[mid] & 1L) << bit;
+			dOut = (cells[down] & 1L) << bit;
+		}
+		else {
+			uOut = cells[up + k + 1] << 63;
+			mOut = cells[mid + k + 1] << 63;
+			dOut = cells[down + k + 1] << 63;
+		}
+		long next = rule.evolve((u << 1) | (uIn & 1L), u, (u >>> 1) | uOut,
+				(m << 1) | (mIn & 1L), m, (m >>> 1) | mOut,
+				(d << 1) | (dIn & 1L), d, (d >>> 1) | dOut);
+		return k == last ? next & lastWordMask : next;
+	}
+}
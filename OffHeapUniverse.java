@@ -0,0 +1,556 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * torus universe that keeps its cells outside the Java heap, for dense universes
+ * too big to hold as objects. The cells use the same packed layout as LifeEngine
+ * (one bit per cell, every row starting on a fresh long) and both the current and
+ * the next generation live in one buffer, so swapping generations only flips
+ * which region of it is current.
+ *
+ * Like LifeEngine it keeps a bit per word that changed in the last generation,
+ * on the heap, and only recomputes the words next to a change. Every other word
+ * is the same in the region written already, as long as that one holds the
+ * generation before, otherwise the whole grid is stepped. Rows where most words
+ * are next to a change are stepped whole, reading every word once.
+ *
+ * The buffer is either a direct ByteBuffer or a memory-mapped file. A mapped
+ * universe has a third region and can be checkpointed: checkpoint() forces the
+ * current generation to disk and only then points the file header at it, with
+ * the generation and the rule. Steps after that take turns between the two
+ * other regions, and edits move off it first, so the checkpointed generation is
+ * never written over before the next checkpoint. Opening the same file again
+ * carries on from there.
+ */
+public class OffHeapUniverse implements Universe {
+	private static final long MAGIC = 0x4C4946454D415032L; // "LIFEMAP2"
+	private static final int HEADER_BYTES = 64, MAX_RULE_BYTES = 32;
+	// stands for a region whose generation isn't known
+	private static final long UNKNOWN = Long.MIN_VALUE;
+	private final int width, height, wordsPerRow;
+	private final long lastWordMask;
+	// bytes taken by one generation
+	private final long generationBytes;
+	private final ByteBuffer buffer;
+	private final FileChannel channel;
+	// which region of the buffer holds the current generation, and which one the
+	// last checkpoint, -1 when there is none
+	private int current, saved;
+	// generation held by each region, UNKNOWN if none is
+	private final long[] regionGenerations;
+	private long savedGeneration;
+	// one bit per word of cells that changed in the last generation (or was edited
+	// since), each row has its own run of longs as in LifeEngine
+	private final int changeWordsPerRow;
+	private long[] changed, nextChanged;
+	// set when every cell has to be treated as changed, e.g. after clear()
+	private boolean allChanged;
+	// cells born or died in the last generation, and how many of them were born
+	private long changedCells, births;
+	// live cells, kept up to date as they change
+	private long population;
+	// Universe.hashWord() of every word XORed together, numbered like LifeEngine's
+	private long hash;
+	private Rule rule = Rule.CONWAY;
+	private long generation;
+	// true if the cells came from a checkpoint in the file
+	private boolean resumed;
+
+	/*
+	 * universe in a direct buffer, gone when the object is collected
+	 */
+	public OffHeapUniverse(int width, int height) {
+		this(width, height, null);
+	}
+
+	/*
+	 * universe in a memory-mapped file, which is created if it doesn't exist and
+	 * resumed from its last checkpoint if it does
+	 */
+	public OffHeapUniverse(int width, int height, Path file) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Grid must be at least 1x1, got " + width + "x" + height);
+		}
+		this.width = width;
+		this.height = height;
+		wordsPerRow = (width + 63) >>> 6;
+		lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+		generationBytes = (long) wordsPerRow * height * 8;
+		regionGenerations = new long[file == null ? 2 : 3];
+		changeWordsPerRow = (wordsPerRow + 63) >>> 6;
+		changed = new long[changeWordsPerRow * height];
+		nextChanged = new long[changeWordsPerRow * height];
+		// the other regions of a new or resumed buffer don't hold the last generation
+		Arrays.fill(changed, -1L);
+		allChanged = true;
+		long size = HEADER_BYTES + regionGenerations.length * generationBytes;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A " + width + "x" + height + " grid needs " + size
+					+ " bytes, more than one buffer can hold");
+		}
+		if (file == null) {
+			channel = null;
+			buffer = ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+			clear();
+			return;
+		}
+		try {
+			boolean resume = Files.exists(file) && Files.size(file) == size;
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.nativeOrder());
+			if (resume && buffer.getLong(0) == MAGIC && buffer.getInt(8) == width && buffer.getInt(12) == height) {
+				generation = buffer.getLong(16);
+				current = buffer.getInt(24);
+				byte[] ruleBytes = new byte[Math.min(buffer.getInt(28), MAX_RULE_BYTES)];
+				buffer.get(32, ruleBytes);
+				rule = Rule.parse(new String(ruleBytes, StandardCharsets.US_ASCII));
+				saved = current;
+				savedGeneration = generation;
+				Arrays.fill(regionGenerations, UNKNOWN);
+				regionGenerations[current] = generation;
+				resumed = true;
+				for (int i = 0; i < wordsPerRow * height; i++) {
+					hash ^= Universe.hashWord(i, word(i));
+					population += Long.bitCount(word(i));
+				}
+			}
+			else {
+				clear();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not map " + file, e);
+		}
+	}
+
+	/*
+	 * true if the file holds a checkpoint of a width x height universe that the
+	 * file constructor would carry on from
+	 */
+	public static boolean isCheckpoint(Path file, int width, int height) throws IOException {
+		long size = HEADER_BYTES + 3L * ((width + 63) >>> 6) * height * 8;
+		if (!Files.exists(file) || Files.size(file) != size) {
+			return false;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+			}
+			return header.getLong(0) == MAGIC && header.getInt(8) == width && header.getInt(12) == height;
+		}
+	}
+
+	// getters
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	public long getChangedCells() {
+		return changedCells;
+	}
+
+	public long getBirths() {
+		return births;
+	}
+
+	public Rule getRule() {
+		return rule;
+	}
+
+	/*
+	 * step with another rule from the next generation on, the next checkpoint
+	 * records it
+	 */
+	public void setRule(Rule rule) {
+		this.rule = rule;
+		Arrays.fill(changed, -1L);
+		allChanged = true;
+	}
+
+	/*
+	 * true if a cell in the row changed in the last generation or was edited since
+	 */
+	public boolean isRowChanged(int y) {
+		if (y < 0 || y >= height) {
+			return false;
+		}
+		if (allChanged) {
+			return true;
+		}
+		for (int i = y * changeWordsPerRow; i < (y + 1) * changeWordsPerRow; i++) {
+			if (changed[i] != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean hasRowChanges() {
+		return true;
+	}
+
+	/*
+	 * the changed rows of a block read from the bit each row keeps per word
+	 */
+	public long getChangedRows(int x, int y, int length) {
+		long from = Math.max(x, 0), to = Math.min((long) x + length - 1, width - 1);
+		if (from > to) {
+			return 0;
+		}
+		int first = (int) from >>> 6, last = (int) to >>> 6;
+		int start = Math.max(0, -y), end = (int) Math.min(64, (long) height - y);
+		if (start >= end) {
+			return 0;
+		}
+		long rows = (end == 64 ? -1L : (1L << end) - 1) & (-1L << start);
+		if (allChanged) {
+			return rows;
+		}
+		// the changed bits of the block's words, which are usually in one long of a row
+		int firstLong = first >>> 6, lastLong = last >>> 6;
+		long firstMask = -1L << first, lastMask = -1L >>> (63 - (last & 63));
+		long changedRows = 0;
+		for (int i = start, row = (y + start) * changeWordsPerRow; i < end; i++, row += changeWordsPerRow) {
+			long any = changed[row + firstLong] & firstMask & (firstLong == lastLong ? lastMask : -1L);
+			for (int k = firstLong + 1; k <= lastLong; k++) {
+				any |= changed[row + k] & (k == lastLong ? lastMask : -1L);
+			}
+			changedRows |= any != 0 ? 1L << i : 0;
+		}
+		return changedRows;
+	}
+
+	public boolean hasHash() {
+		return true;
+	}
+
+	public long getHash() {
+		return hash;
+	}
+
+	public boolean isMapped() {
+		return channel != null;
+	}
+
+	/*
+	 * true if the universe carried on from a checkpoint in its file rather than
+	 * starting out empty
+	 */
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	public boolean contains(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	public boolean get(int x, int y) {
+		return (buffer.getLong(offset(current, y * wordsPerRow + (x >>> 6))) & (1L << x)) != 0;
+	}
+
+	/*
+	 * 64 cells starting at column x, a stored word when x is on a word boundary
+	 */
+	public long getWord(int x, int y) {
+		if ((x & 63) == 0 && contains(x, y)) {
+			return word(y * wordsPerRow + (x >>> 6));
+		}
+		return Universe.super.getWord(x, y);
+	}
+
+	public void set(int x, int y, boolean alive) {
+		leaveSaved();
+		int index = y * wordsPerRow + (x >>> 6), offset = offset(current, index);
+		long word = buffer.getLong(offset), next = alive ? word | (1L << x) : word & ~(1L << x);
+		if (next != word) {
+			hash ^= Universe.hashWord(index, word) ^ Universe.hashWord(index, next);
+			population += Long.bitCount(next) - Long.bitCount(word);
+			buffer.putLong(offset, next);
+			changed[y * changeWordsPerRow + (x >>> 12)] |= 1L << (x >>> 6);
+		}
+	}
+
+	/*
+	 * kill every cell, which also wipes the checkpoint of a mapped universe
+	 */
+	public void clear() {
+		for (int offset = 0; offset < buffer.capacity(); offset += 8) {
+			buffer.putLong(offset, 0);
+		}
+		generation = 0;
+		current = 0;
+		saved = -1;
+		Arrays.fill(regionGenerations, UNKNOWN);
+		regionGenerations[current] = 0;
+		// empty space only stays empty without B0
+		Arrays.fill(changed, -1L);
+		allChanged = true;
+		changedCells = 0;
+		births = 0;
+		population = 0;
+		hash = 0;
+	}
+
+	/*
+	 * live cells, kept up to date as they change
+	 */
+	public long getPopulation() {
+		return population;
+	}
+
+	public void advance(long generations) {
+		for (long i = 0; i < generations; i++) {
+			step();
+		}
+	}
+
+	/*
+	 * advance the universe by one generation, the next generation is written into
+	 * the next region of the buffer which then becomes current. Only words whose
+	 * 3x3 block of neighbouring words had a change are recomputed, as in LifeEngine.
+	 */
+	public void step() {
+		int next = nextRegion();
+		if (regionGenerations[next] != generation - 1) {
+			// the region doesn't hold the generation before, so no word of it can be kept
+			Arrays.fill(changed, -1L);
+		}
+		// cells that changed, the change to the hash and the cells born
+		long[] totals = new long[3];
+		Rule rule = this.rule;
+		int lastChunk = changeWordsPerRow - 1;
+		int lastBit = (wordsPerRow - 1) & 63;
+		long lastChunkMask = lastBit == 63 ? -1L : (1L << (lastBit + 1)) - 1;
+		long[] active = new long[changeWordsPerRow];
+		for (int y = 0; y < height; y++) {
+			int upRow = y == 0 ? height - 1 : y - 1;
+			int downRow = y == height - 1 ? 0 : y + 1;
+			int up = upRow * wordsPerRow, mid = y * wordsPerRow, down = downRow * wordsPerRow;
+			int changedRow = y * changeWordsPerRow;
+			Arrays.fill(nextChanged, changedRow, changedRow + changeWordsPerRow, 0);
+			int activeWords = 0;
+			for (int chunk = 0; chunk < changeWordsPerRow; chunk++) {
+				// the first and last words of a row are neighbours
+				long previous = chunk == 0 ? changedAround(upRow, y, downRow, lastChunk) >>> lastBit << 63
+						: changedAround(upRow, y, downRow, chunk - 1);
+				long following = chunk == lastChunk ? changedAround(upRow, y, downRow, 0) & 1L
+						: changedAround(upRow, y, downRow, chunk + 1);
+				long around = changedAround(upRow, y, downRow, chunk);
+				active[chunk] = around | (around << 1) | (around >>> 1) | (previous >>> 63) | (following << 63);
+				if (chunk == lastChunk) {
+					active[chunk] |= (following & 1L) << lastBit;
+					active[chunk] &= lastChunkMask;
+				}
+				activeWords += Long.bitCount(active[chunk]);
+			}
+			if (activeWords == 0) {
+				// nothing changed in or next to the row
+				continue;
+			}
+			if (activeWords * 2 >= wordsPerRow) {
+				stepRow(rule, next, up, mid, down, changedRow, totals);
+				continue;
+			}
+			for (int chunk = 0; chunk < changeWordsPerRow; chunk++) {
+				for (long words = active[chunk]; words != 0; words &= words - 1) {
+					int k = (chunk << 6) + Long.numberOfTrailingZeros(words);
+					store(next, mid, k, nextWord(rule, up, mid, down, k), changedRow, totals);
+				}
+			}
+		}
+		long changes = totals[0], born = totals[2];
+		current = next;
+		regionGenerations[next] = generation + 1;
+		long[] swap = changed;
+		changed = nextChanged;
+		nextChanged = swap;
+		allChanged = false;
+		changedCells = changes;
+		births = born;
+		population += born - (changes - born);
+		hash ^= totals[1];
+		generation++;
+	}
+
+	/*
+	 * next generation of a whole row, keeping a sliding window of three words per
+	 * row so every word is read once
+	 */
+	private void stepRow(Rule rule, int next, int up, int mid, int down, int changedRow, long[] totals) {
+		int last = wordsPerRow - 1, edge = (width - 1) & 63;
+		long uPrev = word(up + last) >>> edge, mPrev = word(mid + last) >>> edge, dPrev = word(down + last) >>> edge;
+		long u = word(up), m = word(mid), d = word(down);
+		for (int k = 0; k < wordsPerRow; k++) {
+			long uNext, mNext, dNext, uIn, mIn, dIn;
+			if (k == last) {
+				uNext = word(up);
+				mNext = word(mid);
+				dNext = word(down);
+				uIn = (uNext & 1L) << edge;
+				mIn = (mNext & 1L) << edge;
+				dIn = (dNext & 1L) << edge;
+			}
+			else {
+				uNext = word(up + k + 1);
+				mNext = word(mid + k + 1);
+				dNext = word(down + k + 1);
+				uIn = uNext << 63;
+				mIn = mNext << 63;
+				dIn = dNext << 63;
+			}
+			long result = rule.evolve((u << 1) | (uPrev & 1L), u, (u >>> 1) | uIn,
+					(m << 1) | (mPrev & 1L), m, (m >>> 1) | mIn,
+					(d << 1) | (dPrev & 1L), d, (d >>> 1) | dIn);
+			store(next, mid, k, k == last ? result & lastWordMask : result, changedRow, totals);
+			uPrev = u >>> 63;
+			mPrev = m >>> 63;
+			dPrev = d >>> 63;
+			u = uNext;
+			m = mNext;
+			d = dNext;
+		}
+	}
+
+	/*
+	 * write word k of the row starting at mid into the next region, counting it
+	 * in the totals and marking it if it changed
+	 */
+	private void store(int next, int mid, int k, long result, int changedRow, long[] totals) {
+		long m = word(mid + k);
+		if (result != m) {
+			nextChanged[changedRow + (k >>> 6)] |= 1L << k;
+			totals[0] += Long.bitCount(result ^ m);
+			totals[1] ^= Universe.hashWord(mid + k, m) ^ Universe.hashWord(mid + k, result);
+			totals[2] += Long.bitCount(result & ~m);
+		}
+		buffer.putLong(offset(next, mid + k), result);
+	}
+
+	/*
+	 * change bits of the given chunk of words in the row and the rows above and below
+	 */
+	private long changedAround(int upRow, int row, int downRow, int chunk) {
+		return changed[upRow * changeWordsPerRow + chunk] | changed[row * changeWordsPerRow + chunk]
+				| changed[downRow * changeWordsPerRow + chunk];
+	}
+
+	/*
+	 * next generation of word k of the row starting at mid
+	 */
+	private long nextWord(Rule rule, int up, int mid, int down, int k) {
+		int last = wordsPerRow - 1, edge = (width - 1) & 63;
+		long u = word(up + k), m = word(mid + k), d = word(down + k);
+		// bits shifted in from the neighbouring words, the left most and right
+		// most columns of the row are adjacent to each other
+		long uIn, mIn, dIn, uOut, mOut, dOut;
+		if (k == 0) {
+			uIn = word(up + last) >>> edge;
+			mIn = word(mid + last) >>> edge;
+			dIn = word(down + last) >>> edge;
+		}
+		else {
+			uIn = word(up + k - 1) >>> 63;
+			mIn = word(mid + k - 1) >>> 63;
+			dIn = word(down + k - 1) >>> 63;
+		}
+		if (k == last) {
+			uOut = (word(up) & 1L) << edge;
+			mOut = (word(mid) & 1L) << edge;
+			dOut = (word(down) & 1L) << edge;
+		}
+		else {
+			uOut = word(up + k + 1) << 63;
+			mOut = word(mid + k + 1) << 63;
+			dOut = word(down + k + 1) << 63;
+		}
+		long result = rule.evolve((u << 1) | (uIn & 1L), u, (u >>> 1) | uOut,
+				(m << 1) | (mIn & 1L), m, (m >>> 1) | mOut,
+				(d << 1) | (dIn & 1L), d, (d >>> 1) | dOut);
+		return k == last ? result & lastWordMask : result;
+	}
+
+	/*
+	 * make the current generation the one the file carries on from. It is forced
+	 * to disk before the header points at it, so whenever the process dies the
+	 * header points at a whole generation. Does nothing without a file.
+	 */
+	public void checkpoint() {
+		if (!(buffer instanceof MappedByteBuffer)) {
+			return;
+		}
+		MappedByteBuffer mapped = (MappedByteBuffer) buffer;
+		mapped.force();
+		saved = current;
+		savedGeneration = generation;
+		writeHeader();
+		mapped.force();
+	}
+
+	/*
+	 * checkpoint and release the file, the universe can't be used afterwards
+	 */
+	public void close() throws IOException {
+		if (channel != null) {
+			checkpoint();
+			channel.close();
+		}
+	}
+
+	/*
+	 * region the next generation is written into, the one after the current that
+	 * isn't the checkpoint
+	 */
+	private int nextRegion() {
+		int next = (current + 1) % regionGenerations.length;
+		return next != saved ? next : (next + 1) % regionGenerations.length;
+	}
+
+	/*
+	 * copy the current generation out of the checkpointed region before it is edited
+	 */
+	private void leaveSaved() {
+		if (current != saved) {
+			return;
+		}
+		int next = nextRegion();
+		ByteBuffer from = buffer.duplicate();
+		from.position(offset(current, 0)).limit(offset(current, 0) + (int) generationBytes);
+		buffer.duplicate().position(offset(next, 0)).put(from);
+		regionGenerations[next] = generation;
+		current = next;
+	}
+
+	private long word(int index) {
+		return buffer.getLong(offset(current, index));
+	}
+
+	private int offset(int region, int index) {
+		return (int) (HEADER_BYTES + region * generationBytes + (long) index * 8);
+	}
+
+	private void writeHeader() {
+		byte[] ruleBytes = rule.toString().getBytes(StandardCharsets.US_ASCII);
+		buffer.putLong(0, MAGIC);
+		buffer.putInt(8, width);
+		buffer.putInt(12, height);
+		buffer.putLong(16, savedGeneration);
+		buffer.putInt(24, saved);
+		buffer.putInt(28, ruleBytes.length);
+		buffer.put(32, ruleBytes);
+	}
+}
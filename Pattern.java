@@ -0,0 +1,82 @@
+import java.util.Arrays;
+
+/*
+ * parsed pattern kept as runs of live cells, so it can be cached and stamped
+ * into any universe again without parsing the file a second time. Runs are stored
+ * as (x, y, length) triples in one int array with the top left cell at (0, 0).
+ */
+public class Pattern {
+	private final String name, rule;
+	private final int width, height;
+	private final int[] runs;
+	private final int runCount;
+	private final long population;
+
+	Pattern(String name, String rule, int[] runs, int runCount) {
+		this.name = name;
+		this.rule = rule;
+		// move the pattern so its bounding box starts at (0, 0)
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		long population = 0;
+		for (int i = 0; i < runCount * 3; i += 3) {
+			minX = Math.min(minX, runs[i]);
+			minY = Math.min(minY, runs[i + 1]);
+			maxX = Math.max(maxX, runs[i] + runs[i + 2] - 1);
+			maxY = Math.max(maxY, runs[i + 1]);
+			population += runs[i + 2];
+		}
+		if (runCount == 0) {
+			minX = minY = 0;
+			maxX = maxY = -1;
+		}
+		this.runs = Arrays.copyOf(runs, runCount * 3);
+		for (int i = 0; i < this.runs.length; i += 3) {
+			this.runs[i] -= minX;
+			this.runs[i + 1] -= minY;
+		}
+		this.runCount = runCount;
+		this.population = population;
+		width = maxX - minX + 1;
+		height = maxY - minY + 1;
+	}
+
+	// getters
+	public String getName() {
+		return name;
+	}
+
+	/*
+	 * rulestring from the file, e.g. B3/S23, or null if the file didn't give one
+	 */
+	public String getRule() {
+		return rule;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public long getPopulation() {
+		return population;
+	}
+
+	/*
+	 * make the pattern's cells alive with its top left corner at (x, y)
+	 */
+	public void apply(Universe universe, int x, int y) {
+		for (int i = 0; i < runCount * 3; i += 3) {
+			universe.setRun(x + runs[i], y + runs[i + 1], runs[i + 2]);
+		}
+	}
+
+	/*
+	 * make the pattern's cells alive in the middle of a grid of the given size
+	 */
+	public void applyCentred(Universe universe, int gridWidth, int gridHeight) {
+		apply(universe, gridWidth / 2 - width / 2, gridHeight / 2 - height / 2);
+	}
+}
@@ -0,0 +1,89 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * patterns shipped in resources/patterns (listed in its index.txt) plus any
+ * pattern files the user opens. Every pattern is parsed once and then cached,
+ * so selecting it again only stamps the cached runs into the universe.
+ */
+public class PatternLibrary {
+	private static final String DIRECTORY = "resources/patterns/";
+	// display name -> resource file, in the order of the index
+	private final Map<String, String> resources;
+	private final Map<String, Pattern> cache;
+
+	public PatternLibrary() throws IOException {
+		resources = new LinkedHashMap<>();
+		cache = new HashMap<>();
+		InputStream index = open(DIRECTORY + "index.txt");
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(index, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				int split = line.indexOf('=');
+				if (!line.isEmpty() && !line.startsWith("#") && split > 0) {
+					resources.put(line.substring(0, split).trim(), line.substring(split + 1).trim());
+				}
+			}
+		}
+	}
+
+	/*
+	 * names of the built-in patterns
+	 */
+	public List<String> getNames() {
+		return new ArrayList<>(resources.keySet());
+	}
+
+	public boolean contains(String name) {
+		return resources.containsKey(name) || cache.containsKey(name);
+	}
+
+	/*
+	 * built-in or previously loaded pattern with the given name
+	 */
+	public Pattern get(String name) throws IOException {
+		Pattern pattern = cache.get(name);
+		if (pattern == null) {
+			String file = resources.get(name);
+			if (file == null) {
+				throw new IOException("No pattern called " + name);
+			}
+			try (InputStream stream = open(DIRECTORY + file)) {
+				pattern = PatternReader.read(stream, name);
+			}
+			cache.put(name, pattern);
+		}
+		return pattern;
+	}
+
+	/*
+	 * parse a pattern file from disk and remember it under its file name
+	 */
+	public Pattern load(File file) throws IOException {
+		Pattern pattern;
+		try (InputStream stream = new FileInputStream(file)) {
+			pattern = PatternReader.read(stream, file.getName());
+		}
+		cache.put(file.getName(), pattern);
+		return pattern;
+	}
+
+	private InputStream open(String resource) throws IOException {
+		InputStream stream = getClass().getResourceAsStream(resource);
+		if (stream == null) {
+			throw new IOException("Missing resource " + resource);
+		}
+		return stream;
+	}
+}
@@ -0,0 +1,291 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/*
+ * streaming parser for RLE (.rle) and Macrocell (.mc) pattern files. The input is
+ * read in blocks of bytes and decoded straight into runs of live cells, so even
+ * patterns with millions of cells never exist as text or as single cells.
+ */
+public class PatternReader {
+	private final InputStream in;
+	// block of the file currently being decoded
+	private final byte[] buffer;
+	private int position, limit;
+	private final String name;
+	private String rule;
+	// runs of live cells collected so far, (x, y, length) triples
+	private int[] runs;
+	private int runCount;
+
+	private PatternReader(InputStream stream, String name) {
+		in = stream;
+		buffer = new byte[1 << 16];
+		this.name = name;
+		runs = new int[3 * 64];
+	}
+
+	/*
+	 * parse a pattern, the format is worked out from the first line of the file
+	 */
+	public static Pattern read(InputStream stream, String name) throws IOException {
+		PatternReader reader = new PatternReader(stream, name);
+		String first = reader.peekLine();
+		if (first != null && first.startsWith("[M2]")) {
+			reader.readMacrocell();
+		}
+		else {
+			reader.readRLE();
+		}
+		return new Pattern(reader.name, reader.rule, reader.runs, reader.runCount);
+	}
+
+	/*
+	 * RLE: '#' comment lines, an "x = .., y = .., rule = .." header, then runs of
+	 * 'b' (dead) and 'o' (alive) cells, '$' ending rows and '!' ending the pattern
+	 */
+	private void readRLE() throws IOException {
+		int x = 0, y = 0, count = 0;
+		boolean header = false;
+		for (int c = next(); c != -1 && c != '!'; c = next()) {
+			if (c == '#' && x == 0 && count == 0) {
+				skipLine();
+			}
+			else if (c == 'x' && !header) {
+				parseHeader("x" + readLine());
+				header = true;
+			}
+			else if (c >= '0' && c <= '9') {
+				count = count * 10 + (c - '0');
+			}
+			else if (c == '$') {
+				y += Math.max(count, 1);
+				x = 0;
+				count = 0;
+			}
+			else if (c == 'b' || c == '.') {
+				x += Math.max(count, 1);
+				count = 0;
+			}
+			else if (!Character.isWhitespace(c)) {
+				// 'o' and the letters multi-state rules use for live states
+				int length = Math.max(count, 1);
+				addRun(x, y, length);
+				x += length;
+				count = 0;
+			}
+		}
+	}
+
+	private void parseHeader(String line) throws IOException {
+		for (String field : line.split(",")) {
+			String[] pair = field.split("=", 2);
+			if (pair.length == 2 && pair[0].trim().equals("rule")) {
+				rule = pair[1].trim();
+			}
+		}
+	}
+
+	/*
+	 * Macrocell: numbered nodes, each either an 8x8 leaf written as rows of '.' and
+	 * '*' ended by '$', or "level nw ne sw se" referring to earlier nodes (0 is
+	 * empty). The last node is the whole pattern and gets expanded into runs.
+	 * Every node's live bounding box is worked out as it is read, with long
+	 * coordinates as a tree can be up to 2^62 cells across, and the pattern is
+	 * refused if its live cells span more than int coordinates hold.
+	 */
+	private void readMacrocell() throws IOException {
+		readLine();
+		int[] levels = new int[1024];
+		int[][] children = new int[1024][];
+		long[] leaves = new long[1024];
+		// live bounding box of every node from its top left corner, left > right when it has none
+		long[] lefts = new long[1024], tops = new long[1024], rights = new long[1024], bottoms = new long[1024];
+		lefts[0] = tops[0] = Long.MAX_VALUE;
+		rights[0] = bottoms[0] = -1;
+		int count = 0;
+		String line;
+		while ((line = readLine()) != null) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			if (line.charAt(0) == '#') {
+				if (line.startsWith("#R")) {
+					rule = line.substring(2).trim();
+				}
+				continue;
+			}
+			if (++count == levels.length) {
+				levels = Arrays.copyOf(levels, count * 2);
+				children = Arrays.copyOf(children, count * 2);
+				leaves = Arrays.copyOf(leaves, count * 2);
+				lefts = Arrays.copyOf(lefts, count * 2);
+				tops = Arrays.copyOf(tops, count * 2);
+				rights = Arrays.copyOf(rights, count * 2);
+				bottoms = Arrays.copyOf(bottoms, count * 2);
+			}
+			lefts[count] = tops[count] = Long.MAX_VALUE;
+			rights[count] = bottoms[count] = -1;
+			char first = line.charAt(0);
+			if (first == '.' || first == '*' || first == '$') {
+				levels[count] = 3;
+				leaves[count] = parseLeaf(line);
+				long bits = leaves[count];
+				for (int row = 0; row < 8; row++) {
+					long cells = (bits >>> (row * 8)) & 0xFF;
+					if (cells != 0) {
+						lefts[count] = Math.min(lefts[count], Long.numberOfTrailingZeros(cells));
+						rights[count] = Math.max(rights[count], 63 - Long.numberOfLeadingZeros(cells));
+						tops[count] = Math.min(tops[count], row);
+						bottoms[count] = row;
+					}
+				}
+			}
+			else {
+				String[] parts = line.trim().split("\\s+");
+				if (parts.length != 5) {
+					throw new IOException("Bad Macrocell node " + count + " in " + name + ": " + line);
+				}
+				levels[count] = Integer.parseInt(parts[0]);
+				if (levels[count] < 4 || levels[count] > 62) {
+					throw new IOException("Macrocell node " + count + " in " + name + " has level " + levels[count]
+							+ ", levels go from 4 to 62");
+				}
+				children[count] = new int[4];
+				long half = 1L << (levels[count] - 1);
+				for (int i = 0; i < 4; i++) {
+					int child = Integer.parseInt(parts[i + 1]);
+					if (child >= count) {
+						throw new IOException("Macrocell node " + count + " in " + name + " refers to later node " + child);
+					}
+					if (child != 0 && levels[child] != levels[count] - 1) {
+						throw new IOException("Macrocell node " + count + " in " + name + " has level " + levels[count]
+								+ " but its child " + child + " has level " + levels[child]);
+					}
+					children[count][i] = child;
+					if (lefts[child] <= rights[child]) {
+						long x = (i & 1) * half, y = (i >> 1) * half;
+						lefts[count] = Math.min(lefts[count], x + lefts[child]);
+						rights[count] = Math.max(rights[count], x + rights[child]);
+						tops[count] = Math.min(tops[count], y + tops[child]);
+						bottoms[count] = Math.max(bottoms[count], y + bottoms[child]);
+					}
+				}
+			}
+		}
+		if (count > 0 && lefts[count] <= rights[count]) {
+			if (rights[count] - lefts[count] >= Integer.MAX_VALUE || bottoms[count] - tops[count] >= Integer.MAX_VALUE) {
+				throw new IOException(name + " spans " + (rights[count] - lefts[count] + 1) + "x"
+						+ (bottoms[count] - tops[count] + 1) + " cells, more than a pattern can hold");
+			}
+			// the live cells start at (0, 0) so every run fits an int
+			expand(count, -lefts[count], -tops[count], levels, children, leaves);
+		}
+	}
+
+	/*
+	 * 8x8 leaf as 64 bits, row by row with bit 0 the top left cell
+	 */
+	private long parseLeaf(String line) {
+		long bits = 0;
+		int x = 0, y = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '$') {
+				x = 0;
+				y++;
+			}
+			else {
+				if (c == '*' && x < 8 && y < 8) {
+					bits |= 1L << (y * 8 + x);
+				}
+				x++;
+			}
+		}
+		return bits;
+	}
+
+	private void expand(int node, long x, long y, int[] levels, int[][] children, long[] leaves) {
+		if (node == 0) {
+			return;
+		}
+		if (levels[node] == 3) {
+			long bits = leaves[node];
+			for (int row = 0; row < 8; row++) {
+				int cells = (int) (bits >>> (row * 8)) & 0xFF;
+				while (cells != 0) {
+					int start = Integer.numberOfTrailingZeros(cells);
+					int length = Integer.numberOfTrailingZeros(~(cells >>> start));
+					addRun((int) (x + start), (int) (y + row), length);
+					cells &= ~(((1 << length) - 1) << start);
+				}
+			}
+			return;
+		}
+		long half = 1L << (levels[node] - 1);
+		int[] quadrants = children[node];
+		expand(quadrants[0], x, y, levels, children, leaves);
+		expand(quadrants[1], x + half, y, levels, children, leaves);
+		expand(quadrants[2], x, y + half, levels, children, leaves);
+		expand(quadrants[3], x + half, y + half, levels, children, leaves);
+	}
+
+	private void addRun(int x, int y, int length) {
+		if (runCount * 3 == runs.length) {
+			runs = Arrays.copyOf(runs, runs.length * 2);
+		}
+		runs[runCount * 3] = x;
+		runs[runCount * 3 + 1] = y;
+		runs[runCount * 3 + 2] = length;
+		runCount++;
+	}
+
+	private int next() throws IOException {
+		if (position == limit) {
+			limit = in.read(buffer, 0, buffer.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position++] & 0xFF;
+	}
+
+	private void skipLine() throws IOException {
+		for (int c = next(); c != -1 && c != '\n'; c = next()) {
+		}
+	}
+
+	private String readLine() throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c = next();
+		if (c == -1) {
+			return null;
+		}
+		for (; c != -1 && c != '\n'; c = next()) {
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	/*
+	 * look at the start of the first line without consuming it
+	 */
+	private String peekLine() throws IOException {
+		while (limit < 64) {
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read <= 0) {
+				break;
+			}
+			limit += read;
+		}
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < limit && buffer[i] != '\n'; i++) {
+			line.append((char) (buffer[i] & 0xFF));
+		}
+		return limit == 0 ? null : line.toString();
+	}
+}
@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+ * writes a rectangle of a universe, or any other CellSource, as an RLE pattern that PatternReader (and
+ * other Life programs) can read back. Rows are read a word at a time and turned
+ * straight into runs, so writing costs about the same as reading the cells.
+ */
+public class PatternWriter {
+	// RLE lines are conventionally kept under 70 characters
+	private static final int LINE_LENGTH = 70;
+	private final Writer out;
+	private final StringBuilder line;
+
+	private PatternWriter(Writer out) {
+		this.out = out;
+		line = new StringBuilder(LINE_LENGTH + 8);
+	}
+
+	/*
+	 * write the cells in the rectangle with its top left corner at (left, top)
+	 */
+	public static void writeRLE(CellSource cells, int left, int top, int width, int height, String rule, Writer out)
+			throws IOException {
+		if (width < 0 || height < 0) {
+			throw new IllegalArgumentException("Size must not be negative, got " + width + "x" + height);
+		}
+		out.write("x = " + width + ", y = " + height + ", rule = " + rule + "\n");
+		PatternWriter writer = new PatternWriter(out);
+		int firstWord = Math.floorDiv(left, 64) * 64;
+		// row ends not written yet, they're only needed before the next live cell
+		int rowEnds = 0;
+		for (int y = top; y < top + height; y++) {
+			// next cell that hasn't been written and the live run waiting to be written
+			long cursor = left, runStart = 0, runEnd = 0;
+			for (long wx = firstWord; wx < (long) left + width; wx += 64) {
+				long word = cells.getWord((int) wx, y);
+				int from = (int) Math.max(left - wx, 0), to = (int) Math.min((long) left + width - wx, 64);
+				word &= (to == 64 ? -1L : (1L << to) - 1) & (-1L << from);
+				while (word != 0) {
+					int start = Long.numberOfTrailingZeros(word);
+					int length = Long.numberOfTrailingZeros(~(word >>> start));
+					word &= length == 64 ? 0 : ~(((1L << length) - 1) << start);
+					if (wx + start == runEnd && runEnd > runStart) {
+						// carries on a run from the previous word
+						runEnd += length;
+						continue;
+					}
+					if (runEnd > runStart) {
+						writer.token(runStart - cursor, 'b');
+						writer.token(runEnd - runStart, 'o');
+						cursor = runEnd;
+					}
+					else if (rowEnds > 0) {
+						writer.token(rowEnds, '$');
+						rowEnds = 0;
+					}
+					runStart = wx + start;
+					runEnd = runStart + length;
+				}
+			}
+			if (runEnd > runStart) {
+				writer.token(runStart - cursor, 'b');
+				writer.token(runEnd - runStart, 'o');
+			}
+			rowEnds++;
+		}
+		writer.token(1, '!');
+		out.write(writer.line.toString());
+		out.write("\n");
+		out.flush();
+	}
+
+	/*
+	 * add a run of count cells, starting a new line when this one is full
+	 */
+	private void token(long count, char tag) throws IOException {
+		if (count <= 0) {
+			return;
+		}
+		String token = count == 1 ? String.valueOf(tag) : count + String.valueOf(tag);
+		if (line.length() + token.length() > LINE_LENGTH) {
+			out.write(line.toString());
+			out.write("\n");
+			line.setLength(0);
+		}
+		line.append(token);
+	}
+}
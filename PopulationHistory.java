@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+ * the last capacity generations of a run: generation, population, births,
+ * deaths and live bounding box, in a ring of primitive arrays that's allocated
+ * once, so recording a generation is a handful of array stores. Everything
+ * comes from what the engine already kept during the step (see
+ * Universe.getBirths() and getBounds()), nothing here looks at the cells.
+ * Births and deaths are -1 for engines that don't count them, and the bounds
+ * -1 for engines without a bounding box or when nothing is alive.
+ *
+ * Births and deaths are those of the last generation the universe stepped, so
+ * record after every single generation for them to add up. The simulation
+ * thread records while the GUI reads, so every method is synchronized.
+ */
+public class PopulationHistory {
+	public static final int DEFAULT_CAPACITY = 4096;
+	private static final String CSV_HEADER = "generation,population,births,deaths,left,top,right,bottom\n";
+	private final int capacity;
+	// record i is at index i modulo capacity
+	private final long[] generations, populations, births, deaths;
+	private final int[] lefts, tops, rights, bottoms;
+	// records ever made since the last clear()
+	private long recorded;
+
+	public PopulationHistory() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public PopulationHistory(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("History must hold at least 1 generation, got " + capacity);
+		}
+		this.capacity = capacity;
+		generations = new long[capacity];
+		populations = new long[capacity];
+		births = new long[capacity];
+		deaths = new long[capacity];
+		lefts = new int[capacity];
+		tops = new int[capacity];
+		rights = new int[capacity];
+		bottoms = new int[capacity];
+	}
+
+	// getters
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/*
+	 * records made since the last clear(), only the last getCapacity() of them are kept
+	 */
+	public synchronized long getRecorded() {
+		return recorded;
+	}
+
+	/*
+	 * records kept, at most getCapacity()
+	 */
+	public synchronized int size() {
+		return (int) Math.min(recorded, capacity);
+	}
+
+	public synchronized void clear() {
+		recorded = 0;
+	}
+
+	/*
+	 * add the universe's current generation, overwriting the oldest once full
+	 */
+	public synchronized void record(Universe universe) {
+		int i = (int) (recorded % capacity);
+		generations[i] = universe.getGeneration();
+		populations[i] = universe.getPopulation();
+		long born = universe.getBirths();
+		births[i] = born;
+		deaths[i] = born < 0 ? -1 : universe.getChangedCells() - born;
+		int[] bounds = universe.hasBounds() ? universe.getBounds() : null;
+		lefts[i] = bounds == null ? -1 : bounds[0];
+		tops[i] = bounds == null ? -1 : bounds[1];
+		rights[i] = bounds == null ? -1 : bounds[2];
+		bottoms[i] = bounds == null ? -1 : bounds[3];
+		recorded++;
+	}
+
+	/*
+	 * copy the populations of the kept records into into, oldest first, and
+	 * return how many there were. into needs room for getCapacity() of them.
+	 */
+	public synchronized int copyPopulations(long[] into) {
+		int size = size();
+		long oldest = recorded - size;
+		for (int j = 0; j < size; j++) {
+			into[j] = populations[(int) ((oldest + j) % capacity)];
+		}
+		return size;
+	}
+
+	public synchronized long getLastPopulation() {
+		return recorded == 0 ? 0 : populations[(int) ((recorded - 1) % capacity)];
+	}
+
+	public synchronized long getLastBirths() {
+		return recorded == 0 ? -1 : births[(int) ((recorded - 1) % capacity)];
+	}
+
+	public synchronized long getLastDeaths() {
+		return recorded == 0 ? -1 : deaths[(int) ((recorded - 1) % capacity)];
+	}
+
+	public static void writeCSVHeader(Writer out) throws IOException {
+		out.write(CSV_HEADER);
+	}
+
+	/*
+	 * write the kept records from record number from on (counted since the last
+	 * clear()) as CSV lines, without the header, and return the number of the
+	 * record after the last one written. Records already overwritten are skipped,
+	 * so writing from the returned number each time the ring fills streams every
+	 * record exactly once.
+	 */
+	public synchronized long writeCSV(Writer out, long from) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for (long record = Math.max(from, recorded - size()); record < recorded; record++) {
+			line.setLength(0);
+			appendCSV(line, (int) (record % capacity));
+			out.append(line);
+		}
+		return recorded;
+	}
+
+	private void appendCSV(StringBuilder line, int i) {
+		line.append(generations[i]).append(',').append(populations[i]).append(',').append(births[i]).append(',')
+				.append(deaths[i]).append(',').append(lefts[i]).append(',').append(tops[i]).append(',')
+				.append(rights[i]).append(',').append(bottoms[i]).append('\n');
+	}
+}
@@ -0,0 +1,266 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Life-like rule given as a B/S rulestring: the neighbour counts that bring a
+ * dead cell to life and the counts that keep a live cell alive, e.g. B3/S23 for
+ * Conway's game, B36/S23 for HighLife or B2/S for Seeds. The survival-first
+ * form (23/3) and lower case letters are read as well.
+ *
+ * The rule is compiled into tables once, so every rule steps at the same speed:
+ * the bitboard engines count neighbours into bit planes and pick each cell's
+ * next state out of the rule's 18 entries with a fixed tree of word-wide
+ * selects (evolve), and HashLife looks the centre 2x2 cells of a 4x4 block up
+ * in a 64K table (getLeafTable).
+ */
+public final class Rule {
+	public static final Rule CONWAY = fromRulestring("B3/S23");
+	private static final Map<String, Rule> NAMED = named();
+	// bit n set if n neighbours give birth / survival
+	private final int birth, survival;
+	// B3/S23 has a kernel of its own that is cheaper than the general one
+	private final boolean conway;
+	// per neighbour count n, -1 if a dead cell is born and the difference between
+	// that and whether a live cell survives, for evolve() to select between
+	private final long born0, born1, born2, born3, born4, born5, born6, born7, born8;
+	private final long flip0, flip1, flip2, flip3, flip4, flip5, flip6, flip7, flip8;
+	private byte[] leafTable;
+
+	private Rule(int birth, int survival) {
+		this.birth = birth;
+		this.survival = survival;
+		conway = birth == 1 << 3 && survival == (1 << 2 | 1 << 3);
+		born0 = born(0);
+		born1 = born(1);
+		born2 = born(2);
+		born3 = born(3);
+		born4 = born(4);
+		born5 = born(5);
+		born6 = born(6);
+		born7 = born(7);
+		born8 = born(8);
+		flip0 = flip(0);
+		flip1 = flip(1);
+		flip2 = flip(2);
+		flip3 = flip(3);
+		flip4 = flip(4);
+		flip5 = flip(5);
+		flip6 = flip(6);
+		flip7 = flip(7);
+		flip8 = flip(8);
+	}
+
+	/*
+	 * rule from a B/S rulestring or one of the names in getNamed()
+	 */
+	public static Rule parse(String rule) {
+		for (Map.Entry<String, Rule> entry : NAMED.entrySet()) {
+			if (entry.getKey().equalsIgnoreCase(rule.trim())) {
+				return entry.getValue();
+			}
+		}
+		return fromRulestring(rule);
+	}
+
+	/*
+	 * well known rules by name, in the order they are usually listed
+	 */
+	public static Map<String, Rule> getNamed() {
+		return NAMED;
+	}
+
+	private static Rule fromRulestring(String rule) {
+		String upper = rule.trim().toUpperCase();
+		int slash = upper.indexOf('/');
+		if (slash < 0) {
+			throw new IllegalArgumentException("Not a B/S rule: " + rule);
+		}
+		String first = upper.substring(0, slash).trim(), second = upper.substring(slash + 1).trim();
+		if (first.startsWith("S") || second.startsWith("B")) {
+			String swap = first;
+			first = second;
+			second = swap;
+		}
+		else if (!first.startsWith("B")) {
+			// the old survival/birth order, 23/3
+			String swap = first;
+			first = "B" + second;
+			second = "S" + swap;
+		}
+		if (!first.startsWith("B") || !second.startsWith("S")) {
+			throw new IllegalArgumentException("Not a B/S rule: " + rule);
+		}
+		return new Rule(counts(rule, first.substring(1)), counts(rule, second.substring(1)));
+	}
+
+	// getters
+	public boolean isBorn(int neighbours) {
+		return (birth & (1 << neighbours)) != 0;
+	}
+
+	public boolean survives(int neighbours) {
+		return (survival & (1 << neighbours)) != 0;
+	}
+
+	/*
+	 * true if dead cells with no live neighbours come to life, which fills an
+	 * unbounded plane in one generation, so only bounded universes take such rules
+	 */
+	public boolean isBornFromNothing() {
+		return isBorn(0);
+	}
+
+	/*
+	 * next state of the centre 2x2 cells of every 4x4 block of cells, indexed by
+	 * the 16 cells with bit 0 the top left one and the rest in reading order. Bit 0
+	 * of an entry is the top left result cell and bits 1-3 follow in reading order.
+	 */
+	public synchronized byte[] getLeafTable() {
+		if (leafTable == null) {
+			leafTable = buildLeafTable();
+		}
+		return leafTable;
+	}
+
+	/*
+	 * apply the rule to 64 cells at once. Each argument holds, for every bit
+	 * position, one of the eight neighbours (up-left, up, up-right, left, right,
+	 * down-left, down, down-right) apart from m which is the cells themselves.
+	 * The neighbours are summed exactly into four bit planes with a carry-save
+	 * adder tree, then the rule's entry for each cell's count and state is picked
+	 * with a tree of selects, the same operations whatever the rule.
+	 */
+	public long evolve(long ul, long u, long ur, long l, long m, long r, long dl, long d, long dr) {
+		if (conway) {
+			return evolveConway(ul, u, ur, l, m, r, dl, d, dr);
+		}
+		long a = ul ^ u, sumA = a ^ ur, carryA = (ul & u) | (a & ur);
+		long b = l ^ r, sumB = b ^ dl, carryB = (l & r) | (b & dl);
+		long sumC = d ^ dr, carryC = d & dr;
+		long c = sumA ^ sumB, ones = c ^ sumC, carryD = (sumA & sumB) | (c & sumC);
+		long e = carryA ^ carryB, twosA = e ^ carryC, foursA = (carryA & carryB) | (e & carryC);
+		long twos = twosA ^ carryD, foursB = twosA & carryD;
+		long fours = foursA ^ foursB, eights = foursA & foursB;
+		// the rule's entry for every count, for each cell whether it is alive or dead
+		long n0 = born0 ^ (m & flip0), n1 = born1 ^ (m & flip1), n2 = born2 ^ (m & flip2), n3 = born3 ^ (m & flip3);
+		long n4 = born4 ^ (m & flip4), n5 = born5 ^ (m & flip5), n6 = born6 ^ (m & flip6), n7 = born7 ^ (m & flip7);
+		long n8 = born8 ^ (m & flip8);
+		long n01 = n0 ^ (ones & (n0 ^ n1)), n23 = n2 ^ (ones & (n2 ^ n3));
+		long n45 = n4 ^ (ones & (n4 ^ n5)), n67 = n6 ^ (ones & (n6 ^ n7));
+		long n03 = n01 ^ (twos & (n01 ^ n23)), n47 = n45 ^ (twos & (n45 ^ n67));
+		long n07 = n03 ^ (fours & (n03 ^ n47));
+		// eight neighbours leave the lower bits at zero
+		return n07 ^ (eights & (n07 ^ n8));
+	}
+
+	/*
+	 * evolve() for B3/S23 only. The neighbours are summed with a bit-sliced counter
+	 * that only needs to tell 2 and 3 apart from everything else (ones, twos and a
+	 * sticky fours-or-more bit).
+	 */
+	private static long evolveConway(long ul, long u, long ur, long l, long m, long r, long dl, long d, long dr) {
+		long ones = 0, twos = 0, fours = 0, carry;
+		carry = ones & ul; ones ^= ul; fours |= twos & carry; twos ^= carry;
+		carry = ones & u; ones ^= u; fours |= twos & carry; twos ^= carry;
+		carry = ones & ur; ones ^= ur; fours |= twos & carry; twos ^= carry;
+		carry = ones & l; ones ^= l; fours |= twos & carry; twos ^= carry;
+		carry = ones & r; ones ^= r; fours |= twos & carry; twos ^= carry;
+		carry = ones & dl; ones ^= dl; fours |= twos & carry; twos ^= carry;
+		carry = ones & d; ones ^= d; fours |= twos & carry; twos ^= carry;
+		carry = ones & dr; ones ^= dr; fours |= twos & carry; twos ^= carry;
+		// alive next generation with exactly 3 neighbours, or 2 neighbours if already alive
+		return twos & ~fours & (ones | m);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Rule && ((Rule) other).birth == birth && ((Rule) other).survival == survival;
+	}
+
+	@Override
+	public int hashCode() {
+		return birth * 512 + survival;
+	}
+
+	/*
+	 * the rulestring, e.g. B3/S23
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder("B");
+		for (int n = 0; n <= 8; n++) {
+			if (isBorn(n)) {
+				text.append(n);
+			}
+		}
+		text.append("/S");
+		for (int n = 0; n <= 8; n++) {
+			if (survives(n)) {
+				text.append(n);
+			}
+		}
+		return text.toString();
+	}
+
+	private long born(int neighbours) {
+		return isBorn(neighbours) ? -1L : 0;
+	}
+
+	private long flip(int neighbours) {
+		return isBorn(neighbours) != survives(neighbours) ? -1L : 0;
+	}
+
+	private byte[] buildLeafTable() {
+		byte[] table = new byte[1 << 16];
+		for (int bits = 0; bits < table.length; bits++) {
+			int next = 0;
+			for (int cy = 1; cy <= 2; cy++) {
+				for (int cx = 1; cx <= 2; cx++) {
+					int neighbours = 0;
+					for (int y = cy - 1; y <= cy + 1; y++) {
+						for (int x = cx - 1; x <= cx + 1; x++) {
+							if ((x != cx || y != cy) && (bits & (1 << (y * 4 + x))) != 0) {
+								neighbours++;
+							}
+						}
+					}
+					boolean alive = (bits & (1 << (cy * 4 + cx))) != 0;
+					if (alive ? survives(neighbours) : isBorn(neighbours)) {
+						next |= 1 << ((cy - 1) * 2 + (cx - 1));
+					}
+				}
+			}
+			table[bits] = (byte) next;
+		}
+		return table;
+	}
+
+	/*
+	 * bit mask of the neighbour counts listed as digits
+	 */
+	private static int counts(String rule, String digits) {
+		int mask = 0;
+		for (char digit : digits.toCharArray()) {
+			if (digit < '0' || digit > '8') {
+				throw new IllegalArgumentException("Neighbour counts go from 0 to 8, got '" + digit + "' in " + rule);
+			}
+			mask |= 1 << (digit - '0');
+		}
+		return mask;
+	}
+
+	private static Map<String, Rule> named() {
+		Map<String, Rule> rules = new LinkedHashMap<>();
+		rules.put("Conway", CONWAY);
+		rules.put("HighLife", fromRulestring("B36/S23"));
+		rules.put("Day & Night", fromRulestring("B3678/S34678"));
+		rules.put("Seeds", fromRulestring("B2/S"));
+		rules.put("Life without Death", fromRulestring("B3/S012345678"));
+		rules.put("Replicator", fromRulestring("B1357/S1357"));
+		rules.put("2x2", fromRulestring("B36/S125"));
+		rules.put("Diamoeba", fromRulestring("B35678/S5678"));
+		rules.put("Morley", fromRulestring("B368/S245"));
+		return Collections.unmodifiableMap(rules);
+	}
+}
@@ -0,0 +1,237 @@
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * timings of the three phases of a frame: stepping the universe, rendering the
+ * visible cells into the canvas image and painting it on the Swing thread, plus
+ * the size of the universe and how fast it's going. Every phase goes into a
+ * latency histogram and is also a JDK Flight Recorder event, the numbers can be
+ * read through JMX (SimulationMetricsMBean) and drawn on the canvas as a HUD.
+ *
+ * step() is called from the simulation thread, render() wherever the canvas is
+ * refreshed and recordPaint() from the Swing thread, the getters from any thread.
+ */
+public class SimulationMetrics implements SimulationMetricsMBean {
+	private static final String OBJECT_NAME = "gameoflife:type=SimulationMetrics";
+	// population is a full count of the universe, so it's only taken this often
+	private static final long POPULATION_INTERVAL = 100_000_000L;
+	// window the rates are averaged over
+	private static final long RATE_INTERVAL = 1_000_000_000L;
+	private final LatencyHistogram stepTimes, renderTimes, paintTimes;
+	private volatile long generation, population, changedCells, stepCount;
+	private volatile double generationsPerSecond, cellsPerSecond;
+	private long populationTakenAt, windowStart, windowGenerations, windowCells, windowStepNanos;
+	private boolean windowOpen;
+
+	public SimulationMetrics() {
+		stepTimes = new LatencyHistogram();
+		renderTimes = new LatencyHistogram();
+		paintTimes = new LatencyHistogram();
+		populationTakenAt = System.nanoTime() - POPULATION_INTERVAL;
+	}
+
+	/*
+	 * make the metrics visible to JMX clients, false if it couldn't be registered
+	 */
+	public boolean register() {
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			}
+			return true;
+		} catch (JMException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/*
+	 * advance the universe, timing it. cellsPerGeneration is how many cells one
+	 * generation covers (the grid area) and is only used for the cells/sec rate.
+	 */
+	public void step(Universe universe, long generations, long cellsPerGeneration) {
+		StepEvent event = new StepEvent();
+		event.begin();
+		long start = System.nanoTime();
+		universe.advance(generations);
+		long end = System.nanoTime();
+		event.end();
+		stepTimes.record(end - start);
+		if (end - populationTakenAt >= POPULATION_INTERVAL) {
+			population = universe.getPopulation();
+			populationTakenAt = end;
+		}
+		generation = universe.getGeneration();
+		changedCells = universe.getChangedCells();
+		stepCount++;
+		if (event.shouldCommit()) {
+			event.generation = generation;
+			event.generations = generations;
+			event.population = population;
+			event.changedCells = changedCells;
+			event.commit();
+		}
+		// rates over roughly the last second: generations per second of wall time and
+		// cells per second of time spent stepping
+		if (!windowOpen) {
+			windowStart = start;
+			windowOpen = true;
+		}
+		windowGenerations += generations;
+		windowCells += cellsPerGeneration * generations;
+		windowStepNanos += end - start;
+		if (end - windowStart >= RATE_INTERVAL) {
+			generationsPerSecond = windowGenerations * 1e9 / (end - windowStart);
+			cellsPerSecond = windowStepNanos == 0 ? 0 : windowCells * 1e9 / windowStepNanos;
+			windowStart = end;
+			windowGenerations = 0;
+			windowCells = 0;
+			windowStepNanos = 0;
+		}
+	}
+
+	/*
+	 * render a canvas frame (copying the changed visible cells into its back image
+	 * and publishing it), timing it. The changes have to be collected already.
+	 */
+	public void render(GridCanvas canvas) {
+		RenderEvent event = new RenderEvent();
+		event.begin();
+		long start = System.nanoTime();
+		canvas.render();
+		renderTimes.record(System.nanoTime() - start);
+		event.commit();
+	}
+
+	/*
+	 * time the Swing thread took to paint a frame, reported by the canvas
+	 */
+	public void recordPaint(long start, long end) {
+		paintTimes.record(end - start);
+		PaintEvent event = new PaintEvent();
+		if (event.shouldCommit()) {
+			event.paintTime = end - start;
+			event.commit();
+		}
+	}
+
+	public LatencyHistogram getStepTimes() {
+		return stepTimes;
+	}
+
+	public LatencyHistogram getRenderTimes() {
+		return renderTimes;
+	}
+
+	public LatencyHistogram getPaintTimes() {
+		return paintTimes;
+	}
+
+	// MBean attributes
+	public long getGeneration() {
+		return generation;
+	}
+
+	public long getPopulation() {
+		return population;
+	}
+
+	public long getChangedCells() {
+		return changedCells;
+	}
+
+	public double getGenerationsPerSecond() {
+		return generationsPerSecond;
+	}
+
+	public double getCellsPerSecond() {
+		return cellsPerSecond;
+	}
+
+	public long getStepCount() {
+		return stepCount;
+	}
+
+	public double getStepP50Micros() {
+		return stepTimes.getPercentile(0.5) / 1e3;
+	}
+
+	public double getStepP99Micros() {
+		return stepTimes.getPercentile(0.99) / 1e3;
+	}
+
+	public double getStepMaxMicros() {
+		return stepTimes.getMax() / 1e3;
+	}
+
+	public double getRenderP50Micros() {
+		return renderTimes.getPercentile(0.5) / 1e3;
+	}
+
+	public double getRenderP99Micros() {
+		return renderTimes.getPercentile(0.99) / 1e3;
+	}
+
+	public double getPaintP50Micros() {
+		return paintTimes.getPercentile(0.5) / 1e3;
+	}
+
+	public double getPaintP99Micros() {
+		return paintTimes.getPercentile(0.99) / 1e3;
+	}
+
+	/*
+	 * forget the recorded timings, e.g. when a new run starts
+	 */
+	public void reset() {
+		stepTimes.reset();
+		renderTimes.reset();
+		paintTimes.reset();
+		stepCount = 0;
+		windowOpen = false;
+		windowGenerations = 0;
+		windowCells = 0;
+		windowStepNanos = 0;
+	}
+
+	@Name("gameoflife.Step")
+	@Label("Generation Step")
+	@Category("Game of Life")
+	@Description("Advancing the universe by one or more generations")
+	static class StepEvent extends Event {
+		@Label("Generation")
+		long generation;
+		@Label("Generations")
+		long generations;
+		@Label("Population")
+		long population;
+		@Label("Changed Cells")
+		long changedCells;
+	}
+
+	@Name("gameoflife.Render")
+	@Label("Render")
+	@Category("Game of Life")
+	@Description("Copying the visible cells into the canvas image")
+	static class RenderEvent extends Event {
+	}
+
+	@Name("gameoflife.Paint")
+	@Label("Paint")
+	@Category("Game of Life")
+	@Description("Painting the canvas on the Swing thread")
+	static class PaintEvent extends Event {
+		@Label("Paint Time")
+		@jdk.jfr.Timespan
+		long paintTime;
+	}
+}
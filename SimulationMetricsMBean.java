@@ -0,0 +1,33 @@
+/*
+ * what SimulationMetrics shows through JMX (jconsole, VisualVM, ...). Times are
+ * in microseconds, percentiles cover everything since the last reset.
+ */
+public interface SimulationMetricsMBean {
+	long getGeneration();
+
+	long getPopulation();
+
+	long getChangedCells();
+
+	double getGenerationsPerSecond();
+
+	double getCellsPerSecond();
+
+	long getStepCount();
+
+	double getStepP50Micros();
+
+	double getStepP99Micros();
+
+	double getStepMaxMicros();
+
+	double getRenderP50Micros();
+
+	double getRenderP99Micros();
+
+	double getPaintP50Micros();
+
+	double getPaintP99Micros();
+
+	void reset();
+}
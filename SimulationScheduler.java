@@ -0,0 +1,177 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * runs a simulation at a chosen number of steps per second, or as fast as it
+ * goes, on one long-lived thread. Rendering is decoupled from stepping: a frame
+ * is rendered at most once per display refresh, so when the simulation outpaces
+ * the screen the frames in between are skipped and only the latest is shown.
+ *
+ * All of the scheduler's state belongs to its thread. start(), pause() and
+ * setRate() only queue a task for it, so they never race with a running step
+ * and pausing or resuming never creates a thread.
+ */
+public class SimulationScheduler {
+	/*
+	 * what the scheduler drives, every method is called on the simulation thread
+	 */
+	public interface Simulation {
+		/*
+		 * advance one step, false once the simulation is finished (nothing was done)
+		 */
+		boolean step();
+
+		/*
+		 * show the current state, called at most once per display frame
+		 */
+		void render();
+
+		/*
+		 * the simulation stopped, either finished or paused
+		 */
+		void stopped(boolean finished);
+	}
+
+	public static final double UNTHROTTLED = Double.POSITIVE_INFINITY;
+	// how long an unthrottled run keeps the thread before letting queued tasks in
+	private static final long SLICE_NANOS = 10_000_000L;
+	// a throttled run that falls further behind than this stops trying to catch up
+	private static final long MAX_LAG_NANOS = 250_000_000L;
+	private final ScheduledExecutorService executor;
+	private final long frameNanos;
+	private Simulation simulation;
+	private double rate;
+	private boolean running;
+	private long nextStepAt, lastFrameAt;
+	private ScheduledFuture<?> pending;
+	// a render asked for with requestRender() is queued
+	private final AtomicBoolean renderRequested = new AtomicBoolean();
+
+	/*
+	 * scheduler rendering at most framesPerSecond frames, stepping at stepsPerSecond
+	 */
+	public SimulationScheduler(double framesPerSecond, double stepsPerSecond) {
+		if (!(framesPerSecond > 0)) {
+			throw new IllegalArgumentException("Frame rate must be positive, got " + framesPerSecond);
+		}
+		checkRate(stepsPerSecond);
+		frameNanos = (long) (1e9 / framesPerSecond);
+		rate = stepsPerSecond;
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "life-simulation");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/*
+	 * start or resume running the simulation, does nothing if it's already running
+	 */
+	public void start(Simulation simulation) {
+		executor.execute(() -> {
+			if (running) {
+				return;
+			}
+			this.simulation = simulation;
+			running = true;
+			nextStepAt = System.nanoTime();
+			lastFrameAt = nextStepAt - frameNanos;
+			tick();
+		});
+	}
+
+	/*
+	 * stop after the current step, the simulation renders its last state and is told
+	 * it stopped
+	 */
+	public void pause() {
+		executor.execute(() -> {
+			if (running) {
+				stop(false);
+			}
+		});
+	}
+
+	/*
+	 * steps per second, UNTHROTTLED to run as fast as possible. Takes effect
+	 * straight away when running.
+	 */
+	public void setRate(double stepsPerSecond) {
+		checkRate(stepsPerSecond);
+		executor.execute(() -> {
+			rate = stepsPerSecond;
+			if (running) {
+				pending.cancel(false);
+				nextStepAt = System.nanoTime();
+				tick();
+			}
+		});
+	}
+
+	/*
+	 * render a frame as soon as the current step is done, e.g. because the view
+	 * moved, however long it is until the next frame is due. Requests made before
+	 * it is rendered are folded into one, and it does nothing unless running.
+	 */
+	public void requestRender() {
+		if (renderRequested.compareAndSet(false, true)) {
+			executor.execute(() -> {
+				renderRequested.set(false);
+				if (running) {
+					simulation.render();
+					lastFrameAt = System.nanoTime();
+				}
+			});
+		}
+	}
+
+	/*
+	 * stop the simulation thread for good
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/*
+	 * take every step that is due, render if a frame is due, and come back when the
+	 * next step is
+	 */
+	private void tick() {
+		boolean unthrottled = rate == UNTHROTTLED;
+		long period = unthrottled ? 0 : (long) (1e9 / rate);
+		long now = System.nanoTime(), sliceEnd = now + SLICE_NANOS;
+		while (unthrottled ? now < sliceEnd : now >= nextStepAt) {
+			if (!simulation.step()) {
+				stop(true);
+				return;
+			}
+			now = System.nanoTime();
+			if (!unthrottled) {
+				nextStepAt = Math.max(nextStepAt + period, now - MAX_LAG_NANOS);
+			}
+			if (now - lastFrameAt >= frameNanos) {
+				simulation.render();
+				lastFrameAt = now;
+			}
+		}
+		pending = executor.schedule(this::tick, unthrottled ? 0 : nextStepAt - now, TimeUnit.NANOSECONDS);
+	}
+
+	private void stop(boolean finished) {
+		running = false;
+		if (pending != null) {
+			pending.cancel(false);
+		}
+		simulation.render();
+		simulation.stopped(finished);
+	}
+
+	private static void checkRate(double stepsPerSecond) {
+		if (!(stepsPerSecond > 0)) {
+			throw new IllegalArgumentException("Rate must be positive, got " + stepsPerSecond);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+import java.util.SplittableRandom;
+
+/*
+ * random starting state ("soup") of a rectangle of cells, made from a 64-bit
+ * seed with SplittableRandom so the same seed gives the same soup on any JVM and
+ * any run. A search hands soup i of a search seeded with s the seed
+ * seed(s, i), the i-th number new SplittableRandom(s) would give, which can be
+ * worked out on its own without stepping through the ones before it.
+ */
+public final class Soup {
+	public static final double DEFAULT_DENSITY = 0.5;
+	// the gamma SplittableRandom advances its seed by between numbers
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private Soup() {
+	}
+
+	/*
+	 * seed of soup number index of a search started from searchSeed
+	 */
+	public static long seed(long searchSeed, long index) {
+		return new SplittableRandom(searchSeed + index * GOLDEN_GAMMA).nextLong();
+	}
+
+	/*
+	 * make each cell of the width x height rectangle with its top left corner at
+	 * (x, y) alive with the given probability
+	 */
+	public static void fill(Universe universe, int x, int y, int width, int height, long seed, double density) {
+		checkDensity(density);
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int row = 0; row < height; row++) {
+			int run = 0;
+			for (int column = 0; column < width; column++) {
+				if (random.nextDouble() < density) {
+					run++;
+				}
+				else if (run > 0) {
+					universe.setRun(x + column - run, y + row, run);
+					run = 0;
+				}
+			}
+			if (run > 0) {
+				universe.setRun(x + width - run, y + row, run);
+			}
+		}
+	}
+
+	/*
+	 * fill() in the middle of a grid of the given size, placed like Pattern.applyCentred()
+	 */
+	public static void fillCentred(Universe universe, int gridWidth, int gridHeight, int width, int height, long seed,
+			double density) {
+		fill(universe, gridWidth / 2 - width / 2, gridHeight / 2 - height / 2, width, height, seed, density);
+	}
+
+	public static void checkDensity(double density) {
+		if (!(density >= 0 && density <= 1)) {
+			throw new IllegalArgumentException("Density must be between 0 and 1, got " + density);
+		}
+	}
+}
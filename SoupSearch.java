@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * command line search for long-lived soups (methuselahs). Every soup is a
+ * random square of cells made from its own seed (see Soup) in the middle of a
+ * small torus, run until it settles into a still life or an oscillation, which
+ * CycleDetector spots from the engine's hash, or until it runs out of
+ * generations. The soups are spread over worker threads that each keep one
+ * universe and one detector and clear them for the next soup, so a search
+ * allocates next to nothing once it's running.
+ *
+ * One line per soup is streamed to the results file as they finish:
+ * index,seed,lifespan,period,population, with the generation the soup
+ * settled at as its lifespan (-1 if it didn't), the period of the cycle and the
+ * population once settled. The same search seed gives the same soups, and one
+ * soup can be run again on its own with java Batch --soup <seed>.
+ *
+ * Gliders that escape go round the torus and come back, so the grid should be
+ * large next to the soup. A glider alone is a cycle of 4 x the grid size.
+ *
+ * Options:
+ *   --soups <n>              soups to run (required)
+ *   --seed <n>               search seed, random by default (printed so the search can be repeated)
+ *   --soup-size <n>          side of the square soup, 16 by default
+ *   --density <d>            chance of each cell of the soup being alive, 0.5 by default
+ *   --size <n>               side of the torus, 256 by default
+ *   --rule <rulestring or name>   B/S rule, Conway's B3/S23 by default
+ *   --max-generations <n>    generations before giving up on a soup, 100000 by default
+ *   --cycle-history <n>      generations to look back for a repeated state, 4096 by default
+ *   --threads <n>            soups run at once, all processors by default
+ *   --output <file>          results file, soups.csv by default
+ */
+public class SoupSearch {
+	private long soups, seed, maxGenerations;
+	private int soupSize, size, threads, cycleHistory;
+	private double density;
+	private Rule rule;
+	private String output;
+	private Writer results;
+	// next soup to hand to a worker
+	private final AtomicLong next = new AtomicLong();
+
+	/*
+	 * the longest lived soup a worker found, and how many of its soups settled
+	 */
+	private static class Best {
+		long index = -1, seed, lifespan = -1, settled;
+	}
+
+	private SoupSearch() {
+		soups = -1;
+		seed = new SplittableRandom().nextLong();
+		soupSize = 16;
+		density = Soup.DEFAULT_DENSITY;
+		size = 256;
+		rule = Rule.CONWAY;
+		maxGenerations = 100_000;
+		cycleHistory = CycleDetector.DEFAULT_HISTORY;
+		threads = Runtime.getRuntime().availableProcessors();
+		output = "soups.csv";
+	}
+
+	public static void main(String[] args) {
+		SoupSearch search = new SoupSearch();
+		try {
+			search.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: java SoupSearch --soups <n> [--seed <n>] [--soup-size <n>] [--density <d>] [--size <n>]"
+					+ " [--rule <rule>] [--max-generations <n>] [--cycle-history <n>] [--threads <n>] [--output <file>]");
+			System.exit(2);
+		}
+		try {
+			search.run();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+			switch (option) {
+			case "--soups":
+				soups = parseLong(option, value);
+				break;
+			case "--seed":
+				seed = parseLong(option, value);
+				break;
+			case "--soup-size":
+				soupSize = (int) parseLong(option, value);
+				break;
+			case "--density":
+				density = parseDouble(option, value);
+				break;
+			case "--size":
+				size = (int) parseLong(option, value);
+				break;
+			case "--rule":
+				rule = Rule.parse(value);
+				break;
+			case "--max-generations":
+				maxGenerations = parseLong(option, value);
+				break;
+			case "--cycle-history":
+				cycleHistory = (int) parseLong(option, value);
+				break;
+			case "--threads":
+				threads = (int) parseLong(option, value);
+				break;
+			case "--output":
+				output = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+		if (soups < 0) {
+			throw new IllegalArgumentException("--soups is required");
+		}
+		if (soupSize < 1 || size < soupSize || threads < 1 || cycleHistory < 1 || maxGenerations < 1) {
+			throw new IllegalArgumentException("Sizes, threads, history and generations must be at least 1"
+					+ " and the soup must fit the grid");
+		}
+		Soup.checkDensity(density);
+	}
+
+	private static long parseLong(String option, String value) {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a whole number for " + option + ": " + value);
+		}
+	}
+
+	private static double parseDouble(String option, String value) {
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+		}
+	}
+
+	private void run() throws IOException {
+		System.out.println("search seed:     " + seed);
+		List<Callable<Best>> workers = new ArrayList<>(threads);
+		for (int i = 0; i < threads; i++) {
+			workers.add(this::work);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "soup-search-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Best best = new Best();
+		long start = System.nanoTime();
+		try (Writer out = Files.newBufferedWriter(Paths.get(output), StandardCharsets.US_ASCII)) {
+			results = out;
+			out.write("index,seed,lifespan,period,population\n");
+			for (Future<Best> worker : pool.invokeAll(workers)) {
+				Best found = worker.get();
+				best.settled += found.settled;
+				if (found.lifespan > best.lifespan || (found.lifespan == best.lifespan && found.index < best.index)) {
+					best.index = found.index;
+					best.seed = found.seed;
+					best.lifespan = found.lifespan;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while searching", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException("Worker failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println("soups:           " + soups + " (" + best.settled + " settled within " + maxGenerations
+				+ " generations)");
+		System.out.println("wall time:       " + String.format("%.3f s", seconds));
+		System.out.println("soups/hour:      " + String.format("%.4g", soups / seconds * 3600));
+		if (best.index >= 0) {
+			System.out.println("longest lived:   soup " + best.index + ", seed " + best.seed + ", settled at generation "
+					+ best.lifespan);
+			System.out.println("run it with:     java Batch --soup " + best.seed + " --soup-size " + soupSize + " --density "
+					+ density + " --size " + size + " --rule " + rule + " --generations " + best.lifespan);
+		}
+		System.out.println("results:         " + output);
+	}
+
+	/*
+	 * run soups until there are none left, on one recycled universe
+	 */
+	private Best work() throws IOException {
+		LifeEngine universe = new LifeEngine(size, size);
+		universe.setRule(rule);
+		CycleDetector cycles = new CycleDetector(cycleHistory);
+		Best best = new Best();
+		StringBuilder line = new StringBuilder();
+		for (long index = next.getAndIncrement(); index < soups; index = next.getAndIncrement()) {
+			long soupSeed = Soup.seed(seed, index);
+			universe.clear();
+			Soup.fillCentred(universe, size, size, soupSize, soupSize, soupSeed, density);
+			cycles.reset();
+			long generation = 0;
+			cycles.record(generation, universe.getHash());
+			while (!cycles.isConfirmed() && generation < maxGenerations) {
+				universe.step();
+				cycles.record(++generation, universe.getHash());
+			}
+			long lifespan = cycles.getStart();
+			if (lifespan >= 0) {
+				best.settled++;
+				if (lifespan > best.lifespan) {
+					best.index = index;
+					best.seed = soupSeed;
+					best.lifespan = lifespan;
+				}
+			}
+			line.setLength(0);
+			line.append(index).append(',').append(soupSeed).append(',').append(lifespan).append(',')
+					.append(cycles.getPeriod()).append(',').append(universe.getPopulation()).append('\n');
+			synchronized (results) {
+				results.append(line);
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,65 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+
+import javax.swing.JComponent;
+
+/*
+ * small graph of the population over the generations a PopulationHistory
+ * holds, scaled to its lowest and highest population. Painting copies the
+ * populations into buffers made once, so repainting it every frame allocates
+ * nothing, and one point is drawn per pixel column however long the history is.
+ */
+public class Sparkline extends JComponent {
+	private final PopulationHistory history;
+	private final long[] populations;
+	private int[] xs = new int[0], ys = new int[0];
+	private final Color lineColor;
+
+	public Sparkline(PopulationHistory history, Color lineColor) {
+		this.history = history;
+		this.lineColor = lineColor;
+		populations = new long[history.getCapacity()];
+		setPreferredSize(new Dimension(200, 25));
+		setMaximumSize(new Dimension(200, 25));
+		setToolTipText("Population");
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		super.paintComponent(g);
+		int size = history.copyPopulations(populations);
+		int width = getWidth(), height = getHeight() - 2;
+		if (size == 0 || width < 2 || height < 1) {
+			return;
+		}
+		long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+		for (int i = 0; i < size; i++) {
+			min = Math.min(min, populations[i]);
+			max = Math.max(max, populations[i]);
+		}
+		// with more records than pixels they're sampled one per column
+		int points = Math.min(size, width);
+		if (xs.length < points) {
+			xs = new int[width];
+			ys = new int[width];
+		}
+		double range = Math.max(1, max - min);
+		for (int p = 0; p < points; p++) {
+			int i = points == 1 ? size - 1 : (int) ((long) p * (size - 1) / (points - 1));
+			xs[p] = points == 1 ? width - 1 : (int) ((long) p * (width - 1) / (points - 1));
+			ys[p] = 1 + height - 1 - (int) Math.round((populations[i] - min) / range * (height - 1));
+		}
+		Graphics2D g2 = (Graphics2D) g;
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2.setColor(lineColor);
+		if (points == 1) {
+			g2.fillRect(xs[0] - 1, ys[0] - 1, 2, 2);
+		}
+		else {
+			g2.drawPolyline(xs, ys, points);
+		}
+	}
+}
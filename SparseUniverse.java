@@ -0,0 +1,667 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/*
+ * unbounded universe made of 64x64 tiles that only exist where there are live
+ * cells. Tiles are kept in an open addressing hash map keyed by their packed
+ * tile coordinates (no boxing), created the first time a cell in them comes to
+ * life and dropped again once they are empty and stay so, so memory and step
+ * time grow with the population rather than with the area the pattern has
+ * spread over.
+ *
+ * Every tile also keeps which of its rows and columns changed in the last
+ * generation or were edited since. A tile only changes if one of the 3x3 tiles
+ * around it did, so a step only recomputes the tiles next to a change and still
+ * lifes cost nothing once they have settled. The changed rows of all tiles are
+ * what isRowChanged() reports. Tiles keep their live rows and columns the same
+ * way, so getBounds() only combines those.
+ */
+public class SparseUniverse implements Universe {
+	static final int TILE_SHIFT = 6;
+	static final int TILE_SIZE = 1 << TILE_SHIFT;
+	// a tile is its TILE_SIZE rows followed by a bit per row that changed, the
+	// changed cells of all rows ORed together, a bit per row with live cells and
+	// all rows ORed together
+	private static final int CHANGED_ROWS = TILE_SIZE, CHANGED_COLUMNS = TILE_SIZE + 1;
+	private static final int LIVE_ROWS = TILE_SIZE + 2, LIVE_COLUMNS = TILE_SIZE + 3;
+	private static final int TILE_LONGS = TILE_SIZE + 4;
+	// spare tiles kept beyond twice the live ones, so a small pattern doesn't allocate every step
+	private static final int SPARE_TILES = 64;
+
+	private TileMap tiles, nextTiles;
+	// emptied tiles waiting to be reused instead of allocating new arrays, at most
+	// twice as many as there are live tiles plus SPARE_TILES
+	private final ArrayDeque<long[]> spareTiles;
+	// tiles that could change in the next generation (keys only)
+	private final TileMap candidates;
+	// tiles with changed rows (keys only), and the changed rows of each row of tiles
+	// keyed by key(0, ty)
+	private TileMap changedTiles, changedRows;
+	// the rows of the tile being stepped and of its west and east neighbours,
+	// with one extra row above and below from the neighbouring tiles
+	private final long[] westRows, rows, eastRows;
+	// cells born or died in the last generation, and how many of them were born
+	private long changedCells, births;
+	// live cells, kept up to date as tile rows change
+	private long population;
+	// Universe.hashWord() of every tile row XORed together, rows numbered by tile
+	// key and row within the tile
+	private long hash;
+	private Rule rule;
+	private long generation;
+
+	public SparseUniverse() {
+		tiles = new TileMap();
+		nextTiles = new TileMap();
+		candidates = new TileMap();
+		changedTiles = new TileMap();
+		changedRows = new TileMap();
+		spareTiles = new ArrayDeque<>();
+		westRows = new long[TILE_SIZE + 2];
+		rows = new long[TILE_SIZE + 2];
+		eastRows = new long[TILE_SIZE + 2];
+		rule = Rule.CONWAY;
+		generation = 0;
+	}
+
+	// getters
+	public long getGeneration() {
+		return generation;
+	}
+
+	public long getChangedCells() {
+		return changedCells;
+	}
+
+	public long getBirths() {
+		return births;
+	}
+
+	/*
+	 * the bounding box only takes a look at each live tile
+	 */
+	public boolean hasBounds() {
+		return true;
+	}
+
+	public Rule getRule() {
+		return rule;
+	}
+
+	/*
+	 * step with another rule from the next generation on. Rules with B0 would
+	 * fill the whole plane, so they are refused.
+	 */
+	public void setRule(Rule rule) {
+		if (rule.isBornFromNothing()) {
+			throw new IllegalArgumentException("The sparse engine can't run " + rule + " on an unbounded plane");
+		}
+		if (!rule.equals(this.rule)) {
+			// a settled tile can change under another rule
+			for (int i = 0; i < tiles.capacity(); i++) {
+				long[] tile = tiles.valueAt(i);
+				if (tile != null) {
+					tile[CHANGED_ROWS] = -1L;
+					tile[CHANGED_COLUMNS] = -1L;
+					changedTiles.putIfAbsent(tiles.keyAt(i));
+					markRows(tiles.keyAt(i), -1L);
+				}
+			}
+		}
+		this.rule = rule;
+	}
+
+	/*
+	 * true if a cell in the row changed in the last generation or was edited since
+	 */
+	public boolean isRowChanged(int y) {
+		long[] rows = changedRows.get(key(0, y >> TILE_SHIFT));
+		return rows != null && (rows[0] & (1L << y)) != 0;
+	}
+
+	public boolean hasRowChanges() {
+		return true;
+	}
+
+	/*
+	 * the changed rows of a row of tiles, read from each tile's own
+	 */
+	public long getChangedRows(int x, int y, int length) {
+		if (((x | y | length) & (TILE_SIZE - 1)) != 0) {
+			return Universe.super.getChangedRows(x, y, length);
+		}
+		long rows = 0;
+		for (int tx = x >> TILE_SHIFT; tx < (x >> TILE_SHIFT) + (length >> TILE_SHIFT); tx++) {
+			long[] tile = tiles.get(key(tx, y >> TILE_SHIFT));
+			if (tile != null) {
+				rows |= tile[CHANGED_ROWS];
+			}
+		}
+		return rows;
+	}
+
+	public boolean hasHash() {
+		return true;
+	}
+
+	public long getHash() {
+		return hash;
+	}
+
+	public int getTileCount() {
+		return tiles.size();
+	}
+
+	/*
+	 * smallest rectangle holding every live cell as {minX, minY, maxX, maxY}
+	 * (inclusive), or null if there are none. Each tile gives its own from its
+	 * live rows and columns.
+	 */
+	public int[] getBounds() {
+		int[] bounds = null;
+		for (int i = 0; i < tiles.capacity(); i++) {
+			long[] tile = tiles.valueAt(i);
+			if (tile == null || tile[LIVE_ROWS] == 0) {
+				continue;
+			}
+			long key = tiles.keyAt(i);
+			int left = tileX(key) << TILE_SHIFT, top = tileY(key) << TILE_SHIFT;
+			long columns = tile[LIVE_COLUMNS], liveRows = tile[LIVE_ROWS];
+			int minRow = Long.numberOfTrailingZeros(liveRows), maxRow = 63 - Long.numberOfLeadingZeros(liveRows);
+			int minX = left + Long.numberOfTrailingZeros(columns), maxX = left + 63 - Long.numberOfLeadingZeros(columns);
+			if (bounds == null) {
+				bounds = new int[] {minX, top + minRow, maxX, top + maxRow};
+			}
+			else {
+				bounds[0] = Math.min(bounds[0], minX);
+				bounds[1] = Math.min(bounds[1], top + minRow);
+				bounds[2] = Math.max(bounds[2], maxX);
+				bounds[3] = Math.max(bounds[3], top + maxRow);
+			}
+		}
+		return bounds;
+	}
+
+	/*
+	 * live cells, kept up to date as they change
+	 */
+	public long getPopulation() {
+		return population;
+	}
+
+	public boolean get(int x, int y) {
+		long[] tile = tiles.get(key(x >> TILE_SHIFT, y >> TILE_SHIFT));
+		return tile != null && (tile[y & (TILE_SIZE - 1)] & (1L << x)) != 0;
+	}
+
+	/*
+	 * 64 cells starting at column x, one row of a tile when x is on a tile boundary
+	 */
+	public long getWord(int x, int y) {
+		if ((x & (TILE_SIZE - 1)) != 0) {
+			return Universe.super.getWord(x, y);
+		}
+		long[] tile = tiles.get(key(x >> TILE_SHIFT, y >> TILE_SHIFT));
+		return tile == null ? 0 : tile[y & (TILE_SIZE - 1)];
+	}
+
+	public void set(int x, int y, boolean alive) {
+		long key = key(x >> TILE_SHIFT, y >> TILE_SHIFT);
+		long[] tile = tiles.get(key);
+		if (alive) {
+			if (tile == null) {
+				tile = newTile();
+				tiles.put(key, tile);
+			}
+			updateRow(key, tile, y & (TILE_SIZE - 1), tile[y & (TILE_SIZE - 1)] | (1L << x));
+		}
+		else if (tile != null) {
+			// an emptied tile stays until the next step, which drops it
+			updateRow(key, tile, y & (TILE_SIZE - 1), tile[y & (TILE_SIZE - 1)] & ~(1L << x));
+		}
+	}
+
+	/*
+	 * make a run of cells alive, filling whole spans of a tile row at once
+	 */
+	public void setRun(int x, int y, int length) {
+		int end = x + length;
+		for (int from = x; from < end; ) {
+			int to = Math.min(end, ((from >> TILE_SHIFT) + 1) << TILE_SHIFT);
+			long key = key(from >> TILE_SHIFT, y >> TILE_SHIFT);
+			long[] tile = tiles.get(key);
+			if (tile == null) {
+				tile = newTile();
+				tiles.put(key, tile);
+			}
+			int bits = to - from, row = y & (TILE_SIZE - 1);
+			updateRow(key, tile, row, tile[row] | (bits == 64 ? -1L : (1L << bits) - 1) << from);
+			from = to;
+		}
+	}
+
+	/*
+	 * make a run of cells dead, clearing whole spans of a tile row at once
+	 */
+	public void clearRun(int x, int y, int length) {
+		int end = x + length;
+		for (int from = x; from < end; ) {
+			int to = Math.min(end, ((from >> TILE_SHIFT) + 1) << TILE_SHIFT);
+			long key = key(from >> TILE_SHIFT, y >> TILE_SHIFT);
+			long[] tile = tiles.get(key);
+			if (tile != null) {
+				int bits = to - from, row = y & (TILE_SIZE - 1);
+				updateRow(key, tile, row, tile[row] & ~((bits == 64 ? -1L : (1L << bits) - 1) << from));
+			}
+			from = to;
+		}
+	}
+
+	public void clear() {
+		tiles = new TileMap();
+		nextTiles = new TileMap();
+		changedTiles = new TileMap();
+		changedRows = new TileMap();
+		spareTiles.clear();
+		changedCells = 0;
+		births = 0;
+		population = 0;
+		hash = 0;
+		generation = 0;
+	}
+
+	public void advance(long generations) {
+		for (long i = 0; i < generations; i++) {
+			step();
+		}
+	}
+
+	/*
+	 * advance the universe by one generation
+	 */
+	public void step() {
+		// a tile can only change if a tile of its 3x3 neighbourhood changed, and a
+		// neighbour only if the change touched the edge they share
+		candidates.clear();
+		for (int i = 0; i < changedTiles.capacity(); i++) {
+			if (!changedTiles.isUsed(i)) {
+				continue;
+			}
+			long key = changedTiles.keyAt(i);
+			long[] tile = tiles.get(key);
+			int tx = tileX(key), ty = tileY(key);
+			long rows = tile[CHANGED_ROWS], columns = tile[CHANGED_COLUMNS];
+			boolean north = (rows & 1L) != 0, south = (rows >>> 63) != 0;
+			boolean west = (columns & 1L) != 0, east = (columns >>> 63) != 0;
+			candidates.putIfAbsent(key);
+			if (north) {
+				candidates.putIfAbsent(key(tx, ty - 1));
+			}
+			if (south) {
+				candidates.putIfAbsent(key(tx, ty + 1));
+			}
+			if (west) {
+				candidates.putIfAbsent(key(tx - 1, ty));
+			}
+			if (east) {
+				candidates.putIfAbsent(key(tx + 1, ty));
+			}
+			if (north && west) {
+				candidates.putIfAbsent(key(tx - 1, ty - 1));
+			}
+			if (north && east) {
+				candidates.putIfAbsent(key(tx + 1, ty - 1));
+			}
+			if (south && west) {
+				candidates.putIfAbsent(key(tx - 1, ty + 1));
+			}
+			if (south && east) {
+				candidates.putIfAbsent(key(tx + 1, ty + 1));
+			}
+		}
+
+		// the tiles that change, computed from the old generation before any is replaced
+		nextTiles.clear();
+		changedCells = 0;
+		births = 0;
+		for (int i = 0; i < candidates.capacity(); i++) {
+			if (candidates.isUsed(i)) {
+				long key = candidates.keyAt(i);
+				long[] next = stepTile(key);
+				if (next != null) {
+					nextTiles.put(key, next);
+				}
+			}
+		}
+
+		// tiles that changed last generation and not in this one have settled, empty ones are dropped
+		for (int i = 0; i < changedTiles.capacity(); i++) {
+			if (changedTiles.isUsed(i) && nextTiles.get(changedTiles.keyAt(i)) == null) {
+				long key = changedTiles.keyAt(i);
+				long[] tile = tiles.get(key);
+				tile[CHANGED_ROWS] = 0;
+				tile[CHANGED_COLUMNS] = 0;
+				if (isEmpty(tile)) {
+					tiles.remove(key);
+					recycle(tile);
+				}
+			}
+		}
+		changedRows.clear();
+		for (int i = 0; i < nextTiles.capacity(); i++) {
+			long[] next = nextTiles.valueAt(i);
+			if (next != null) {
+				long key = nextTiles.keyAt(i);
+				long[] old = tiles.get(key);
+				tiles.put(key, next);
+				if (old != null) {
+					recycle(old);
+				}
+				markRows(key, next[CHANGED_ROWS]);
+			}
+		}
+		// the tiles that changed are the ones to look around next generation
+		TileMap swap = changedTiles;
+		changedTiles = nextTiles;
+		nextTiles = swap;
+		while (spareTiles.size() > 2 * tiles.size() + SPARE_TILES) {
+			spareTiles.pop();
+		}
+		population += births - (changedCells - births);
+		generation++;
+	}
+
+	/*
+	 * next generation of one tile with its changed rows and columns, null if no
+	 * cell in it changes
+	 */
+	private long[] stepTile(long key) {
+		int tx = tileX(key), ty = tileY(key);
+		gatherColumn(tx - 1, ty, westRows);
+		gatherColumn(tx, ty, rows);
+		gatherColumn(tx + 1, ty, eastRows);
+		long[] next = null;
+		long changedRows = 0, changedColumns = 0, liveRows = 0, liveColumns = 0;
+		for (int r = 1; r <= TILE_SIZE; r++) {
+			long u = rows[r - 1], m = rows[r], d = rows[r + 1];
+			long word = rule.evolve(
+					(u << 1) | (westRows[r - 1] >>> 63), u, (u >>> 1) | (eastRows[r - 1] << 63),
+					(m << 1) | (westRows[r] >>> 63), m, (m >>> 1) | (eastRows[r] << 63),
+					(d << 1) | (westRows[r + 1] >>> 63), d, (d >>> 1) | (eastRows[r + 1] << 63));
+			if (word != 0) {
+				liveRows |= 1L << (r - 1);
+				liveColumns |= word;
+			}
+			if (word != m) {
+				changedCells += Long.bitCount(word ^ m);
+				births += Long.bitCount(word & ~m);
+				hash ^= Universe.hashWord(position(key, r - 1), m) ^ Universe.hashWord(position(key, r - 1), word);
+				changedRows |= 1L << (r - 1);
+				changedColumns |= word ^ m;
+				if (next == null) {
+					// the rows above didn't change
+					next = newTile();
+					System.arraycopy(rows, 1, next, 0, r - 1);
+				}
+			}
+			if (next != null) {
+				next[r - 1] = word;
+			}
+		}
+		if (next != null) {
+			next[CHANGED_ROWS] = changedRows;
+			next[CHANGED_COLUMNS] = changedColumns;
+			next[LIVE_ROWS] = liveRows;
+			next[LIVE_COLUMNS] = liveColumns;
+		}
+		return next;
+	}
+
+	/*
+	 * copy a tile's rows into rows 1..64 of the buffer, with the bottom row of the
+	 * tile above in row 0 and the top row of the tile below in row 65
+	 */
+	private void gatherColumn(int tx, int ty, long[] buffer) {
+		long[] above = tiles.get(key(tx, ty - 1));
+		long[] tile = tiles.get(key(tx, ty));
+		long[] below = tiles.get(key(tx, ty + 1));
+		buffer[0] = above == null ? 0 : above[TILE_SIZE - 1];
+		if (tile == null) {
+			Arrays.fill(buffer, 1, TILE_SIZE + 1, 0);
+		}
+		else {
+			System.arraycopy(tile, 0, buffer, 1, TILE_SIZE);
+		}
+		buffer[TILE_SIZE + 1] = below == null ? 0 : below[0];
+	}
+
+	/*
+	 * replace one row of a tile, keeping the hash and the live rows and columns up
+	 * to date and marking the row as changed
+	 */
+	private void updateRow(long key, long[] tile, int row, long word) {
+		if (word == tile[row]) {
+			return;
+		}
+		hash ^= Universe.hashWord(position(key, row), tile[row]) ^ Universe.hashWord(position(key, row), word);
+		population += Long.bitCount(word) - Long.bitCount(tile[row]);
+		tile[CHANGED_ROWS] |= 1L << row;
+		tile[CHANGED_COLUMNS] |= tile[row] ^ word;
+		boolean killed = (tile[row] & ~word) != 0;
+		tile[row] = word;
+		if (word != 0) {
+			tile[LIVE_ROWS] |= 1L << row;
+		}
+		else {
+			tile[LIVE_ROWS] &= ~(1L << row);
+		}
+		if (killed) {
+			// a column can only be dropped once no row has a cell in it
+			long columns = 0;
+			for (long rows = tile[LIVE_ROWS]; rows != 0; rows &= rows - 1) {
+				columns |= tile[Long.numberOfTrailingZeros(rows)];
+			}
+			tile[LIVE_COLUMNS] = columns;
+		}
+		else {
+			tile[LIVE_COLUMNS] |= word;
+		}
+		changedTiles.putIfAbsent(key);
+		markRows(key, 1L << row);
+	}
+
+	/*
+	 * note rows of the tile as changed for isRowChanged()
+	 */
+	private void markRows(long key, long rows) {
+		long rowKey = key(0, tileY(key));
+		long[] changed = changedRows.get(rowKey);
+		if (changed == null) {
+			changed = new long[1];
+			changedRows.put(rowKey, changed);
+		}
+		changed[0] |= rows;
+	}
+
+	/*
+	 * number of a tile row for the hash. Tiles 2^26 apart share numbers, which
+	 * only makes a clash of hashes a little less unlikely.
+	 */
+	private static long position(long key, int row) {
+		return key * TILE_SIZE + row;
+	}
+
+	/*
+	 * keep an emptied tile for newTile() unless there are enough spares already
+	 */
+	private void recycle(long[] tile) {
+		if (spareTiles.size() < 2 * tiles.size() + SPARE_TILES) {
+			spareTiles.push(tile);
+		}
+	}
+
+	private long[] newTile() {
+		long[] tile = spareTiles.poll();
+		if (tile == null) {
+			return new long[TILE_LONGS];
+		}
+		Arrays.fill(tile, 0);
+		return tile;
+	}
+
+	private static boolean isEmpty(long[] tile) {
+		return tile[LIVE_ROWS] == 0;
+	}
+
+	static long key(int tx, int ty) {
+		return ((long) tx << 32) | (ty & 0xFFFFFFFFL);
+	}
+
+	static int tileX(long key) {
+		return (int) (key >> 32);
+	}
+
+	static int tileY(long key) {
+		return (int) key;
+	}
+
+	/*
+	 * open addressing hash map from packed tile coordinates to tile rows, using
+	 * linear probing and backward shift deletion so no tombstones build up
+	 */
+	static final class TileMap {
+		// marks a slot that holds a key but no tile (used by the candidate set)
+		private static final long[] NO_TILE = new long[0];
+		private long[] keys;
+		private long[][] values;
+		private int size;
+
+		TileMap() {
+			keys = new long[64];
+			values = new long[64][];
+		}
+
+		int size() {
+			return size;
+		}
+
+		int capacity() {
+			return keys.length;
+		}
+
+		boolean isUsed(int slot) {
+			return values[slot] != null;
+		}
+
+		long keyAt(int slot) {
+			return keys[slot];
+		}
+
+		/*
+		 * tile stored in the slot, null for empty slots and key-only entries
+		 */
+		long[] valueAt(int slot) {
+			long[] value = values[slot];
+			return value == NO_TILE ? null : value;
+		}
+
+		long[] get(long key) {
+			int mask = keys.length - 1;
+			for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+				if (keys[slot] == key) {
+					return valueAt(slot);
+				}
+			}
+			return null;
+		}
+
+		void put(long key, long[] value) {
+			int mask = keys.length - 1;
+			int slot = hash(key) & mask;
+			while (values[slot] != null) {
+				if (keys[slot] == key) {
+					values[slot] = value;
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = key;
+			values[slot] = value;
+			if (++size * 2 > keys.length) {
+				grow();
+			}
+		}
+
+		/*
+		 * add the key without a tile unless it's already present
+		 */
+		void putIfAbsent(long key) {
+			int mask = keys.length - 1;
+			for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+				if (keys[slot] == key) {
+					return;
+				}
+			}
+			put(key, NO_TILE);
+		}
+
+		void remove(long key) {
+			int mask = keys.length - 1;
+			int slot = hash(key) & mask;
+			while (values[slot] != null && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			if (values[slot] == null) {
+				return;
+			}
+			// shift later entries of the probe sequence back into the gap
+			int gap = slot;
+			for (int next = (gap + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+				int home = hash(keys[next]) & mask;
+				if (((next - home) & mask) >= ((next - gap) & mask)) {
+					keys[gap] = keys[next];
+					values[gap] = values[next];
+					gap = next;
+				}
+			}
+			values[gap] = null;
+			size--;
+		}
+
+		/*
+		 * empty the map, and if it held fewer than an eighth of its slots start
+		 * again with a table sized for that many, so after a pattern dies down the
+		 * loops over capacity() cost what's left of it and not its peak
+		 */
+		void clear() {
+			if (keys.length > 64 && size * 8 < keys.length) {
+				int capacity = size == 0 ? 64 : Math.max(64, Integer.highestOneBit(size * 4 - 1) << 1);
+				keys = new long[capacity];
+				values = new long[capacity][];
+				size = 0;
+			}
+			else if (size > 0) {
+				Arrays.fill(values, null);
+				size = 0;
+			}
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			long[][] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			values = new long[oldKeys.length * 2][];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldValues[i] != null) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+
+		private static int hash(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+}
@@ -0,0 +1,420 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+ * one tile of a torus split over several JVMs by Cluster. The worker keeps its
+ * tile in a LifeEngine two cells wider and taller than the tile, with a ring of
+ * halo cells around the interior that mirror the edge cells of the eight tiles
+ * around it. Before every generation each worker sends each neighbouring worker
+ * the edge cells that worker needs, all of them in one message per neighbour (two
+ * tiles can be neighbours on several sides), then fills its own halo from what it
+ * got, so the interior steps exactly as the same cells of one big universe. The
+ * halo itself steps to nonsense on the engine's own torus, which doesn't matter
+ * since it's replaced before the next generation.
+ *
+ * Messages between workers go over their own sockets, one connection each way
+ * per pair. Each incoming connection has a reader thread that queues messages as
+ * they arrive, so sending everything before receiving can't stall on full socket
+ * buffers. The coordinator only hands out tiles and sends commands.
+ *
+ * Options:
+ *   --coordinator <host>:<port>   where Cluster is waiting for workers (required)
+ */
+public class TileWorker {
+	// commands from the coordinator
+	static final int LOAD = 1, ADVANCE = 2, SNAPSHOT = 3, QUIT = 4;
+	// the eight neighbouring tiles as steps across and down, the opposite of
+	// direction d is 7 - d
+	private static final int[] DX = { -1, 0, 1, -1, 1, -1, 0, 1 };
+	private static final int[] DY = { -1, -1, -1, 0, 0, 1, 1, 1 };
+	// queued by a reader thread when its connection is lost
+	private static final long[] CLOSED = new long[0];
+	private final Socket control;
+	private int tile, tilesX, tilesY, gridWidth, gridHeight, left, top, width, height;
+	private LifeEngine engine;
+	// the distinct neighbouring tiles, this one included when it wraps onto itself
+	private final List<Peer> peers = new ArrayList<>();
+	private final Bits outgoing = new Bits(), incoming = new Bits();
+	private volatile boolean closing;
+
+	/*
+	 * a neighbouring tile and the directions it lies in from this one
+	 */
+	private class Peer {
+		final int tile;
+		final int[] directions;
+		final BlockingQueue<long[]> messages = new LinkedBlockingQueue<>();
+		Socket socket;
+		DataOutputStream out;
+
+		Peer(int tile, int[] directions) {
+			this.tile = tile;
+			this.directions = directions;
+		}
+
+		void send(Bits bits) throws IOException {
+			if (tile == TileWorker.this.tile) {
+				messages.add(bits.copy());
+				return;
+			}
+			int words = bits.words();
+			ByteBuffer bytes = ByteBuffer.allocate(words * 8);
+			bytes.asLongBuffer().put(bits.words, 0, words);
+			out.writeInt(words);
+			out.write(bytes.array());
+			out.flush();
+		}
+
+		long[] receive() throws IOException, InterruptedException {
+			long[] message = messages.take();
+			if (message == CLOSED) {
+				throw new IOException("Lost the connection to tile " + tile);
+			}
+			return message;
+		}
+
+		/*
+		 * queue every message from the peer until the connection closes
+		 */
+		void read(DataInputStream in) {
+			try {
+				while (true) {
+					int first = in.read();
+					if (first < 0) {
+						// the neighbour closed between messages, which is how it quits
+						break;
+					}
+					int words = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedShort();
+					byte[] bytes = new byte[words * 8];
+					in.readFully(bytes);
+					long[] message = new long[words];
+					ByteBuffer.wrap(bytes).asLongBuffer().get(message);
+					messages.add(message);
+				}
+			} catch (IOException e) {
+				if (!closing) {
+					e.printStackTrace();
+				}
+			}
+			messages.add(CLOSED);
+		}
+	}
+
+	/*
+	 * cells packed one after another, written and then read back from the start
+	 */
+	private static class Bits {
+		long[] words = new long[16];
+		int length, position;
+
+		void clear() {
+			Arrays.fill(words, 0, words(), 0);
+			length = 0;
+		}
+
+		int words() {
+			return (length + 63) >>> 6;
+		}
+
+		/*
+		 * add the low count bits of bits, count is 1 to 64 and the rest of bits is clear
+		 */
+		void append(long bits, int count) {
+			int index = length >>> 6, offset = length & 63;
+			if (index + 1 >= words.length) {
+				words = Arrays.copyOf(words, words.length * 2);
+			}
+			words[index] |= bits << offset;
+			if (offset + count > 64) {
+				words[index + 1] |= bits >>> (64 - offset);
+			}
+			length += count;
+		}
+
+		void wrap(long[] message) {
+			words = message;
+			position = 0;
+		}
+
+		long read(int count) {
+			int index = position >>> 6, offset = position & 63;
+			long bits = words[index] >>> offset;
+			if (offset + count > 64) {
+				bits |= words[index + 1] << (64 - offset);
+			}
+			position += count;
+			return count == 64 ? bits : bits & ((1L << count) - 1);
+		}
+
+		long[] copy() {
+			return Arrays.copyOf(words, words());
+		}
+	}
+
+	private TileWorker(Socket control) {
+		this.control = control;
+	}
+
+	public static void main(String[] args) {
+		String coordinator = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--coordinator")) {
+				coordinator = args[i + 1];
+			}
+		}
+		int split = coordinator == null ? -1 : coordinator.lastIndexOf(':');
+		if (split < 0 || args.length != 2) {
+			System.err.println("usage: java TileWorker --coordinator <host>:<port>");
+			System.exit(2);
+		}
+		try (Socket control = new Socket(coordinator.substring(0, split), Integer.parseInt(coordinator.substring(split + 1)))) {
+			new TileWorker(control).run();
+		} catch (IOException | NumberFormatException e) {
+			e.printStackTrace();
+			System.exit(1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.exit(1);
+		}
+	}
+
+	private void run() throws IOException, InterruptedException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(control.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(control.getOutputStream()));
+		// peers connect on the address the coordinator reached this worker on
+		try (ServerSocket server = new ServerSocket(0, 50, control.getLocalAddress())) {
+			out.writeInt(server.getLocalPort());
+			out.flush();
+			configure(in);
+			connect(server, in);
+		}
+		try {
+			while (true) {
+				int command = in.readInt();
+				switch (command) {
+				case LOAD:
+					load(in);
+					out.writeLong(getPopulation());
+					break;
+				case ADVANCE:
+					long generations = in.readLong();
+					for (long i = 0; i < generations; i++) {
+						exchange();
+						engine.step();
+					}
+					out.writeLong(engine.getGeneration());
+					out.writeLong(getPopulation());
+					break;
+				case SNAPSHOT:
+					writeTile(out);
+					break;
+				case QUIT:
+					return;
+				default:
+					throw new IOException("Unknown command " + command);
+				}
+				out.flush();
+			}
+		} finally {
+			closing = true;
+			engine.shutdown();
+			for (Peer peer : peers) {
+				if (peer.socket != null) {
+					peer.socket.close();
+				}
+			}
+		}
+	}
+
+	/*
+	 * the tile this worker owns and the rule, from the coordinator
+	 */
+	private void configure(DataInputStream in) throws IOException {
+		tile = in.readInt();
+		tilesX = in.readInt();
+		tilesY = in.readInt();
+		gridWidth = in.readInt();
+		gridHeight = in.readInt();
+		int threads = in.readInt();
+		Rule rule = Rule.parse(in.readUTF());
+		int tileX = tile % tilesX, tileY = tile / tilesX;
+		left = tileStart(gridWidth, tilesX, tileX);
+		top = tileStart(gridHeight, tilesY, tileY);
+		width = tileStart(gridWidth, tilesX, tileX + 1) - left;
+		height = tileStart(gridHeight, tilesY, tileY + 1) - top;
+		engine = new LifeEngine(width + 2, height + 2);
+		engine.setThreads(threads);
+		engine.setRule(rule);
+		for (int neighbour = 0; neighbour < tilesX * tilesY; neighbour++) {
+			int[] directions = new int[8];
+			int count = 0;
+			for (int d = 0; d < 8; d++) {
+				if (neighbour(d) == neighbour) {
+					directions[count++] = d;
+				}
+			}
+			if (count > 0) {
+				peers.add(new Peer(neighbour, Arrays.copyOf(directions, count)));
+			}
+		}
+	}
+
+	/*
+	 * open a connection to every other neighbouring worker and take one from each.
+	 * Every worker is already listening when the coordinator sends out the
+	 * addresses, so connecting first and accepting after can't wait on each other.
+	 */
+	private void connect(ServerSocket server, DataInputStream in) throws IOException {
+		String[] hosts = new String[tilesX * tilesY];
+		int[] ports = new int[hosts.length];
+		for (int i = 0; i < hosts.length; i++) {
+			hosts[i] = in.readUTF();
+			ports[i] = in.readInt();
+		}
+		int others = 0;
+		for (Peer peer : peers) {
+			if (peer.tile == tile) {
+				continue;
+			}
+			peer.socket = new Socket(hosts[peer.tile], ports[peer.tile]);
+			peer.socket.setTcpNoDelay(true);
+			peer.out = new DataOutputStream(new BufferedOutputStream(peer.socket.getOutputStream(), 1 << 16));
+			peer.out.writeInt(tile);
+			peer.out.flush();
+			others++;
+		}
+		for (int i = 0; i < others; i++) {
+			Socket socket = server.accept();
+			socket.setTcpNoDelay(true);
+			DataInputStream peerIn = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			int from = peerIn.readInt();
+			Peer peer = peers.stream().filter(p -> p.tile == from).findFirst()
+					.orElseThrow(() -> new IOException("Tile " + from + " isn't next to tile " + tile));
+			Thread reader = new Thread(() -> peer.read(peerIn), "tile-" + tile + "-from-" + from);
+			reader.setDaemon(true);
+			reader.start();
+		}
+	}
+
+	/*
+	 * first column (or row) of tile index when size cells are split into tiles
+	 */
+	static int tileStart(int size, int tiles, int index) {
+		return (int) ((long) size * index / tiles);
+	}
+
+	/*
+	 * the tile in direction d from this one, wrapping round the torus
+	 */
+	private int neighbour(int d) {
+		int x = Math.floorMod(tile % tilesX + DX[d], tilesX), y = Math.floorMod(tile / tilesX + DY[d], tilesY);
+		return y * tilesX + x;
+	}
+
+	/*
+	 * stamp the pattern and or soup in the middle of the whole grid, keeping the
+	 * cells that fall on this tile. Cells landing on the halo belong to a neighbour
+	 * and are replaced by the first exchange.
+	 */
+	private void load(DataInputStream in) throws IOException {
+		String pattern = in.readUTF();
+		boolean soup = in.readBoolean();
+		long seed = in.readLong();
+		int soupSize = in.readInt();
+		double density = in.readDouble();
+		engine.clear();
+		if (!pattern.isEmpty()) {
+			PatternLibrary library = new PatternLibrary();
+			Pattern loaded = library.contains(pattern) ? library.get(pattern) : library.load(new File(pattern));
+			loaded.apply(engine, gridWidth / 2 - loaded.getWidth() / 2 - left + 1,
+					gridHeight / 2 - loaded.getHeight() / 2 - top + 1);
+		}
+		if (soup) {
+			Soup.fill(engine, gridWidth / 2 - soupSize / 2 - left + 1, gridHeight / 2 - soupSize / 2 - top + 1, soupSize,
+					soupSize, seed, density);
+		}
+	}
+
+	/*
+	 * trade edge cells with every neighbour and fill the halo from theirs
+	 */
+	private void exchange() throws IOException, InterruptedException {
+		for (Peer peer : peers) {
+			outgoing.clear();
+			for (int d : peer.directions) {
+				// the interior cells along the side facing direction d
+				pack(DX[d] > 0 ? width : 1, DY[d] > 0 ? height : 1, DX[d] == 0 ? width : 1, DY[d] == 0 ? height : 1);
+			}
+			peer.send(outgoing);
+		}
+		for (Peer peer : peers) {
+			incoming.wrap(peer.receive());
+			// the peer packed its directions towards this tile in order, which are
+			// the opposites of this tile's directions towards it in reverse order
+			for (int i = peer.directions.length - 1; i >= 0; i--) {
+				int d = peer.directions[i];
+				unpack(DX[d] < 0 ? 0 : DX[d] == 0 ? 1 : width + 1, DY[d] < 0 ? 0 : DY[d] == 0 ? 1 : height + 1,
+						DX[d] == 0 ? width : 1, DY[d] == 0 ? height : 1);
+			}
+		}
+	}
+
+	private void pack(int x, int y, int columns, int rows) {
+		for (int row = y; row < y + rows; row++) {
+			for (int column = 0; column < columns; column += 64) {
+				int count = Math.min(64, columns - column);
+				long mask = count == 64 ? -1L : (1L << count) - 1;
+				outgoing.append(engine.getWord(x + column, row) & mask, count);
+			}
+		}
+	}
+
+	private void unpack(int x, int y, int columns, int rows) {
+		for (int row = y; row < y + rows; row++) {
+			for (int column = 0; column < columns; column += 64) {
+				int count = Math.min(64, columns - column);
+				long mask = count == 64 ? -1L : (1L << count) - 1;
+				long word = engine.getWord(x + column, row);
+				engine.setWord(x + column, row, (word & ~mask) | incoming.read(count));
+			}
+		}
+	}
+
+	/*
+	 * live cells of the interior, the engine's count less the halo's
+	 */
+	private long getPopulation() {
+		long halo = 0;
+		for (int x = 0; x < width + 2; x += 64) {
+			halo += Long.bitCount(engine.getWord(x, 0)) + Long.bitCount(engine.getWord(x, height + 1));
+		}
+		for (int y = 1; y <= height; y++) {
+			halo += (engine.get(0, y) ? 1 : 0) + (engine.get(width + 1, y) ? 1 : 0);
+		}
+		return engine.getPopulation() - halo;
+	}
+
+	/*
+	 * the interior row by row, each row as its cells packed into whole words
+	 */
+	private void writeTile(DataOutputStream out) throws IOException {
+		for (int y = 1; y <= height; y++) {
+			for (int column = 0; column < width; column += 64) {
+				int count = Math.min(64, width - column);
+				out.writeLong(engine.getWord(1 + column, y) & (count == 64 ? -1L : (1L << count) - 1));
+			}
+		}
+	}
+}
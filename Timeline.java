@@ -0,0 +1,318 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * the last generations of a run kept in memory so they can be scrubbed through
+ * backwards and forwards without running anything again. Frames of a width x
+ * height window of the universe (starting at cell 0, 0) are coded by DeltaCodec
+ * like HistoryFile's: every keyframeInterval frames a whole frame, in between
+ * the XOR of a frame with the one before it. An XOR delta undoes itself, so
+ * stepping back a frame applies the same delta that stepped forward, and going
+ * further than that starts from the closest keyframe at or before the target.
+ *
+ * The coded frames go one after another into a ring of bytes of capped size,
+ * with a fixed number of index slots. Once either is full the oldest frames are
+ * dropped, up to the next keyframe so the oldest frame kept can be decoded.
+ * Recording only reads the rows isRowChanged() reports since the last frame,
+ * so a sparse pattern on a big grid costs the rows that changed.
+ *
+ * The simulation thread records while the GUI scrubs once it has stopped, every
+ * method is synchronized.
+ */
+public class Timeline {
+	private final int width, height, wordsPerRow, maxFrames, maxBytes, keyframeInterval;
+	private final long lastWordMask;
+	// grown up to maxBytes as it fills, so short runs and small grids don't take all of it
+	private byte[] ring;
+	// next byte of the ring to write to
+	private int head;
+	// index of the frames, frame i of getFrameCount() in slot (first + i) % maxFrames
+	private final long[] generations;
+	private final int[] offsets, lengths;
+	private final boolean[] keyframes;
+	private int first, frames;
+	// frame the universe was last set to, the last frame unless it was scrubbed
+	private int position;
+	// the frame at position, and a frame being captured or decoded
+	private long[] current, frame;
+	private ByteBuffer scratch;
+	private int deltasSinceKeyframe;
+	// universe generation of the last frame recorded, later frames only read the
+	// rows that changed if the universe has stepped once since
+	private long universeGeneration;
+	// set when current no longer matches the universe as recorded, the next
+	// frame then reads every row and is a keyframe
+	private boolean resync;
+	private final boolean enabled;
+
+	/*
+	 * a timeline of at most maxFrames frames and maxBytes bytes of coded frames.
+	 * It stays empty (see isEnabled()) if a whole frame might not fit in half of it.
+	 */
+	public Timeline(int width, int height, int maxFrames, int maxBytes, int keyframeInterval) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Grid must be at least 1x1, got " + width + "x" + height);
+		}
+		if (maxFrames < 1 || maxBytes < 1 || keyframeInterval < 1) {
+			throw new IllegalArgumentException("Frames, bytes and keyframe interval must be at least 1");
+		}
+		this.width = width;
+		this.height = height;
+		this.maxFrames = maxFrames;
+		this.maxBytes = maxBytes;
+		this.keyframeInterval = keyframeInterval;
+		wordsPerRow = (width + 63) >>> 6;
+		lastWordMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+		long words = (long) wordsPerRow * height;
+		enabled = words <= Integer.MAX_VALUE / 16 && DeltaCodec.maxEncodedBytes((int) words) <= maxBytes / 2;
+		ring = new byte[Math.min(maxBytes, 1 << 16)];
+		generations = new long[maxFrames];
+		offsets = new int[maxFrames];
+		lengths = new int[maxFrames];
+		keyframes = new boolean[maxFrames];
+	}
+
+	// getters
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/*
+	 * false if the grid is too big for the timeline's memory, nothing is recorded then
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public synchronized int getFrameCount() {
+		return frames;
+	}
+
+	/*
+	 * frame the universe was last set to by record() or seek()
+	 */
+	public synchronized int getPosition() {
+		return position;
+	}
+
+	/*
+	 * generation of the given frame, frames are in increasing generation order
+	 */
+	public synchronized long getGeneration(int index) {
+		if (index < 0 || index >= frames) {
+			throw new IndexOutOfBoundsException("Frame " + index + " of " + frames);
+		}
+		return generations[slot(index)];
+	}
+
+	/*
+	 * bytes of the ring holding coded frames
+	 */
+	public synchronized long getBytes() {
+		long bytes = 0;
+		for (int i = 0; i < frames; i++) {
+			bytes += lengths[slot(i)];
+		}
+		return bytes;
+	}
+
+	/*
+	 * forget every frame
+	 */
+	public synchronized void clear() {
+		frames = 0;
+		position = 0;
+		head = 0;
+		resync = true;
+	}
+
+	/*
+	 * add the window of the universe as the given generation. The frames after
+	 * the position are replaced, and so are the ones from the given generation on,
+	 * e.g. going on again from a frame that was scrubbed back to.
+	 */
+	public synchronized void record(Universe universe, long generation) {
+		if (!enabled) {
+			return;
+		}
+		while (frames > 0 && (frames - 1 > position || generations[slot(frames - 1)] >= generation)) {
+			frames--;
+			head = offsets[slot(frames)];
+			resync = true;
+		}
+		if (current == null) {
+			current = new long[wordsPerRow * height];
+			frame = new long[wordsPerRow * height];
+			scratch = ByteBuffer.allocate(DeltaCodec.maxEncodedBytes(current.length));
+		}
+		boolean full = resync || frames == 0 || universe.getGeneration() != universeGeneration + 1;
+		boolean keyframe = full || deltasSinceKeyframe + 1 >= keyframeInterval;
+		scratch.clear();
+		int skip = 0;
+		for (int y = 0; y < height; y++) {
+			int row = y * wordsPerRow;
+			if (!full && !universe.isRowChanged(y)) {
+				skip += wordsPerRow;
+				continue;
+			}
+			for (int k = 0; k < wordsPerRow; k++) {
+				frame[row + k] = universe.getWord(k << 6, y);
+			}
+			frame[row + wordsPerRow - 1] &= lastWordMask;
+			if (!keyframe) {
+				skip = DeltaCodec.encode(current, frame, row, row + wordsPerRow, skip, scratch);
+			}
+			System.arraycopy(frame, row, current, row, wordsPerRow);
+		}
+		if (keyframe) {
+			DeltaCodec.encode(null, current, scratch);
+		}
+		scratch.flip();
+		int length = scratch.remaining();
+		makeRoom(length);
+		if (frames == 0 && !keyframe) {
+			// every frame the delta was against had to go to make room for it
+			keyframe = true;
+			scratch.clear();
+			DeltaCodec.encode(null, current, scratch);
+			scratch.flip();
+			length = scratch.remaining();
+			makeRoom(length);
+		}
+		scratch.get(ring, head, length);
+		int slot = slot(frames);
+		generations[slot] = generation;
+		offsets[slot] = head;
+		lengths[slot] = length;
+		keyframes[slot] = keyframe;
+		frames++;
+		head += length;
+		deltasSinceKeyframe = keyframe ? 0 : deltasSinceKeyframe + 1;
+		position = frames - 1;
+		universeGeneration = universe.getGeneration();
+		resync = false;
+	}
+
+	/*
+	 * set the window of the universe to the given frame and return its
+	 * generation. Only the cells that differ from the frame it was at are set, and
+	 * cells outside the window are left as they are.
+	 */
+	public synchronized long seek(int index, Universe universe) {
+		if (index < 0 || index >= frames) {
+			throw new IndexOutOfBoundsException("Frame " + index + " of " + frames);
+		}
+		if (index == position) {
+			return generations[slot(index)];
+		}
+		int keyframe = keyframeAtOrBefore(index);
+		if (keyframe == keyframeAtOrBefore(position) && Math.abs(index - position) <= index - keyframe) {
+			// the same deltas step either way between frames after one keyframe
+			System.arraycopy(current, 0, frame, 0, current.length);
+			for (int i = Math.min(index, position) + 1; i <= Math.max(index, position); i++) {
+				apply(i, frame);
+			}
+		}
+		else {
+			Arrays.fill(frame, 0);
+			for (int i = keyframe; i <= index; i++) {
+				apply(i, frame);
+			}
+		}
+		for (int y = 0; y < height; y++) {
+			int row = y * wordsPerRow;
+			for (int k = 0; k < wordsPerRow; k++) {
+				for (long diff = frame[row + k] ^ current[row + k]; diff != 0; diff &= diff - 1) {
+					int bit = Long.numberOfTrailingZeros(diff);
+					universe.set((k << 6) + bit, y, (frame[row + k] & (1L << bit)) != 0);
+				}
+			}
+		}
+		long[] swap = current;
+		current = frame;
+		frame = swap;
+		position = index;
+		// the universe has been edited, the next frame recorded can't be a delta
+		resync = true;
+		return generations[slot(index)];
+	}
+
+	private int slot(int index) {
+		return (first + index) % maxFrames;
+	}
+
+	private int keyframeAtOrBefore(int index) {
+		while (!keyframes[slot(index)]) {
+			index--;
+		}
+		return index;
+	}
+
+	private void apply(int index, long[] into) {
+		int slot = slot(index);
+		DeltaCodec.apply(ByteBuffer.wrap(ring, offsets[slot], lengths[slot]), into);
+	}
+
+	/*
+	 * drop the oldest frames until length bytes fit at head and there is a free
+	 * slot, then drop frames until the oldest is a keyframe again
+	 */
+	private void makeRoom(int length) {
+		while (ring.length < maxBytes && !fits(length)) {
+			grow(length);
+		}
+		if (head + length > ring.length) {
+			// the end of the ring is left unused, the frames still in it are the oldest
+			while (frames > 0 && offsets[first] >= head) {
+				dropOldest();
+			}
+			head = 0;
+		}
+		while (frames > 0 && offsets[first] >= head && offsets[first] < head + length) {
+			dropOldest();
+		}
+		if (frames == maxFrames) {
+			dropOldest();
+		}
+		while (frames > 0 && !keyframes[first]) {
+			dropOldest();
+		}
+		if (frames == 0) {
+			head = 0;
+		}
+	}
+
+	private boolean fits(int length) {
+		return head + length <= ring.length && (frames == 0 || offsets[first] < head || offsets[first] >= head + length);
+	}
+
+	/*
+	 * a bigger ring with the frames moved to its start, oldest first
+	 */
+	private void grow(int length) {
+		int used = 0;
+		for (int i = 0; i < frames; i++) {
+			used += lengths[slot(i)];
+		}
+		byte[] grown = new byte[(int) Math.min(maxBytes, Math.max(2L * ring.length, (long) used + length))];
+		int offset = 0;
+		for (int i = 0; i < frames; i++) {
+			int slot = slot(i);
+			System.arraycopy(ring, offsets[slot], grown, offset, lengths[slot]);
+			offsets[slot] = offset;
+			offset += lengths[slot];
+		}
+		ring = grown;
+		head = offset;
+	}
+
+	private void dropOldest() {
+		first = (first + 1) % maxFrames;
+		frames--;
+		position = Math.max(0, position - 1);
+	}
+}
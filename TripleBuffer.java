@@ -0,0 +1,69 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * hands the newest of a stream of buffers from one producer thread to one
+ * consumer thread without locks and without allocating. There are three
+ * buffers: the producer fills the back one, the consumer reads the front one,
+ * and the third is the last one published. Publishing swaps the back buffer
+ * with that middle one in one atomic exchange, and the consumer swaps its front
+ * buffer for the middle one only when something new was published since it
+ * last looked, so a slow consumer just skips the frames it missed and the
+ * producer never waits for it.
+ */
+public class TripleBuffer<T> {
+	// set in the exchange when the middle buffer was published and not taken yet
+	private static final int FRESH = 4, INDEX = 3;
+	private final T[] buffers;
+	// index of the middle buffer and the FRESH bit
+	private final AtomicInteger middle;
+	// only touched by the producer and the consumer respectively
+	private int back, front;
+
+	@SuppressWarnings("unchecked")
+	public TripleBuffer(T first, T second, T third) {
+		buffers = (T[]) new Object[] { first, second, third };
+		front = 0;
+		middle = new AtomicInteger(1);
+		back = 2;
+	}
+
+	/*
+	 * the buffer the producer fills, it belongs to the producer until it is published
+	 */
+	public T back() {
+		return buffers[back];
+	}
+
+	/*
+	 * make the back buffer the newest one and get another to fill, replacing an
+	 * earlier published buffer the consumer hasn't taken
+	 */
+	public void publish() {
+		back = middle.getAndSet(back | FRESH) & INDEX;
+	}
+
+	/*
+	 * the newest published buffer, it belongs to the consumer until the next call
+	 */
+	public T front() {
+		if ((middle.get() & FRESH) != 0) {
+			front = middle.getAndSet(front) & INDEX;
+		}
+		return buffers[front];
+	}
+
+	/*
+	 * true if something was published that front() hasn't returned yet
+	 */
+	public boolean isFresh() {
+		return (middle.get() & FRESH) != 0;
+	}
+
+	/*
+	 * one of the three buffers in no particular order, for the producer to update
+	 * state it keeps in all of them
+	 */
+	public T get(int index) {
+		return buffers[index];
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * common view of a game of life universe so the GUI can drive any engine, on
+ * top of the cells it shares with every CellSource.
+ */
+public interface Universe extends CellSource {
+	/*
+	 * make the cell at the given column (x) and row (y) alive or dead
+	 */
+	void set(int x, int y, boolean alive);
+
+	/*
+	 * make a run of cells in one row alive, starting at column x. Pattern loading
+	 * goes through this so engines can set many cells at once.
+	 */
+	default void setRun(int x, int y, int length) {
+		for (int i = 0; i < length; i++) {
+			set(x + i, y, true);
+		}
+	}
+
+	/*
+	 * make a run of cells in one row dead, starting at column x. Erasing goes
+	 * through this so engines can kill many cells at once.
+	 */
+	default void clearRun(int x, int y, int length) {
+		for (int i = 0; i < length; i++) {
+			set(x + i, y, false);
+		}
+	}
+
+	/*
+	 * kill every cell and go back to generation zero
+	 */
+	void clear();
+
+	/*
+	 * move the universe forward by the given number of generations
+	 */
+	void advance(long generations);
+
+	/*
+	 * true if a cell in the row may have changed in the last generation or been
+	 * edited since, engines that don't track changes always say yes
+	 */
+	default boolean isRowChanged(int y) {
+		return true;
+	}
+
+	/*
+	 * a bit per row of the 64 rows from row y down, bit i set if one of the cells
+	 * of row y + i from column x to x + length - 1 may have changed in the last
+	 * generation or been edited since. Engines that keep changes per word or per
+	 * tile can tell those cells apart from the rest of the row.
+	 */
+	default long getChangedRows(int x, int y, int length) {
+		long rows = 0;
+		for (int i = 0; i < 64; i++) {
+			if (isRowChanged(y + i)) {
+				rows |= 1L << i;
+			}
+		}
+		return rows;
+	}
+
+	/*
+	 * true if isRowChanged() only reports the rows that changed, so a caller can
+	 * keep something derived from the cells up to date row by row
+	 */
+	default boolean hasRowChanges() {
+		return false;
+	}
+
+	/*
+	 * number of cells that were born or died in the last generation, or -1 for
+	 * engines that don't count them
+	 */
+	default long getChangedCells() {
+		return -1;
+	}
+
+	/*
+	 * how many of getChangedCells() were born in the last generation, the rest
+	 * died. -1 for engines that don't count them.
+	 */
+	default long getBirths() {
+		return -1;
+	}
+
+	/*
+	 * true if the engine can give its live bounding box without a pass over
+	 * every cell
+	 */
+	default boolean hasBounds() {
+		return false;
+	}
+
+	/*
+	 * the live bounding box as { left, top, right, bottom }, both corners
+	 * inclusive, or null when no cell is alive
+	 */
+	default int[] getBounds() {
+		throw new UnsupportedOperationException(getClass().getName() + " doesn't keep a bounding box");
+	}
+
+	/*
+	 * the rule the universe steps with, Rule.CONWAY unless it was changed
+	 */
+	Rule getRule();
+
+	/*
+	 * step with another rule from the next generation on. Unbounded universes
+	 * refuse rules that bring cells to life with no neighbours (B0) with an
+	 * IllegalArgumentException.
+	 */
+	void setRule(Rule rule);
+
+	/*
+	 * true if the engine keeps getHash() up to date
+	 */
+	default boolean hasHash() {
+		return false;
+	}
+
+	/*
+	 * hash of the live cells that only depends on which cells are alive, so a
+	 * universe that comes back to an earlier state comes back to its hash.
+	 * Engines that have one keep it up to date as words of cells change, as the
+	 * XOR of hashWord() over every word, instead of hashing the whole universe.
+	 */
+	default long getHash() {
+		throw new UnsupportedOperationException(getClass().getName() + " doesn't keep a hash");
+	}
+
+	/*
+	 * what one stored word of cells adds to the hash, 0 for an empty word so dead
+	 * space costs nothing. position tells apart the places a word can be stored.
+	 */
+	static long hashWord(long position, long word) {
+		if (word == 0) {
+			return 0;
+		}
+		long hash = word + position * 0x9E3779B97F4A7C15L;
+		hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+		return hash ^ (hash >>> 31);
+	}
+
+	long getGeneration();
+}
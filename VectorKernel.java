@@ -0,0 +1,182 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.LSHL;
+import static jdk.incubator.vector.VectorOperators.LSHR;
+import static jdk.incubator.vector.VectorOperators.XOR;
+
+/*
+ * Rule.evolve() on whole vectors of words at once with the Vector API, for rows
+ * of a packed bitboard where most words have to be recomputed. Each lane holds
+ * one word of 64 cells, so an AVX-512 register steps 512 cells per instruction.
+ * The east and west neighbours come from loading the row again one word to
+ * either side and shifting the edge bit across, the counting and the rule are
+ * the same bit-sliced adders and selects as the scalar kernel, so the output is
+ * identical bit for bit.
+ *
+ * The widest species the CPU supports is picked when the class is loaded. The
+ * Vector API is an incubator module, only there when the JVM is started with
+ * --add-modules jdk.incubator.vector, so this class must not be touched without
+ * it (LifeEngine checks for the module and otherwise steps with the scalar kernel).
+ */
+public class VectorKernel {
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+	private final Rule rule;
+	private final boolean conway;
+	// the rule's entries per neighbour count, as in Rule.evolve()
+	private final long[] born, flip;
+	// scratch rows for stepAny(), the bands of one engine step rows on their own threads
+	private final ThreadLocal<long[]> planes = ThreadLocal.withInitial(() -> new long[0]);
+
+	public VectorKernel(Rule rule) {
+		this.rule = rule;
+		conway = rule.equals(Rule.CONWAY);
+		born = new long[9];
+		flip = new long[9];
+		for (int n = 0; n <= 8; n++) {
+			born[n] = rule.isBorn(n) ? -1L : 0;
+			flip[n] = rule.isBorn(n) != rule.survives(n) ? -1L : 0;
+		}
+	}
+
+	/*
+	 * words per vector on this CPU
+	 */
+	public static int lanes() {
+		return SPECIES.length();
+	}
+
+	/*
+	 * next generation of words [from, to) of the row starting at mid into next,
+	 * with the rows above and below starting at up and down. Only for words that
+	 * have a word on both sides in the same row: from >= 1 and to <= the row length - 1.
+	 */
+	public void stepRow(long[] cells, long[] next, int up, int mid, int down, int from, int to) {
+		int k = conway ? stepConway(cells, next, up, mid, down, from, to) : stepAny(cells, next, up, mid, down, from, to);
+		// the words left over when the row isn't a whole number of vectors
+		for (; k < to; k++) {
+			long u = cells[up + k], m = cells[mid + k], d = cells[down + k];
+			next[mid + k] = rule.evolve((u << 1) | (cells[up + k - 1] >>> 63), u, (u >>> 1) | (cells[up + k + 1] << 63),
+					(m << 1) | (cells[mid + k - 1] >>> 63), m, (m >>> 1) | (cells[mid + k + 1] << 63),
+					(d << 1) | (cells[down + k - 1] >>> 63), d, (d >>> 1) | (cells[down + k + 1] << 63));
+		}
+	}
+
+	/*
+	 * Rule.evolve() for any rule on whole vectors from word from on, returns the
+	 * first word that's left. The neighbours are counted into bit planes first and
+	 * the rule is applied to them in a second pass: the JIT keeps each of the two
+	 * loops in vector registers, but not one loop doing all of it.
+	 */
+	private int stepAny(long[] cells, long[] next, int up, int mid, int down, int from, int to) {
+		int length = to - from;
+		long[] planes = this.planes.get();
+		if (planes.length < length * 4) {
+			planes = new long[length * 4];
+			this.planes.set(planes);
+		}
+		int k = from;
+		for (int end = to - SPECIES.length(); k <= end; k += SPECIES.length()) {
+			LongVector u = LongVector.fromArray(SPECIES, cells, up + k);
+			LongVector m = LongVector.fromArray(SPECIES, cells, mid + k);
+			LongVector d = LongVector.fromArray(SPECIES, cells, down + k);
+			LongVector ul = west(u, LongVector.fromArray(SPECIES, cells, up + k - 1));
+			LongVector ur = east(u, LongVector.fromArray(SPECIES, cells, up + k + 1));
+			LongVector l = west(m, LongVector.fromArray(SPECIES, cells, mid + k - 1));
+			LongVector r = east(m, LongVector.fromArray(SPECIES, cells, mid + k + 1));
+			LongVector dl = west(d, LongVector.fromArray(SPECIES, cells, down + k - 1));
+			LongVector dr = east(d, LongVector.fromArray(SPECIES, cells, down + k + 1));
+			// the carry-save adder tree of Rule.evolve()
+			LongVector a = ul.lanewise(XOR, u), sumA = a.lanewise(XOR, ur), carryA = ul.and(u).or(a.and(ur));
+			LongVector b = l.lanewise(XOR, r), sumB = b.lanewise(XOR, dl), carryB = l.and(r).or(b.and(dl));
+			LongVector sumC = d.lanewise(XOR, dr), carryC = d.and(dr);
+			LongVector c = sumA.lanewise(XOR, sumB), carryD = sumA.and(sumB).or(c.and(sumC));
+			LongVector e = carryA.lanewise(XOR, carryB), twosA = e.lanewise(XOR, carryC);
+			LongVector foursA = carryA.and(carryB).or(e.and(carryC)), foursB = twosA.and(carryD);
+			int plane = k - from;
+			c.lanewise(XOR, sumC).intoArray(planes, plane);
+			twosA.lanewise(XOR, carryD).intoArray(planes, plane + length);
+			foursA.lanewise(XOR, foursB).intoArray(planes, plane + length * 2);
+			foursA.and(foursB).intoArray(planes, plane + length * 3);
+		}
+		applyRule(cells, next, mid, from, k, planes, length);
+		return k;
+	}
+
+	/*
+	 * the second pass of stepAny(), over words [from, to). The rule's entries are
+	 * broadcast where they're used, vectors held across the loop cost more than that.
+	 */
+	private void applyRule(long[] cells, long[] next, int mid, int from, int to, long[] planes, int length) {
+		long[] born = this.born, flip = this.flip;
+		for (int i = from; i < to; i += SPECIES.length()) {
+			int plane = i - from;
+			LongVector m = LongVector.fromArray(SPECIES, cells, mid + i);
+			LongVector ones = LongVector.fromArray(SPECIES, planes, plane);
+			LongVector twos = LongVector.fromArray(SPECIES, planes, plane + length);
+			LongVector fours = LongVector.fromArray(SPECIES, planes, plane + length * 2);
+			LongVector eights = LongVector.fromArray(SPECIES, planes, plane + length * 3);
+			// the tree of selects over the rule's entries of Rule.evolve()
+			LongVector n01 = select(ones, entry(m, born[0], flip[0]), entry(m, born[1], flip[1]));
+			LongVector n23 = select(ones, entry(m, born[2], flip[2]), entry(m, born[3], flip[3]));
+			LongVector n45 = select(ones, entry(m, born[4], flip[4]), entry(m, born[5], flip[5]));
+			LongVector n67 = select(ones, entry(m, born[6], flip[6]), entry(m, born[7], flip[7]));
+			LongVector n07 = select(fours, select(twos, n01, n23), select(twos, n45, n67));
+			select(eights, n07, entry(m, born[8], flip[8])).intoArray(next, mid + i);
+		}
+	}
+
+	/*
+	 * the rule's entry for one neighbour count, for each cell whether it's alive or dead
+	 */
+	private static LongVector entry(LongVector m, long born, long flip) {
+		return m.and(LongVector.broadcast(SPECIES, flip)).lanewise(XOR, LongVector.broadcast(SPECIES, born));
+	}
+
+	/*
+	 * stepAny() for B3/S23, with the same sticky counter as the scalar kernel
+	 */
+	private static int stepConway(long[] cells, long[] next, int up, int mid, int down, int from, int to) {
+		int k = from;
+		for (int end = to - SPECIES.length(); k <= end; k += SPECIES.length()) {
+			LongVector u = LongVector.fromArray(SPECIES, cells, up + k);
+			LongVector m = LongVector.fromArray(SPECIES, cells, mid + k);
+			LongVector d = LongVector.fromArray(SPECIES, cells, down + k);
+			LongVector ul = west(u, LongVector.fromArray(SPECIES, cells, up + k - 1));
+			LongVector ur = east(u, LongVector.fromArray(SPECIES, cells, up + k + 1));
+			LongVector l = west(m, LongVector.fromArray(SPECIES, cells, mid + k - 1));
+			LongVector r = east(m, LongVector.fromArray(SPECIES, cells, mid + k + 1));
+			LongVector dl = west(d, LongVector.fromArray(SPECIES, cells, down + k - 1));
+			LongVector dr = east(d, LongVector.fromArray(SPECIES, cells, down + k + 1));
+			LongVector carry = ul.and(u), ones = ul.lanewise(XOR, u), twos = carry, fours;
+			carry = ones.and(ur); ones = ones.lanewise(XOR, ur); fours = twos.and(carry); twos = twos.lanewise(XOR, carry);
+			carry = ones.and(l); ones = ones.lanewise(XOR, l); fours = fours.or(twos.and(carry)); twos = twos.lanewise(XOR, carry);
+			carry = ones.and(r); ones = ones.lanewise(XOR, r); fours = fours.or(twos.and(carry)); twos = twos.lanewise(XOR, carry);
+			carry = ones.and(dl); ones = ones.lanewise(XOR, dl); fours = fours.or(twos.and(carry)); twos = twos.lanewise(XOR, carry);
+			carry = ones.and(d); ones = ones.lanewise(XOR, d); fours = fours.or(twos.and(carry)); twos = twos.lanewise(XOR, carry);
+			carry = ones.and(dr); ones = ones.lanewise(XOR, dr); fours = fours.or(twos.and(carry)); twos = twos.lanewise(XOR, carry);
+			// alive next generation with exactly 3 neighbours, or 2 neighbours if already alive
+			twos.and(fours.not()).and(ones.or(m)).intoArray(next, mid + k);
+		}
+		return k;
+	}
+
+	/*
+	 * every cell's west neighbour: the words shifted one cell east, with the last
+	 * cell of the word to the west shifted in
+	 */
+	private static LongVector west(LongVector words, LongVector westWords) {
+		return words.lanewise(LSHL, 1).or(westWords.lanewise(LSHR, 63));
+	}
+
+	private static LongVector east(LongVector words, LongVector eastWords) {
+		return words.lanewise(LSHR, 1).or(eastWords.lanewise(LSHL, 63));
+	}
+
+	/*
+	 * bit by bit, whenTrue where the selector is set and whenFalse where it isn't
+	 */
+	private static LongVector select(LongVector selector, LongVector whenFalse, LongVector whenTrue) {
+		return whenFalse.lanewise(XOR, selector.and(whenFalse.lanewise(XOR, whenTrue)));
+	}
+}
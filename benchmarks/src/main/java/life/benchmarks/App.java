@@ -0,0 +1,296 @@
+package life.benchmarks;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.swing.JComponent;
+
+/*
+ * The game's classes are in the default package, which code in a named package
+ * (and so every JMH benchmark) can't import. They're bound here once through
+ * method handles held in static finals, which the JIT treats as constants and
+ * inlines like direct calls, so the benchmarks measure the game and not this.
+ */
+final class App {
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+	private static final Class<?> UNIVERSE = find("Universe");
+	private static final MethodHandle NEW_LIFE_ENGINE = constructor("LifeEngine", int.class, int.class);
+	private static final MethodHandle NEW_SPARSE = constructor("SparseUniverse");
+	private static final MethodHandle NEW_OFF_HEAP = constructor("OffHeapUniverse", int.class, int.class);
+	private static final MethodHandle NEW_HASH_LIFE = constructor("HashLife");
+	private static final MethodHandle NEW_LIBRARY = constructor("PatternLibrary");
+	private static final MethodHandle NEW_CANVAS = constructor("GridCanvas", UNIVERSE, int.class, int.class, int.class, Color.class);
+	private static final MethodHandle SET_THREADS = method("LifeEngine", "setThreads", void.class, int.class);
+	private static final MethodHandle SET_VECTORIZED = method("LifeEngine", "setVectorized", void.class, boolean.class);
+	private static final MethodHandle SET_RULE = method("Universe", "setRule", void.class, find("Rule"));
+	private static final MethodHandle SET = method("Universe", "set", void.class, int.class, int.class, boolean.class);
+	private static final MethodHandle ADVANCE = method("Universe", "advance", void.class, long.class);
+	private static final MethodHandle CLEAR = method("Universe", "clear", void.class);
+	private static final MethodHandle POPULATION = method("Universe", "getPopulation", long.class);
+	private static final MethodHandle LIBRARY_GET = method("PatternLibrary", "get", find("Pattern"), String.class);
+	private static final MethodHandle APPLY_CENTRED = method("Pattern", "applyCentred", void.class, UNIVERSE, int.class, int.class);
+	private static final MethodHandle REFRESH = method("GridCanvas", "refresh", void.class);
+	private static final MethodHandle FIT_GRID = method("GridCanvas", "fitGrid", void.class);
+	private static final MethodHandle PARSE_RULE;
+	private static final MethodHandle READ_PATTERN;
+	private static final MethodHandle WRITE_RLE;
+	static {
+		try {
+			PARSE_RULE = LOOKUP.findStatic(find("Rule"), "parse", MethodType.methodType(find("Rule"), String.class))
+					.asType(MethodType.methodType(Object.class, String.class));
+			READ_PATTERN = LOOKUP.findStatic(find("PatternReader"), "read",
+					MethodType.methodType(find("Pattern"), java.io.InputStream.class, String.class))
+					.asType(MethodType.methodType(Object.class, java.io.InputStream.class, String.class));
+			WRITE_RLE = LOOKUP.findStatic(find("PatternWriter"), "writeRLE",
+					MethodType.methodType(void.class, UNIVERSE, int.class, int.class, int.class, int.class, String.class, Writer.class))
+					.asType(MethodType.methodType(void.class, Object.class, int.class, int.class, int.class, int.class, String.class, Writer.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private App() {
+	}
+
+	/*
+	 * empty universe for one of the engines: bitboard, sparse, offheap or hashlife
+	 */
+	static Object newUniverse(String engine, int width, int height, int threads) {
+		try {
+			switch (engine) {
+			case "bitboard":
+				Object lifeEngine = NEW_LIFE_ENGINE.invokeExact(width, height);
+				SET_THREADS.invokeExact(lifeEngine, threads);
+				return lifeEngine;
+			case "sparse":
+				return NEW_SPARSE.invokeExact();
+			case "offheap":
+				return NEW_OFF_HEAP.invokeExact(width, height);
+			case "hashlife":
+				return NEW_HASH_LIFE.invokeExact();
+			default:
+				throw new IllegalArgumentException("Unknown engine " + engine);
+			}
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * fill the universe with a starting state: "soup-<percent>" for random cells
+	 * at that density over the grid, otherwise a built-in pattern in the middle
+	 */
+	static void seed(Object universe, String start, int width, int height) {
+		if (start.startsWith("soup-")) {
+			double density = Integer.parseInt(start.substring(5)) / 100.0;
+			Random random = new Random(42);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if (random.nextDouble() < density) {
+						set(universe, x, y, true);
+					}
+				}
+			}
+			return;
+		}
+		try {
+			Object library = NEW_LIBRARY.invokeExact();
+			Object pattern = LIBRARY_GET.invokeExact(library, start);
+			APPLY_CENTRED.invokeExact(pattern, universe, width, height);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * step the universe with a B/S rulestring or a named rule from now on
+	 */
+	static void setRule(Object universe, String rule) {
+		try {
+			SET_RULE.invokeExact(universe, (Object) PARSE_RULE.invokeExact(rule));
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * step dense rows of a bitboard engine with the vector kernel or the scalar one
+	 */
+	static void setVectorized(Object lifeEngine, boolean vectorized) {
+		try {
+			SET_VECTORIZED.invokeExact(lifeEngine, vectorized);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static void set(Object universe, int x, int y, boolean alive) {
+		try {
+			SET.invokeExact(universe, x, y, alive);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static void advance(Object universe, long generations) {
+		try {
+			ADVANCE.invokeExact(universe, generations);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static void clear(Object universe) {
+		try {
+			CLEAR.invokeExact(universe);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static long population(Object universe) {
+		try {
+			return (long) POPULATION.invokeExact(universe);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * parse RLE or Macrocell bytes into a pattern
+	 */
+	static Object readPattern(byte[] data, String name) {
+		try {
+			return READ_PATTERN.invokeExact((java.io.InputStream) new ByteArrayInputStream(data), name);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static void applyCentred(Object pattern, Object universe, int width, int height) {
+		try {
+			APPLY_CENTRED.invokeExact(pattern, universe, width, height);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * the grid of the universe as RLE bytes
+	 */
+	static byte[] writeRLE(Object universe, int width, int height) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			WRITE_RLE.invokeExact(universe, 0, 0, width, height, "B3/S23",
+					(Writer) new OutputStreamWriter(bytes, StandardCharsets.US_ASCII));
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	static JComponent newCanvas(Object universe, int width, int height, int cellSize) {
+		try {
+			return (JComponent) (Object) NEW_CANVAS.invokeExact(universe, width, height, cellSize, new Color(40, 40, 40));
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static void refresh(JComponent canvas) {
+		try {
+			REFRESH.invokeExact((Object) canvas);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static void fitGrid(JComponent canvas) {
+		try {
+			FIT_GRID.invokeExact((Object) canvas);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Class<?> find(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/*
+	 * constructor handle typed to return Object, parameters of game types become Object
+	 */
+	private static MethodHandle constructor(String type, Class<?>... parameters) {
+		try {
+			MethodHandle handle = LOOKUP.findConstructor(find(type), MethodType.methodType(void.class, parameters));
+			return handle.asType(erase(handle.type()).changeReturnType(Object.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/*
+	 * instance method handle with the receiver, and any game types, typed as Object
+	 */
+	private static MethodHandle method(String type, String name, Class<?> result, Class<?>... parameters) {
+		try {
+			MethodHandle handle = LOOKUP.findVirtual(find(type), name, MethodType.methodType(result, parameters));
+			return handle.asType(erase(handle.type()));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static MethodType erase(MethodType type) {
+		for (int i = 0; i < type.parameterCount(); i++) {
+			if (isGameType(type.parameterType(i))) {
+				type = type.changeParameterType(i, Object.class);
+			}
+		}
+		return isGameType(type.returnType()) ? type.changeReturnType(Object.class) : type;
+	}
+
+	private static boolean isGameType(Class<?> type) {
+		return !type.isPrimitive() && type.getPackageName().isEmpty();
+	}
+}
@@ -0,0 +1,29 @@
+package life.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * entry point of benchmarks.jar, takes the usual JMH options and always adds
+ * the GC profiler so every result comes with its allocation rate
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		if (commandLine.shouldHelp()) {
+			commandLine.showHelp();
+			return;
+		}
+		Options options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build();
+		Runner runner = new Runner(options);
+		if (commandLine.shouldList()) {
+			runner.list();
+			return;
+		}
+		runner.run();
+	}
+}
@@ -0,0 +1,48 @@
+package life.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * a jump of 2^log2 generations in HashLife from a fresh universe, so nothing is
+ * reused from the memo of an earlier invocation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashLifeBenchmark {
+	@Param({"Gosper Glider Gun", "Acorn"})
+	public String start;
+
+	@Param({"10", "20"})
+	public int log2;
+
+	private Object universe;
+
+	@Setup(Level.Invocation)
+	public void seed() {
+		universe = App.newUniverse("hashlife", 0, 0, 1);
+		App.seed(universe, start, 0, 0);
+	}
+
+	@Benchmark
+	public Object jump() {
+		App.advance(universe, 1L << log2);
+		return universe;
+	}
+}
@@ -0,0 +1,57 @@
+package life.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * parsing RLE and stamping the result into a grid. The RLE is made once from a
+ * seeded grid, so the built-in patterns and soups of any size can be measured
+ * without files on disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternLoadBenchmark {
+	@Param({"512", "2048"})
+	public int size;
+
+	@Param({"soup-35", "Gosper Glider Gun"})
+	public String start;
+
+	private byte[] rle;
+	private Object target;
+
+	@Setup
+	public void write() {
+		Object universe = App.newUniverse("bitboard", size, size, 1);
+		App.seed(universe, start, size, size);
+		rle = App.writeRLE(universe, size, size);
+		target = App.newUniverse("bitboard", size, size, 1);
+	}
+
+	@Benchmark
+	public Object parse() {
+		return App.readPattern(rle, start);
+	}
+
+	@Benchmark
+	public Object parseAndApply() {
+		App.clear(target);
+		App.applyCentred(App.readPattern(rle, start), target, size, size);
+		return target;
+	}
+}
@@ -0,0 +1,79 @@
+package life.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JComponent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * drawing frames of the grid canvas into an offscreen image the size of the
+ * default window, with no screen involved. step measures the usual frame (one
+ * generation, refresh the changed rows, paint), redraw rebuilds the whole image
+ * as after panning or zooming.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+	private static final int VIEW = 675;
+
+	@Param({"45", "512", "2048", "8192"})
+	public int size;
+
+	@Param({"soup-35"})
+	public String start;
+
+	private Object universe;
+	private JComponent canvas;
+	private BufferedImage frame;
+	private Graphics2D graphics;
+
+	@Setup(Level.Iteration)
+	public void seed() {
+		universe = App.newUniverse("bitboard", size, size, 1);
+		App.seed(universe, start, size, size);
+		canvas = App.newCanvas(universe, size, size, Math.max(1, Math.min(15, VIEW / size)));
+		canvas.setSize(VIEW, VIEW);
+		App.fitGrid(canvas);
+		frame = new BufferedImage(VIEW, VIEW, BufferedImage.TYPE_INT_RGB);
+		graphics = frame.createGraphics();
+	}
+
+	@TearDown(Level.Iteration)
+	public void dispose() {
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage step() {
+		App.advance(universe, 1);
+		App.refresh(canvas);
+		canvas.paint(graphics);
+		return frame;
+	}
+
+	@Benchmark
+	public BufferedImage redraw() {
+		App.fitGrid(canvas);
+		canvas.paint(graphics);
+		return frame;
+	}
+}
@@ -0,0 +1,69 @@
+package life.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * one generation of the grid engines, from a tiny grid to a 64 megacell one,
+ * starting from random soups and from built-in patterns. The universe is seeded
+ * again before every iteration so each one measures the same stretch of the run.
+ * Other rules can be swept with e.g. -p rule=B36/S23,B3678/S34678,B2/S, and
+ * -p vectorized=false steps the bitboard engine with the scalar kernel only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class StepBenchmark {
+	@Param({"45", "512", "2048", "8192"})
+	public int size;
+
+	// soup-<percent> or the name of a built-in pattern
+	@Param({"soup-10", "soup-35", "Gosper Glider Gun", "Acorn"})
+	public String start;
+
+	@Param({"bitboard", "sparse", "offheap"})
+	public String engine;
+
+	@Param({"B3/S23"})
+	public String rule;
+
+	// only used by the bitboard engine
+	@Param({"1"})
+	public int threads;
+
+	// only used by the bitboard engine
+	@Param({"true"})
+	public boolean vectorized;
+
+	private Object universe;
+
+	@Setup(Level.Iteration)
+	public void seed() {
+		universe = App.newUniverse(engine, size, size, threads);
+		if (engine.equals("bitboard")) {
+			App.setVectorized(universe, vectorized);
+		}
+		App.setRule(universe, rule);
+		App.seed(universe, start, size, size);
+	}
+
+	@Benchmark
+	public void step() {
+		App.advance(universe, 1);
+	}
+}